@@ -0,0 +1,141 @@
+package org.joinmastodon.android.test;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.joinmastodon.android.api.MastodonAPIController;
+import org.joinmastodon.android.api.gson.BinaryJson;
+import org.joinmastodon.android.model.Account;
+import org.joinmastodon.android.model.Status;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+/**
+ * Compares the size and decoding time of {@link BinaryJson} with JSON text for the rows the cache stores,
+ * made from the statuses in the fixture.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BinaryJsonBenchmark{
+	private static final String TAG="BinaryJsonBenchmark";
+	private static final int WARMUP_ITERATIONS=300;
+	private static final int ITERATIONS=3000;
+
+	@Test
+	public void statusRows() throws IOException{
+		List<Status> statuses=MastodonAPIController.gson.fromJson(ModelTypeAdapterTest.readStatusesFixture(), new TypeToken<List<Status>>(){}.getType());
+		ArrayList<Status> statusRows=new ArrayList<>();
+		ArrayList<Account> accountRows=new ArrayList<>();
+		for(Status s:statuses){
+			for(Status status=s;status!=null;status=status.reblog){
+				// Same as what CacheWriteBuffer stores in the statuses table, accounts go into their own
+				Status stripped=status.clone();
+				stripped.account=null;
+				stripped.reblog=null;
+				statusRows.add(stripped);
+				accountRows.add(status.account);
+			}
+		}
+		compare("statuses", statusRows, Status.class);
+		compare("accounts", accountRows, Account.class);
+	}
+
+	@Test
+	public void timelineSnapshot() throws IOException{
+		// The home timeline snapshot is written as a whole list
+		List<Status> statuses=MastodonAPIController.gson.fromJson(ModelTypeAdapterTest.readStatusesFixture(), new TypeToken<List<Status>>(){}.getType());
+		Type type=new TypeToken<List<Status>>(){}.getType();
+		compare("snapshot", List.of(statuses), type);
+	}
+
+	@Test
+	public void jsonValue(){
+		String json="""
+				{"a": [1, 2.5, -3, "x", true, null, {}, []], "b": null, "c": 12345678901234, "d": {"e": "f"}}
+				""";
+		Gson gson=new GsonBuilder()
+				.registerTypeAdapter(RawJson.class, new TypeAdapter<RawJson>(){
+					@Override
+					public void write(JsonWriter out, RawJson value) throws IOException{
+						out.jsonValue(value.json());
+					}
+
+					@Override
+					public RawJson read(JsonReader in){
+						throw new UnsupportedOperationException();
+					}
+				})
+				.create();
+		byte[] binary=BinaryJson.encode(gson, new RawJson(json), RawJson.class);
+		Assert.assertEquals(JsonParser.parseString(json), BinaryJson.decode(gson, binary, JsonElement.class));
+	}
+
+	private static <T> void compare(String name, List<T> objects, Type type){
+		int count=objects.size();
+		byte[][] json=new byte[count][];
+		byte[][] binary=new byte[count][];
+		long jsonSize=0, binarySize=0;
+		for(int i=0;i<count;i++){
+			T obj=objects.get(i);
+			json[i]=MastodonAPIController.gson.toJson(obj, type).getBytes(StandardCharsets.UTF_8);
+			binary[i]=BinaryJson.encode(MastodonAPIController.gson, obj, type);
+			jsonSize+=json[i].length;
+			binarySize+=binary[i].length;
+			Assert.assertTrue(BinaryJson.isBinaryJson(binary[i]));
+			Object fromBinary=BinaryJson.decode(MastodonAPIController.gson, binary[i], type);
+			Object fromJson=MastodonAPIController.gson.fromJson(new String(json[i], StandardCharsets.UTF_8), type);
+			Assert.assertEquals(ModelTypeAdapterTest.reflectiveGson.toJsonTree(fromJson), ModelTypeAdapterTest.reflectiveGson.toJsonTree(fromBinary));
+		}
+
+		for(int i=0;i<WARMUP_ITERATIONS;i++){
+			decodeJson(json, type);
+			decodeBinary(binary, type);
+		}
+		long jsonTime=0, binaryTime=0;
+		// Interleaved so that both formats see the same CPU frequency and GC pressure
+		for(int i=0;i<ITERATIONS;i++){
+			long start=System.nanoTime();
+			decodeJson(json, type);
+			jsonTime+=System.nanoTime()-start;
+			start=System.nanoTime();
+			decodeBinary(binary, type);
+			binaryTime+=System.nanoTime()-start;
+		}
+		Log.i(TAG, String.format("%s (%d): JSON %d bytes, %.1f µs; binary %d bytes (%.0f%%), %.1f µs (%.0f%%)", name, count,
+				jsonSize, jsonTime/1000.0/ITERATIONS, binarySize, binarySize*100.0/jsonSize, binaryTime/1000.0/ITERATIONS, binaryTime*100.0/jsonTime));
+		Assert.assertTrue("Binary is larger than JSON for "+name, binarySize<jsonSize);
+	}
+
+	private static void decodeJson(byte[][] rows, Type type){
+		for(byte[] row:rows){
+			// Text columns come out of the cursor as strings, so the UTF-8 decoding is part of reading them
+			MastodonAPIController.gson.fromJson(new String(row, StandardCharsets.UTF_8), type);
+		}
+	}
+
+	private static void decodeBinary(byte[][] rows, Type type){
+		for(byte[] row:rows){
+			BinaryJson.decode(MastodonAPIController.gson, row, type);
+		}
+	}
+
+	private record RawJson(String json){}
+}
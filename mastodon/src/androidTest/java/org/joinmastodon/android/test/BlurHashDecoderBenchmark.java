@@ -0,0 +1,124 @@
+package org.joinmastodon.android.test;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import org.joinmastodon.android.ui.utils.BlurHashDecoder;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+/**
+ * Compares {@link BlurHashDecoder} with {@link LegacyBlurHashDecoder}, the way it was before it was made thread-safe
+ * and started caching bitmaps.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BlurHashDecoderBenchmark{
+	private static final String TAG="BlurHashDecoderBenchmark";
+	private static final int WARMUP_ITERATIONS=200;
+	private static final int ITERATIONS=2000;
+	/**
+	 * From the status fixture and the blurhash examples, plus a generated one with 9x9 components
+	 */
+	private static final String[] HASHES={
+			"UKFFaX-;00of9Ft7~qWB%2WBWBj[xuayWBt7",
+			"U35OQmxu00of~qj[ofof00ay%Mj[M{ayofj[",
+			"UGF5?xYk^6#M@-5c,1J5@[or[Q6.{dSgGajY",
+			"LEHV6nWB2yk8pyo0adR*.7kCMdnj",
+			"LGF5]+Yk^6#M@-5c,1J5@[or[Q6.",
+			"L6PZfSi_.AyE_3t7t7R**0o#DgR4",
+			"LKO2?U%2Tw=w]~RBVZRi};RPxuwH",
+			"00ABCD",
+			"|eAU[ljvyha:QUDtIU+*0qXWnpj$xu7}W|swy;.843;=bXGx.Zio;kfwFgGpNe55A_D5n|wM6K]Y,_b;^^?rA2SzKJ+jMB;p_Mfq8s]KQRKxdBR#Xx{@4LJv.{0hem5XbWmiDy2QNUf]=tB4w[0VB|[av9JgK3Wn0,8KDC"
+	};
+	private static final int[][] SIZES={{16, 16}, {32, 32}, {20, 11}, {1, 1}};
+	private static final float[] PUNCHES={1f, 0.5f, 2f};
+
+	@Test
+	public void matchesLegacyDecoder(){
+		for(String hash:HASHES){
+			for(int[] size:SIZES){
+				for(float punch:PUNCHES){
+					for(boolean useCache:new boolean[]{true, false}){
+						Bitmap expected=LegacyBlurHashDecoder.decode(hash, size[0], size[1], punch, useCache);
+						Bitmap actual=BlurHashDecoder.decode(hash, size[0], size[1], punch, useCache);
+						assertSimilar(hash+" "+size[0]+"x"+size[1]+" punch "+punch, expected, actual);
+					}
+				}
+			}
+			Assert.assertEquals(LegacyBlurHashDecoder.decodeToSingleColor(hash), BlurHashDecoder.decodeToSingleColor(hash));
+		}
+		// Malformed hashes are rejected the same way
+		for(String hash:new String[]{null, "", "LEHV6", "LEHV6nWB2yk8pyo0adR*.7kCMdn", "LEHV6nWB2yk8pyo0adR*.7kCMdnjj"}){
+			Assert.assertNull(BlurHashDecoder.decode(hash, 16, 16));
+			Assert.assertNull(LegacyBlurHashDecoder.decode(hash, 16, 16));
+		}
+	}
+
+	@Test
+	public void decode(){
+		for(int i=0;i<WARMUP_ITERATIONS;i++){
+			decodeAll(false, false);
+			decodeAll(true, false);
+		}
+		// Interleaved so that both decoders see the same CPU frequency and GC pressure
+		long legacy=0, current=0, legacyCached=0, currentCached=0;
+		for(int i=0;i<ITERATIONS;i++){
+			long start=System.nanoTime();
+			decodeAll(false, false);
+			legacy+=System.nanoTime()-start;
+			start=System.nanoTime();
+			decodeAll(true, false);
+			current+=System.nanoTime()-start;
+		}
+		// With the caches, like the app uses them. The current decoder returns the same bitmap when the same hash is decoded again.
+		BlurHashDecoder.clearCache();
+		LegacyBlurHashDecoder.clearCache();
+		for(int i=0;i<ITERATIONS;i++){
+			long start=System.nanoTime();
+			decodeAll(false, true);
+			legacyCached+=System.nanoTime()-start;
+			start=System.nanoTime();
+			decodeAll(true, true);
+			currentCached+=System.nanoTime()-start;
+		}
+		Log.i(TAG, String.format("%d hashes at 16x16 without caches: legacy %.1f µs, current %.1f µs (%.0f%%)", HASHES.length,
+				legacy/1000.0/ITERATIONS, current/1000.0/ITERATIONS, current*100.0/legacy));
+		Log.i(TAG, String.format("%d hashes at 16x16 with caches: legacy %.1f µs, current %.1f µs (%.0f%%)", HASHES.length,
+				legacyCached/1000.0/ITERATIONS, currentCached/1000.0/ITERATIONS, currentCached*100.0/legacyCached));
+	}
+
+	private static void decodeAll(boolean current, boolean useCache){
+		for(String hash:HASHES){
+			if(current)
+				BlurHashDecoder.decode(hash, 16, 16, 1f, useCache);
+			else
+				LegacyBlurHashDecoder.decode(hash, 16, 16, 1f, useCache);
+		}
+	}
+
+	/**
+	 * The lookup tables round slightly differently than calling Math.pow() for every pixel, so allow ±1 per channel
+	 */
+	private static void assertSimilar(String message, Bitmap expected, Bitmap actual){
+		Assert.assertNotNull(message, expected);
+		Assert.assertNotNull(message, actual);
+		Assert.assertEquals(message, expected.getWidth(), actual.getWidth());
+		Assert.assertEquals(message, expected.getHeight(), actual.getHeight());
+		for(int y=0;y<expected.getHeight();y++){
+			for(int x=0;x<expected.getWidth();x++){
+				int e=expected.getPixel(x, y), a=actual.getPixel(x, y);
+				String where=message+" at "+x+","+y+": expected #"+Integer.toHexString(e)+", got #"+Integer.toHexString(a);
+				Assert.assertEquals(where, Color.alpha(e), Color.alpha(a));
+				Assert.assertTrue(where, Math.abs(Color.red(e)-Color.red(a))<=1);
+				Assert.assertTrue(where, Math.abs(Color.green(e)-Color.green(a))<=1);
+				Assert.assertTrue(where, Math.abs(Color.blue(e)-Color.blue(a))<=1);
+			}
+		}
+	}
+}
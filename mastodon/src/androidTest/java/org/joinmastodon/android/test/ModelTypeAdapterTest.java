@@ -0,0 +1,109 @@
+package org.joinmastodon.android.test;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import org.joinmastodon.android.api.MastodonAPIController;
+import org.joinmastodon.android.api.gson.IsoInstantTypeAdapter;
+import org.joinmastodon.android.api.gson.IsoLocalDateTypeAdapter;
+import org.joinmastodon.android.model.Account;
+import org.joinmastodon.android.model.Status;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+/**
+ * Checks that the hand-written Status and Account adapters produce the same objects as Gson's reflective adapter.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ModelTypeAdapterTest{
+	/**
+	 * The same configuration as {@link MastodonAPIController#gson}, without the hand-written adapters
+	 */
+	static final Gson reflectiveGson=new GsonBuilder()
+			.disableHtmlEscaping()
+			.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+			.registerTypeAdapter(Instant.class, new IsoInstantTypeAdapter())
+			.registerTypeAdapter(LocalDate.class, new IsoLocalDateTypeAdapter())
+			.create();
+
+	static String readStatusesFixture() throws IOException{
+		try(Reader reader=new InputStreamReader(InstrumentationRegistry.getInstrumentation().getContext().getAssets().open("statuses.json"), StandardCharsets.UTF_8)){
+			StringBuilder sb=new StringBuilder();
+			char[] buf=new char[8192];
+			int read;
+			while((read=reader.read(buf))>0){
+				sb.append(buf, 0, read);
+			}
+			return sb.toString();
+		}
+	}
+
+	@Test
+	public void statusesMatchReflection() throws IOException{
+		JsonArray statuses=JsonParser.parseString(readStatusesFixture()).getAsJsonArray();
+		Assert.assertTrue(statuses.size()>0);
+		for(JsonElement json:statuses){
+			assertSameResult(json, Status.class);
+		}
+	}
+
+	@Test
+	public void accountsMatchReflection() throws IOException{
+		for(JsonElement json:JsonParser.parseString(readStatusesFixture()).getAsJsonArray()){
+			assertSameResult(json.getAsJsonObject().get("account"), Account.class);
+		}
+	}
+
+	@Test
+	public void unknownFieldsAndNullsMatchReflection(){
+		assertSameResult(JsonParser.parseString("""
+				{"id": "1", "uri": "https://example.social/1", "created_at": "2024-01-01T00:00:00Z", "content": "", "visibility": "public",
+				"sensitive": null, "reblogs_count": null, "favourited": "true", "pinned": "false", "spoiler_text": null, "emojis": null,
+				"future_field": {"nested": [1, 2, {"deeper": null}], "reblog": {"id": "2"}}, "another_one": [[], {}], "id_str": "1",
+				"account": {"id": "3", "username": "a", "acct": "a", "locked": null, "bot": "true", "followers_count": "12",
+				"statuses_count": null, "last_status_at": null, "unknown": {"fields": []}, "moved": null}}
+				"""), Status.class);
+	}
+
+	@Test
+	public void listsMatchReflection() throws IOException{
+		String json=readStatusesFixture();
+		List<Status> direct=MastodonAPIController.gson.fromJson(json, new TypeToken<List<Status>>(){}.getType());
+		List<Status> reflective=reflectiveGson.fromJson(json, new TypeToken<List<Status>>(){}.getType());
+		Assert.assertEquals(reflectiveGson.toJsonTree(reflective), reflectiveGson.toJsonTree(direct));
+	}
+
+	/**
+	 * Parses the JSON with both Gsons and compares everything the reflective adapter can see, and checks that what the
+	 * hand-written adapter writes parses back into the same object.
+	 */
+	private static <T> void assertSameResult(JsonElement json, Class<T> type){
+		T direct=MastodonAPIController.gson.fromJson(json, type);
+		T reflective=reflectiveGson.fromJson(json, type);
+		JsonElement expected=reflectiveGson.toJsonTree(reflective);
+		Assert.assertEquals(expected, reflectiveGson.toJsonTree(direct));
+
+		String written=MastodonAPIController.gson.toJson(direct);
+		Assert.assertEquals(expected, reflectiveGson.toJsonTree(reflectiveGson.fromJson(written, type)));
+		Assert.assertEquals(expected, reflectiveGson.toJsonTree(MastodonAPIController.gson.fromJson(written, type)));
+	}
+}
@@ -0,0 +1,163 @@
+package org.joinmastodon.android.test;
+
+import android.util.Log;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.joinmastodon.android.api.AllFieldsAreRequired;
+import org.joinmastodon.android.api.MastodonAPIController;
+import org.joinmastodon.android.api.ObjectValidationException;
+import org.joinmastodon.android.api.RequiredField;
+import org.joinmastodon.android.model.Account;
+import org.joinmastodon.android.model.BaseModel;
+import org.joinmastodon.android.model.Emoji;
+import org.joinmastodon.android.model.Mention;
+import org.joinmastodon.android.model.Status;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+/**
+ * Compares {@link BaseModel#postprocess()}, which caches the required fields of each class, with looking at the
+ * annotations of every field for every object like it used to: on its own for the models that don't do anything else,
+ * and as part of {@link Status#postprocess()} for whole statuses with everything nested in them.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class RequiredFieldsBenchmark{
+	private static final String TAG="RequiredFieldsBenchmark";
+	private static final int WARMUP_ITERATIONS=2000;
+	private static final int ITERATIONS=20000;
+
+	@Test
+	public void statuses() throws IOException, ObjectValidationException{
+		List<Status> statuses=MastodonAPIController.gson.fromJson(ModelTypeAdapterTest.readStatusesFixture(), new TypeToken<List<Status>>(){}.getType());
+		// Reblogs, quotes, polls, cards and attachments, so that every model that overrides postprocess() is included
+		Assert.assertTrue(statuses.stream().anyMatch(s->s.reblog!=null));
+		Assert.assertTrue(statuses.stream().anyMatch(s->s.quote!=null && s.quote.quotedStatus!=null));
+		Assert.assertTrue(statuses.stream().anyMatch(s->s.reblog!=null && s.reblog.poll!=null));
+		Assert.assertTrue(statuses.stream().anyMatch(s->s.card!=null));
+		Assert.assertTrue(statuses.stream().anyMatch(s->!s.mediaAttachments.isEmpty()));
+
+		try{
+			for(int i=0;i<WARMUP_ITERATIONS;i++){
+				runStatuses(statuses, false);
+				runStatuses(statuses, true);
+			}
+			long cached=0, uncached=0;
+			// Interleaved so that both sides see the same CPU frequency and GC pressure
+			for(int i=0;i<ITERATIONS;i++){
+				long start=System.nanoTime();
+				runStatuses(statuses, false);
+				cached+=System.nanoTime()-start;
+				start=System.nanoTime();
+				runStatuses(statuses, true);
+				uncached+=System.nanoTime()-start;
+			}
+			Log.i(TAG, String.format("Status.postprocess() for %d statuses: cached %.2f µs, uncached %.2f µs per pass", statuses.size(), cached/1000.0/ITERATIONS, uncached/1000.0/ITERATIONS));
+		}finally{
+			BaseModel.bypassRequiredFieldsCache=false;
+		}
+	}
+
+	@Test
+	public void leafModels() throws IOException, ObjectValidationException{
+		List<Status> statuses=MastodonAPIController.gson.fromJson(ModelTypeAdapterTest.readStatusesFixture(), new TypeToken<List<Status>>(){}.getType());
+		// Only models that don't override postprocess(), so that both sides do exactly the same checks
+		ArrayList<BaseModel> models=new ArrayList<>();
+		for(Status s:statuses){
+			for(Status status=s;status!=null;status=status.reblog!=null ? status.reblog : status.quote!=null ? status.quote.quotedStatus : null){
+				models.addAll(status.emojis);
+				models.addAll(status.mentions);
+				models.addAll(status.tags);
+				if(status.application!=null)
+					models.add(status.application);
+				addAccountModels(status.account, models);
+			}
+		}
+		Emoji invalidEmoji=new Emoji();
+		invalidEmoji.shortcode="blobcat";
+		Mention invalidMention=new Mention();
+		invalidMention.id="1";
+		for(BaseModel model:models){
+			Assert.assertTrue(isValidUncached(model));
+			model.postprocess();
+		}
+		Assert.assertFalse(isValidUncached(invalidEmoji));
+		Assert.assertThrows(ObjectValidationException.class, invalidEmoji::postprocess);
+		Assert.assertFalse(isValidUncached(invalidMention));
+		Assert.assertThrows(ObjectValidationException.class, invalidMention::postprocess);
+
+		for(int i=0;i<WARMUP_ITERATIONS;i++){
+			runCached(models);
+			runUncached(models);
+		}
+		long cached=0, uncached=0;
+		// Interleaved so that both sides see the same CPU frequency and GC pressure
+		for(int i=0;i<ITERATIONS;i++){
+			long start=System.nanoTime();
+			runCached(models);
+			cached+=System.nanoTime()-start;
+			start=System.nanoTime();
+			runUncached(models);
+			uncached+=System.nanoTime()-start;
+		}
+		Log.i(TAG, String.format("%d objects: cached %.2f µs, uncached %.2f µs per pass", models.size(), cached/1000.0/ITERATIONS, uncached/1000.0/ITERATIONS));
+	}
+
+	/**
+	 * Blurhash placeholders are decoded again every time, but the decoder's cache returns the same bitmap after the
+	 * first pass, so what's left is mostly the validation and the tree walk
+	 */
+	private static void runStatuses(List<Status> statuses, boolean uncached) throws ObjectValidationException{
+		BaseModel.bypassRequiredFieldsCache=uncached;
+		for(Status status:statuses){
+			status.postprocess();
+		}
+	}
+
+	private static void addAccountModels(Account account, List<BaseModel> models){
+		models.addAll(account.emojis);
+		models.addAll(account.fields);
+		if(account.moved!=null)
+			addAccountModels(account.moved, models);
+	}
+
+	private static void runCached(List<BaseModel> models) throws ObjectValidationException{
+		for(BaseModel model:models){
+			model.postprocess();
+		}
+	}
+
+	private static void runUncached(List<BaseModel> models){
+		for(BaseModel model:models){
+			if(!isValidUncached(model))
+				throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * What {@link BaseModel#postprocess()} used to do before the required fields were cached
+	 */
+	private static boolean isValidUncached(BaseModel model){
+		try{
+			boolean allRequired=model.getClass().isAnnotationPresent(AllFieldsAreRequired.class);
+			for(Field fld:model.getClass().getFields()){
+				if(!fld.getType().isPrimitive() && !Modifier.isTransient(fld.getModifiers()) && (allRequired || fld.isAnnotationPresent(RequiredField.class))){
+					if(fld.get(model)==null)
+						return false;
+				}
+			}
+		}catch(IllegalAccessException ignore){}
+		return true;
+	}
+}
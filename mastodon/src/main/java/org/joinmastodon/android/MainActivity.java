@@ -13,6 +13,7 @@ import android.os.Bundle;
 import android.util.Log;
 import android.widget.Toast;
 
+import org.joinmastodon.android.api.MastodonAPIController;
 import org.joinmastodon.android.api.ObjectValidationException;
 import org.joinmastodon.android.api.requests.accounts.GetOwnAccount;
 import org.joinmastodon.android.api.requests.search.GetSearchResults;
@@ -30,6 +31,7 @@ import org.joinmastodon.android.model.Notification;
 import org.joinmastodon.android.model.SearchResults;
 import org.joinmastodon.android.ui.utils.UiUtils;
 import org.joinmastodon.android.updater.GithubSelfUpdater;
+import org.joinmastodon.android.utils.StartupTimer;
 import org.parceler.Parcels;
 
 import java.lang.reflect.InvocationTargetException;
@@ -47,9 +49,12 @@ public class MainActivity extends FragmentStackActivity{
 	protected void onCreate(@Nullable Bundle savedInstanceState){
 		UiUtils.setUserPreferredTheme(this);
 		super.onCreate(savedInstanceState);
+		StartupTimer.mark(StartupTimer.Step.ACTIVITY_CREATED);
 
 		if(savedInstanceState==null){
 			restartHomeFragment();
+			// Not needed for anything on screen, and JobScheduler is a binder call
+			MastodonAPIController.runInBackground(()->PrefetchJobService.onAppOpened(getApplicationContext()));
 		}
 
 		if(BuildConfig.BUILD_TYPE.startsWith("appcenter")){
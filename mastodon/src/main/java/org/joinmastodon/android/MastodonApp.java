@@ -8,6 +8,7 @@ import android.webkit.WebView;
 
 import org.joinmastodon.android.api.PushSubscriptionManager;
 import org.joinmastodon.android.ui.utils.UiUtils;
+import org.joinmastodon.android.utils.StartupTimer;
 
 import me.grishka.appkit.imageloader.ImageCache;
 import me.grishka.appkit.utils.NetworkUtils;
@@ -35,6 +36,7 @@ public class MastodonApp extends Application{
 		if(BuildConfig.DEBUG){
 			WebView.setWebContentsDebuggingEnabled(true);
 		}
+		StartupTimer.mark(StartupTimer.Step.APP_CREATED);
 	}
 
 	@Override
@@ -0,0 +1,175 @@
+package org.joinmastodon.android;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.util.Log;
+
+import org.joinmastodon.android.api.MastodonAPIRequest;
+import org.joinmastodon.android.api.TimelineKey;
+import org.joinmastodon.android.api.session.AccountSession;
+import org.joinmastodon.android.api.session.AccountSessionManager;
+import org.joinmastodon.android.model.Attachment;
+import org.joinmastodon.android.model.PaginatedResponse;
+import org.joinmastodon.android.model.Status;
+import org.joinmastodon.android.model.viewmodel.NotificationViewModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import me.grishka.appkit.api.Callback;
+import me.grishka.appkit.api.ErrorResponse;
+import me.grishka.appkit.imageloader.ImageCache;
+import me.grishka.appkit.imageloader.ImageLoaderCallback;
+import me.grishka.appkit.imageloader.requests.ImageLoaderRequest;
+import me.grishka.appkit.imageloader.requests.UrlImageLoaderRequest;
+
+/**
+ * Loads new posts and notifications of every account into the cache while the device is charging and on an unmetered
+ * network, so that they're already there when the app is opened. Runs about twice as often as the app is opened.
+ */
+public class PrefetchJobService extends JobService{
+	private static final String TAG="PrefetchJobService";
+	private static final int JOB_ID=1;
+	private static final long MIN_INTERVAL=60*60_000L;
+	private static final long MAX_INTERVAL=24*60*60_000L;
+	/**
+	 * Opening the app again sooner than this doesn't count, e.g. after switching apps for a moment
+	 */
+	private static final long MIN_OPEN_INTERVAL=5*60_000L;
+	private static final int PAGE_SIZE=20;
+	private static final int MAX_IMAGES_PER_ACCOUNT=20;
+
+	/**
+	 * Updates how often the app is opened and schedules the job accordingly
+	 */
+	public static void onAppOpened(Context context){
+		SharedPreferences prefs=context.getSharedPreferences("prefetch", MODE_PRIVATE);
+		long now=System.currentTimeMillis();
+		long lastOpened=prefs.getLong("lastOpened", 0);
+		long averageInterval=prefs.getLong("averageOpenInterval", MAX_INTERVAL);
+		if(lastOpened!=0 && now-lastOpened<MIN_OPEN_INTERVAL)
+			return;
+		if(lastOpened!=0)
+			averageInterval=(averageInterval*3+Math.min(now-lastOpened, MAX_INTERVAL*2))/4;
+		long interval=Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, averageInterval/2));
+		long scheduledInterval=prefs.getLong("scheduledInterval", 0);
+		prefs.edit().putLong("lastOpened", now).putLong("averageOpenInterval", averageInterval).apply();
+
+		JobScheduler scheduler=context.getSystemService(JobScheduler.class);
+		// Rescheduling resets the timer, so only do it when the interval changes noticeably
+		if(isScheduled(scheduler) && Math.abs(interval-scheduledInterval)<scheduledInterval/4)
+			return;
+		JobInfo.Builder builder=new JobInfo.Builder(JOB_ID, new ComponentName(context, PrefetchJobService.class))
+				.setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+				.setRequiresCharging(true)
+				.setPeriodic(interval);
+		if(Build.VERSION.SDK_INT>=Build.VERSION_CODES.O)
+			builder.setRequiresBatteryNotLow(true);
+		if(scheduler.schedule(builder.build())==JobScheduler.RESULT_SUCCESS)
+			prefs.edit().putLong("scheduledInterval", interval).apply();
+	}
+
+	private static boolean isScheduled(JobScheduler scheduler){
+		for(JobInfo job:scheduler.getAllPendingJobs()){
+			if(job.getId()==JOB_ID)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean onStartJob(JobParameters params){
+		List<AccountSession> sessions=AccountSessionManager.getInstance().getLoggedInAccounts().stream().filter(s->s.activated).collect(Collectors.toList());
+		if(sessions.isEmpty()){
+			getSystemService(JobScheduler.class).cancel(JOB_ID);
+			getSharedPreferences("prefetch", MODE_PRIVATE).edit().remove("scheduledInterval").apply();
+			return false;
+		}
+		// The home timeline and notifications of each account
+		AtomicInteger remaining=new AtomicInteger(sessions.size()*2);
+		Runnable onDone=()->{
+			if(remaining.decrementAndGet()==0){
+				if(BuildConfig.DEBUG)
+					Log.d(TAG, "Done prefetching for "+sessions.size()+" accounts");
+				jobFinished(params, false);
+			}
+		};
+		for(AccountSession session:sessions){
+			session.getCacheController().loadNewPostsIntoCache(TimelineKey.HOME, PAGE_SIZE, MastodonAPIRequest.Priority.BACKGROUND, new Callback<>(){
+				@Override
+				public void onSuccess(List<Status> result){
+					prefetchImages(result, remaining, onDone);
+				}
+
+				@Override
+				public void onError(ErrorResponse error){
+					onDone.run();
+				}
+			});
+			session.getCacheController().getNotifications(null, PAGE_SIZE, false, true, MastodonAPIRequest.Priority.BACKGROUND, new Callback<>(){
+				@Override
+				public void onSuccess(PaginatedResponse<List<NotificationViewModel>> result){
+					onDone.run();
+				}
+
+				@Override
+				public void onError(ErrorResponse error){
+					onDone.run();
+				}
+			});
+		}
+		return true;
+	}
+
+	@Override
+	public boolean onStopJob(JobParameters params){
+		// What was already loaded stays in the cache, and the job runs again on its next interval
+		return false;
+	}
+
+	/**
+	 * Loads the same images that the media grids of these statuses will, into the image disk cache
+	 */
+	private void prefetchImages(List<Status> statuses, AtomicInteger remaining, Runnable onDone){
+		ArrayList<String> urls=new ArrayList<>();
+		for(Status s:statuses){
+			Status content=s.getContentStatus();
+			if(content.sensitive || content.mediaAttachments==null)
+				continue;
+			for(Attachment att:content.mediaAttachments){
+				String url=switch(att.type){
+					case IMAGE -> att.url;
+					case VIDEO, GIFV -> att.previewUrl;
+					default -> null;
+				};
+				if(url!=null && urls.size()<MAX_IMAGES_PER_ACCOUNT)
+					urls.add(url);
+			}
+		}
+		remaining.addAndGet(urls.size());
+		ImageCache cache=ImageCache.getInstance(this);
+		for(String url:urls){
+			cache.get(new UrlImageLoaderRequest(url, 1000, 1000), null, new ImageLoaderCallback(){
+				@Override
+				public void onImageLoaded(ImageLoaderRequest req, Drawable image){
+					onDone.run();
+				}
+
+				@Override
+				public void onImageLoadingFailed(ImageLoaderRequest req, Throwable error){
+					onDone.run();
+				}
+			}, true);
+		}
+		onDone.run();
+	}
+}
@@ -0,0 +1,184 @@
+package org.joinmastodon.android.api;
+
+import org.joinmastodon.android.ui.utils.UiUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.grishka.appkit.api.APIRequest;
+import me.grishka.appkit.api.Callback;
+import me.grishka.appkit.api.ErrorResponse;
+
+/**
+ * Base class for loaders that fetch objects by ID for one account. IDs requested by everyone within a short window
+ * are merged into as few API calls as possible, and subclasses decide what gets served from memory.
+ * All methods must be called on the main thread.
+ */
+public abstract class BatchingLoader<T>{
+	private final String accountID;
+	private final int maxBatchSize;
+	private final long batchDelay;
+	private final LinkedHashSet<String> pendingIDs=new LinkedHashSet<>();
+	private final HashSet<String> inFlightIDs=new HashSet<>();
+	private final HashMap<String, List<LoadRequest>> waiters=new HashMap<>();
+	private final Runnable flushRunnable=this::flush;
+	private boolean flushPending;
+
+	/**
+	 * @param maxBatchSize the most IDs the server accepts in one request
+	 * @param batchDelay how long to wait for more IDs before sending a request, in milliseconds
+	 */
+	protected BatchingLoader(String accountID, int maxBatchSize, long batchDelay){
+		this.accountID=accountID;
+		this.maxBatchSize=maxBatchSize;
+		this.batchDelay=batchDelay;
+	}
+
+	/**
+	 * Load the objects with these IDs. The callback is invoked once, with all of them that could be loaded. If none
+	 * could because a request failed, its error is passed on instead.
+	 * @return a request that can be canceled if the results are no longer needed
+	 */
+	public APIRequest<Map<String, T>> load(Collection<String> ids, Callback<Map<String, T>> callback){
+		return new LoadRequest(ids).setCallback(callback).exec();
+	}
+
+	/**
+	 * @return the object if it can be used without loading it again, or null
+	 */
+	protected abstract T getCached(String id);
+
+	protected abstract void putCached(T obj);
+
+	protected abstract String getID(T obj);
+
+	protected abstract MastodonAPIRequest<List<T>> createRequest(List<String> ids);
+
+	private void flush(){
+		UiUtils.removeCallbacks(flushRunnable);
+		flushPending=false;
+		while(!pendingIDs.isEmpty()){
+			ArrayList<String> batch=new ArrayList<>(Math.min(pendingIDs.size(), maxBatchSize));
+			Iterator<String> itr=pendingIDs.iterator();
+			while(itr.hasNext() && batch.size()<maxBatchSize){
+				batch.add(itr.next());
+				itr.remove();
+			}
+			inFlightIDs.addAll(batch);
+			createRequest(batch)
+					.setCallback(new Callback<>(){
+						@Override
+						public void onSuccess(List<T> result){
+							HashMap<String, T> loaded=new HashMap<>();
+							for(T obj:result){
+								putCached(obj);
+								loaded.put(getID(obj), obj);
+							}
+							onBatchDone(batch, loaded, null);
+						}
+
+						@Override
+						public void onError(ErrorResponse error){
+							onBatchDone(batch, Map.of(), error);
+						}
+					})
+					.exec(accountID);
+		}
+	}
+
+	private void onBatchDone(List<String> batch, Map<String, T> loaded, ErrorResponse error){
+		for(String id:batch){
+			inFlightIDs.remove(id);
+			List<LoadRequest> reqs=waiters.remove(id);
+			if(reqs==null)
+				continue;
+			T obj=loaded.get(id);
+			for(LoadRequest req:reqs){
+				if(obj!=null)
+					req.result.put(id, obj);
+				if(error!=null)
+					req.error=error;
+				req.remainingIDs.remove(id);
+				if(req.remainingIDs.isEmpty())
+					req.finish();
+			}
+		}
+	}
+
+	private class LoadRequest extends APIRequest<Map<String, T>>{
+		private final Collection<String> ids;
+		private final HashMap<String, T> result=new HashMap<>();
+		private final Set<String> remainingIDs=new HashSet<>();
+		private ErrorResponse error;
+		private boolean canceled;
+
+		private LoadRequest(Collection<String> ids){
+			this.ids=ids;
+		}
+
+		@Override
+		public void cancel(){
+			if(canceled)
+				return;
+			canceled=true;
+			for(String id:remainingIDs){
+				List<LoadRequest> reqs=waiters.get(id);
+				if(reqs==null)
+					continue;
+				reqs.remove(this);
+				if(reqs.isEmpty()){
+					waiters.remove(id);
+					// Nobody needs it anymore. If it's already been sent, the response still goes into the cache.
+					pendingIDs.remove(id);
+				}
+			}
+			remainingIDs.clear();
+		}
+
+		/**
+		 * Takes what it can from the cache and queues the rest for the next batch
+		 */
+		@Override
+		public APIRequest<Map<String, T>> exec(){
+			for(String id:ids){
+				T cached=getCached(id);
+				if(cached!=null){
+					result.put(id, cached);
+					continue;
+				}
+				remainingIDs.add(id);
+				waiters.computeIfAbsent(id, k->new ArrayList<>()).add(this);
+				if(!inFlightIDs.contains(id))
+					pendingIDs.add(id);
+			}
+			if(remainingIDs.isEmpty()){
+				// Still deliver asynchronously so that callers don't have to handle it being called before this returns
+				UiUtils.runOnUiThread(this::finish);
+			}else if(pendingIDs.size()>=maxBatchSize){
+				flush();
+			}else if(!flushPending){
+				// Not pushed back by every call, or a steady trickle of IDs would keep it from ever being sent
+				flushPending=true;
+				UiUtils.runOnUiThread(flushRunnable, batchDelay);
+			}
+			return this;
+		}
+
+		private void finish(){
+			if(canceled)
+				return;
+			// Callers keep the request around until either callback, so one of them has to be called even when nothing was loaded
+			if(result.isEmpty() && error!=null)
+				invokeErrorCallback(error);
+			else
+				invokeSuccessCallback(result);
+		}
+	}
+}
@@ -1,23 +1,35 @@
 package org.joinmastodon.android.api;
 
+import android.content.ComponentCallbacks2;
 import android.content.ContentValues;
+import android.content.res.Configuration;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.AtomicFile;
 import android.util.Log;
+import android.util.LruCache;
 
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.squareup.otto.Subscribe;
 
 import org.joinmastodon.android.BuildConfig;
+import org.joinmastodon.android.E;
 import org.joinmastodon.android.MastodonApp;
+import org.joinmastodon.android.api.gson.BinaryJson;
 import org.joinmastodon.android.api.requests.lists.GetLists;
 import org.joinmastodon.android.api.requests.notifications.GetNotificationsV1;
 import org.joinmastodon.android.api.requests.notifications.GetNotificationsV2;
-import org.joinmastodon.android.api.requests.timelines.GetHomeTimeline;
 import org.joinmastodon.android.api.session.AccountSessionManager;
+import org.joinmastodon.android.events.StatusCreatedEvent;
+import org.joinmastodon.android.events.StatusUpdatedEvent;
 import org.joinmastodon.android.model.Account;
 import org.joinmastodon.android.model.CacheablePaginatedResponse;
 import org.joinmastodon.android.model.FilterContext;
@@ -28,40 +40,136 @@ import org.joinmastodon.android.model.NotificationType;
 import org.joinmastodon.android.model.PaginatedResponse;
 import org.joinmastodon.android.model.SearchResult;
 import org.joinmastodon.android.model.Status;
+import org.joinmastodon.android.model.StatusContext;
 import org.joinmastodon.android.model.viewmodel.NotificationViewModel;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import androidx.annotation.NonNull;
 import me.grishka.appkit.api.Callback;
 import me.grishka.appkit.api.ErrorResponse;
 import me.grishka.appkit.utils.WorkerThread;
 
 public class CacheController{
 	private static final String TAG="CacheController";
-	private static final int DB_VERSION=5;
+	private static final int DB_VERSION=8;
+	/**
+	 * For the databases that aren't per-account. Each account's cache has its own threads.
+	 */
 	public static final WorkerThread databaseThread=new WorkerThread("databaseThread");
 	public static final Handler uiHandler=new Handler(Looper.getMainLooper());
 
 	private final String accountID;
+	/**
+	 * Writes, eviction and closing the database. Writes to SQLite are serialized anyway, and running them in order
+	 * on one thread keeps later writes from overtaking earlier ones. The exception is buffered writes: a read flushes
+	 * them on its own thread before it queries, see {@link #flushPendingWrites()}.
+	 */
+	private final HandlerThread writeThread;
+	private final Handler writeHandler;
+	/**
+	 * Reads. With WAL, they don't have to wait for writes to finish.
+	 */
+	private final ThreadPoolExecutor readExecutor;
+	private final QueueWaitTracker writeQueueStats=new QueueWaitTracker("write"), readQueueStats=new QueueWaitTracker("read");
+	private final Object databaseLock=new Object();
 	private DatabaseHelper db;
-	private final Runnable databaseCloseRunnable=this::closeDatabase;
-	private boolean loadingNotifications;
+	private int activeDatabaseTasks;
+	private final Runnable databaseCloseRunnable=this::closeIdleDatabase;
+	private final Object pendingWritesLock=new Object();
+	/**
+	 * Held while buffered writes are written, so that a flush doesn't return before an earlier one is done
+	 */
+	private final Object flushLock=new Object();
+	private CacheWriteBuffer pendingWrites=new CacheWriteBuffer();
+	private boolean flushScheduled;
+	private final Runnable flushRunnable=()->runDatabaseTask(()->{
+		try{
+			flushPendingWrites();
+		}catch(SQLiteException x){
+			Log.w(TAG, x);
+		}
+	});
+	private final ComponentCallbacks2 memoryCallbacks=new ComponentCallbacks2(){
+		@Override
+		public void onTrimMemory(int level){
+			CacheController.this.onTrimMemory(level);
+		}
+
+		@Override
+		public void onConfigurationChanged(@NonNull Configuration newConfig){}
+
+		@Override
+		public void onLowMemory(){
+			CacheController.this.onTrimMemory(TRIM_MEMORY_COMPLETE);
+		}
+	};
+	private final EnumMap<TimelineKey.Type, RetentionPolicy> timelineRetentionPolicies=new EnumMap<>(TimelineKey.Type.class);
+	private final LinkedHashMap<String, RetentionPolicy> retentionPolicies=new LinkedHashMap<>();
+	private long lastEvictionTime=-EVICTION_INTERVAL;
+	private CacheEvictor evictor;
+	private final Runnable evictionStepRunnable=this::doEvictionStep;
+	private volatile boolean loadingNotifications;
 	private final ArrayList<Callback<PaginatedResponse<List<NotificationViewModel>>>> pendingNotificationsCallbacks=new ArrayList<>();
 	private List<FollowList> lists;
+	private final LruCache<String, CachedStatusContext> statusContexts=new LruCache<>(MAX_CACHED_STATUS_CONTEXTS);
+	/**
+	 * Loads of the rest of partially cached pages, by timeline and max_id
+	 */
+	private final HashMap<String, TopUp> topUps=new HashMap<>();
+	private final EventListener eventListener=new EventListener();
 
-	private static final int POST_FLAG_GAP_AFTER=1;
+	static final int POST_FLAG_GAP_AFTER=1;
+	// Older SQLite versions don't allow more than 999 arguments in one statement
+	private static final int MAX_QUERY_ARGS=500;
+	private static final long WRITE_BUFFER_DELAY=500;
+	private static final int MAX_BUFFERED_WRITES=500;
+	/**
+	 * How many statuses from a cached page are decoded before it's returned, roughly a screenful
+	 */
+	private static final int DECODE_BEFORE_CALLBACK=10;
+	private static final long EVICTION_INTERVAL=60*60_000;
+	private static final int MAX_CACHED_STATUS_CONTEXTS=50;
+	private static final long STATUS_CONTEXT_TTL=10*60_000;
+	/**
+	 * Contexts for which the server was still fetching remote replies are incomplete, so they go stale sooner
+	 */
+	private static final long PARTIAL_STATUS_CONTEXT_TTL=60_000;
+	private static final long DAY=24*60*60;
+	private static final int READ_THREADS=2;
+	/**
+	 * The database is kept open while the app is being used, and closed after this long without any queries
+	 */
+	private static final long IDLE_CLOSE_DELAY=5*60_000;
+	/**
+	 * Closed sooner once the app is in the background
+	 */
+	private static final long BACKGROUND_IDLE_CLOSE_DELAY=30_000;
+	/**
+	 * Enough posts to fill the screen on a large phone
+	 */
+	private static final int HOME_SNAPSHOT_SIZE=10;
 
 	static{
 		databaseThread.start();
@@ -69,44 +177,114 @@ public class CacheController{
 
 	public CacheController(String accountID){
 		this.accountID=accountID;
+		timelineRetentionPolicies.put(TimelineKey.Type.HOME, new RetentionPolicy(1000, 30*DAY, 16*1024*1024));
+		timelineRetentionPolicies.put(TimelineKey.Type.LOCAL, new RetentionPolicy(400, 7*DAY, 4*1024*1024));
+		timelineRetentionPolicies.put(TimelineKey.Type.LIST, new RetentionPolicy(1000, 30*DAY, 8*1024*1024));
+		timelineRetentionPolicies.put(TimelineKey.Type.HASHTAG, new RetentionPolicy(500, 90*DAY, 4*1024*1024));
+		// Profiles of people who rarely post would otherwise be evicted right away
+		timelineRetentionPolicies.put(TimelineKey.Type.ACCOUNT, new RetentionPolicy(1000, 365*DAY, 8*1024*1024));
+		retentionPolicies.put("notifications_all", new RetentionPolicy(1000, 90*DAY, 8*1024*1024));
+		retentionPolicies.put("notifications_mentions", new RetentionPolicy(500, 90*DAY, 4*1024*1024));
+		retentionPolicies.put("recent_searches", new RetentionPolicy(50, 365*DAY, 1024*1024));
+		writeThread=new HandlerThread("CacheWrite-"+accountID);
+		writeThread.start();
+		writeHandler=new Handler(writeThread.getLooper());
+		AtomicInteger readThreadCount=new AtomicInteger();
+		readExecutor=new ThreadPoolExecutor(READ_THREADS, READ_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				r->new Thread(r, "CacheRead-"+accountID+"-"+readThreadCount.incrementAndGet()));
+		readExecutor.allowCoreThreadTimeOut(true);
+		E.register(eventListener);
+		MastodonApp.context.registerComponentCallbacks(memoryCallbacks);
 	}
 
-	public void getHomeTimeline(String maxID, int count, boolean forceReload, Callback<CacheablePaginatedResponse<List<Status>>> callback){
-		cancelDelayedClose();
-		databaseThread.postRunnable(()->{
+	/**
+	 * Loads a page of a timeline, from the cache if it's there. The statuses aren't filtered, the caller has to do that.
+	 * If only part of the page is cached, that part is returned right away as a partial page, and the rest of it is
+	 * loaded from the server in the background. Asking for the page after that then gets that response, see {@link #startTopUp(TimelineKey, String, int)}.
+	 * @param allowGaps false if the caller can't fill gaps. A cached page then ends at the first gap and the page after
+	 *                  that is loaded from the server.
+	 */
+	public void getTimeline(TimelineKey key, String maxID, int count, boolean forceReload, boolean allowGaps, Callback<CacheablePaginatedResponse<List<Status>>> callback){
+		if(!forceReload && maxID!=null){
+			synchronized(topUps){
+				TopUp topUp=topUps.get(key+"/"+maxID);
+				if(topUp!=null){
+					topUp.callbacks.add(callback);
+					return;
+				}
+			}
+		}
+		postRead(()->{
 			try{
 				if(!forceReload){
+					flushPendingWrites();
 					SQLiteDatabase db=getOrOpenDatabase();
-					try(Cursor cursor=db.query("home_timeline", new String[]{"json", "flags"}, maxID==null ? null : "`id`<?", maxID==null ? null : new String[]{maxID}, null, null, "`time` DESC", count+"")){
-						if(cursor.getCount()==count){
-							ArrayList<Status> result=new ArrayList<>();
-							cursor.moveToFirst();
-							String newMaxID;
-							do{
-								Status status=MastodonAPIController.gson.fromJson(cursor.getString(0), Status.class);
-								status.postprocess();
-								int flags=cursor.getInt(1);
-								status.hasGapAfter=((flags & POST_FLAG_GAP_AFTER)!=0);
-								newMaxID=status.id;
-								result.add(status);
-							}while(cursor.moveToNext());
-							String _newMaxID=newMaxID;
-							AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.HOME);
-							uiHandler.post(()->callback.onSuccess(new CacheablePaginatedResponse<>(result, _newMaxID, true)));
-							return;
+					String timeline=key.toString();
+					String selection=maxID==null ? "`timeline`=?" : "`timeline`=? AND `id`<?";
+					String[] selectionArgs=maxID==null ? new String[]{timeline} : new String[]{timeline, maxID};
+					try(Cursor cursor=db.query("timelines", new String[]{"id", "flags"}, selection, selectionArgs, null, null, "`time` DESC", count+"")){
+						if(cursor.getCount()>0 && (allowGaps || maxID==null || !hasGapAfter(db, timeline, maxID))){
+							ArrayList<String> ids=new ArrayList<>(count);
+							HashSet<String> idsWithGaps=new HashSet<>();
+							while(cursor.moveToNext()){
+								String id=cursor.getString(0);
+								ids.add(id);
+								if((cursor.getInt(1) & POST_FLAG_GAP_AFTER)!=0){
+									if(!allowGaps)
+										break;
+									idsWithGaps.add(id);
+								}
+							}
+							Map<String, LazyStatusList.StatusRow> rows=loadStatusRows(db, ids);
+							Map<String, Account> accounts=loadAuthors(db, rows.values());
+							ArrayList<LazyStatusList.StatusRow> orderedRows=new ArrayList<>(ids.size());
+							for(String id:ids){
+								LazyStatusList.StatusRow row=rows.get(id);
+								// The page ends before any status that can't be reassembled, the server will replace it
+								if(row==null || !row.isComplete(accounts))
+									break;
+								orderedRows.add(row.withGapAfter(idsWithGaps.contains(id)));
+							}
+							// Filtering happens in the fragments as statuses are added to the list, filtering everything here would defeat the lazy decoding
+							LazyStatusList result=new LazyStatusList(orderedRows, accounts, this::deleteCorruptStatus);
+							int decodeNow=Math.min(result.size(), DECODE_BEFORE_CALLBACK);
+							// The top of the page has to be there, otherwise it's loaded from the server as if it wasn't cached.
+							// Statuses further down that turn out to be corrupt are left out when they're displayed.
+							if(!orderedRows.isEmpty() && result.decode(0, decodeNow)){
+								String newMaxID=ids.get(orderedRows.size()-1);
+								// A gap at the end is shown as such and is loaded when the user asks for it
+								boolean partial=orderedRows.size()<count && !idsWithGaps.contains(newMaxID);
+								// Started before the callback so that the request for the next page finds it
+								if(partial)
+									startTopUp(key, newMaxID, count-orderedRows.size());
+								uiHandler.post(()->callback.onSuccess(new CacheablePaginatedResponse<>(result, newMaxID, true, partial)));
+								// Anything that the UI doesn't get to first is decoded here
+								result.decode(decodeNow, result.size());
+								return;
+							}
 						}
-					}catch(IOException x){
-						Log.w(TAG, "getHomeTimeline: corrupted status object in database", x);
+					}catch(IOException|JsonParseException x){
+						Log.w(TAG, "getTimeline: corrupted status object in database", x);
 					}
 				}
-				new GetHomeTimeline(maxID, null, count, null)
+				key.createRequest(maxID, null, count, null)
 						.setCallback(new Callback<>(){
 							@Override
 							public void onSuccess(List<Status> result){
-								ArrayList<Status> filtered=new ArrayList<>(result);
-								AccountSessionManager.get(accountID).filterStatuses(filtered, FilterContext.HOME);
-								callback.onSuccess(new CacheablePaginatedResponse<>(filtered, result.isEmpty() ? null : result.get(result.size()-1).id, false));
-								putHomeTimeline(result, maxID==null);
+								if(maxID==null){
+									putTimeline(key, result, true);
+									callback.onSuccess(new CacheablePaginatedResponse<>(result, result.isEmpty() ? null : result.get(result.size()-1).id, false));
+									return;
+								}
+								// The cache was skipped because of a gap or because it had too few statuses, this page may still not reach the older ones
+								runOnReadThread(db->{
+									markGapIfDisconnected(db, key.toString(), result, count);
+									// Encoded for the cache before the UI gets them and can change them
+									putTimeline(key, result, false);
+									// This page was loaded right after maxID, so there's no gap between them anymore
+									setTimelineGap(key, maxID, false);
+									uiHandler.post(()->callback.onSuccess(new CacheablePaginatedResponse<>(result, result.isEmpty() ? null : result.get(result.size()-1).id, false)));
+								}, x->uiHandler.post(()->callback.onSuccess(new CacheablePaginatedResponse<>(result, result.isEmpty() ? null : result.get(result.size()-1).id, false))));
 							}
 
 							@Override
@@ -118,28 +296,148 @@ public class CacheController{
 			}catch(SQLiteException x){
 				Log.w(TAG, x);
 				uiHandler.post(()->callback.onError(new MastodonErrorResponse(x.getLocalizedMessage(), 500, x)));
-			}finally{
-				closeDelayed();
 			}
-		}, 0);
+		});
 	}
 
-	public void putHomeTimeline(List<Status> posts, boolean clear){
-		runOnDbThread((db)->{
-			if(clear)
-				db.delete("home_timeline", null, null);
-			ContentValues values=new ContentValues(4);
-			for(Status s:posts){
-				values.put("id", s.id);
-				values.put("json", MastodonAPIController.gson.toJson(s));
-				int flags=0;
-				if(s.hasGapAfter)
-					flags|=POST_FLAG_GAP_AFTER;
-				values.put("flags", flags);
-				values.put("time", s.createdAt.getEpochSecond());
-				db.insertWithOnConflict("home_timeline", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	/**
+	 * Loads the statuses after the last one of a partially cached page, the part of it that wasn't cached. If they connect
+	 * to older cached statuses, they're simply merged with them, otherwise there's now a gap after the last of them.
+	 */
+	private void startTopUp(TimelineKey key, String maxID, int count){
+		String topUpKey=key+"/"+maxID;
+		TopUp topUp=new TopUp();
+		synchronized(topUps){
+			if(topUps.putIfAbsent(topUpKey, topUp)!=null)
+				return;
+		}
+		key.createRequest(maxID, null, count, null)
+				.setCallback(new Callback<>(){
+					@Override
+					public void onSuccess(List<Status> result){
+						runOnReadThread(db->{
+							String timeline=key.toString();
+							// The timeline was cleared by a refresh in the meantime, these no longer connect to anything
+							if(!DatabaseUtils.queryIsEmpty(db, "timelines", "`timeline`=? AND `id`=?", new String[]{timeline, maxID})){
+								markGapIfDisconnected(db, timeline, result, count);
+								putTimeline(key, result, false);
+								setTimelineGap(key, maxID, false);
+							}
+							uiHandler.post(()->finishTopUp(topUpKey, result, null));
+						}, x->uiHandler.post(()->finishTopUp(topUpKey, result, null)));
+					}
+
+					@Override
+					public void onError(ErrorResponse error){
+						finishTopUp(topUpKey, null, error);
+					}
+				})
+				.exec(accountID);
+	}
+
+	private void finishTopUp(String topUpKey, List<Status> result, ErrorResponse error){
+		TopUp topUp;
+		synchronized(topUps){
+			topUp=topUps.remove(topUpKey);
+		}
+		for(Callback<CacheablePaginatedResponse<List<Status>>> callback:topUp.callbacks){
+			if(error!=null)
+				callback.onError(error);
+			else
+				callback.onSuccess(new CacheablePaginatedResponse<>(new ArrayList<>(result), result.isEmpty() ? null : result.get(result.size()-1).id, false));
+		}
+	}
+
+	/**
+	 * Loads what was posted since the newest cached status into the cache, for when the timeline isn't on screen. The
+	 * response is connected to what's cached the same way HomeTimelineFragment.loadNewPosts() does it: posts after the
+	 * second newest cached one are requested, and if the newest one isn't at the end of the response, there's a gap.
+	 * @param priority the priority of the request, e.g. {@link MastodonAPIRequest.Priority#BACKGROUND} when nothing is waiting for it
+	 * @param callback gets the statuses that were added
+	 */
+	public void loadNewPostsIntoCache(TimelineKey key, int count, MastodonAPIRequest.Priority priority, Callback<List<Status>> callback){
+		runOnReadThread(db->{
+			ArrayList<String> newestIDs=new ArrayList<>(2);
+			try(Cursor cursor=db.query("timelines", new String[]{"id"}, "`timeline`=?", new String[]{key.toString()}, null, null, "`time` DESC", "2")){
+				while(cursor.moveToNext()){
+					newestIDs.add(cursor.getString(0));
+				}
 			}
-		});
+			key.createRequest(null, null, count, newestIDs.size()>1 ? newestIDs.get(1) : null)
+					.setPriority(priority)
+					.setCallback(new Callback<>(){
+						@Override
+						public void onSuccess(List<Status> result){
+							List<Status> toAdd;
+							if(result.isEmpty()){
+								toAdd=result;
+							}else if(newestIDs.isEmpty()){
+								toAdd=result;
+								putTimeline(key, toAdd, true);
+							}else{
+								Status last=result.get(result.size()-1);
+								if(last.id.equals(newestIDs.get(0))){
+									toAdd=new ArrayList<>(result.subList(0, result.size()-1));
+								}else{
+									last.hasGapAfter=true;
+									toAdd=result;
+								}
+								putTimeline(key, toAdd, false);
+							}
+							// The snapshot would otherwise show older posts than the cache on the next start
+							if(key.type()==TimelineKey.Type.HOME && !toAdd.isEmpty())
+								writeHandler.post(()->new AtomicFile(getHomeTimelineSnapshotFile()).delete());
+							callback.onSuccess(toAdd);
+						}
+
+						@Override
+						public void onError(ErrorResponse error){
+							callback.onError(error);
+						}
+					})
+					.exec(accountID);
+		}, x->uiHandler.post(()->callback.onError(new MastodonErrorResponse(x.getLocalizedMessage(), 500, x))));
+	}
+
+	/**
+	 * Sets the gap flag on the last of these statuses, loaded after a cached one, if there are older cached statuses that
+	 * they don't reach. A page shorter than requested is the end of the timeline and can't have a gap after it.
+	 */
+	private static void markGapIfDisconnected(SQLiteDatabase db, String timeline, List<Status> result, int count){
+		if(result.isEmpty() || result.size()<count)
+			return;
+		Status last=result.get(result.size()-1);
+		boolean hasOlder=!DatabaseUtils.queryIsEmpty(db, "timelines", "`timeline`=? AND `time`<?", new String[]{timeline, String.valueOf(last.createdAt.getEpochSecond())});
+		if(!hasOlder)
+			return;
+		for(Status s:result){
+			if(!DatabaseUtils.queryIsEmpty(db, "timelines", "`timeline`=? AND `id`=?", new String[]{timeline, s.id}))
+				return;
+		}
+		last.hasGapAfter=true;
+	}
+
+	private static boolean hasGapAfter(SQLiteDatabase db, String timeline, String id){
+		try(Cursor cursor=db.query("timelines", new String[]{"flags"}, "`timeline`=? AND `id`=?", new String[]{timeline, id}, null, null, null)){
+			return cursor.moveToFirst() && (cursor.getInt(0) & POST_FLAG_GAP_AFTER)!=0;
+		}
+	}
+
+	/**
+	 * The statuses are encoded right away, so they have to be put on the thread that owns them, usually the main thread,
+	 * before anything else can change them. The same goes for the other writes.
+	 * @param clear whether to replace everything that's cached for this timeline
+	 */
+	public void putTimeline(TimelineKey key, List<Status> posts, boolean clear){
+		List<CacheWriteBuffer.EncodedStatus> encoded=posts.stream().map(CacheWriteBuffer.EncodedStatus::of).collect(Collectors.toList());
+		bufferWrite(buf->buf.putTimeline(key, encoded, clear));
+	}
+
+	/**
+	 * Update only the gap flag of a post that's already in a cached timeline
+	 */
+	public void setTimelineGap(TimelineKey key, String id, boolean hasGapAfter){
+		bufferWrite(buf->buf.setTimelineGap(key, id, hasGapAfter));
 	}
 
 	private List<NotificationViewModel> makeNotificationViewModels(List<NotificationGroup> notifications, Map<String, Account> accounts, Map<String, Status> statuses){
@@ -163,15 +461,19 @@ public class CacheController{
 	}
 
 	public void getNotifications(String maxID, int count, boolean onlyMentions, boolean forceReload, Callback<PaginatedResponse<List<NotificationViewModel>>> callback){
-		cancelDelayedClose();
-		databaseThread.postRunnable(()->{
+		getNotifications(maxID, count, onlyMentions, forceReload, MastodonAPIRequest.Priority.UI, callback);
+	}
+
+	/**
+	 * @param priority the priority of the request if the notifications are loaded from the server
+	 */
+	public void getNotifications(String maxID, int count, boolean onlyMentions, boolean forceReload, MastodonAPIRequest.Priority priority, Callback<PaginatedResponse<List<NotificationViewModel>>> callback){
+		postRead(()->{
 			try{
 				if(!forceReload){
+					flushPendingWrites();
 					SQLiteDatabase db=getOrOpenDatabase();
-					String suffix=onlyMentions ? "mentions" : "all";
-					String table="notifications_"+suffix;
-					String accountsTable="notifications_accounts_"+suffix;
-					String statusesTable="notifications_statuses_"+suffix;
+					String table="notifications_"+(onlyMentions ? "mentions" : "all");
 					try(Cursor cursor=db.query(table, new String[]{"json"}, maxID==null ? null : "`max_id`<?", maxID==null ? null : new String[]{maxID}, null, null, "`time` DESC", count+"")){
 						if(cursor.getCount()==count){
 							ArrayList<NotificationGroup> result=new ArrayList<>();
@@ -179,7 +481,7 @@ public class CacheController{
 							String newMaxID;
 							HashSet<String> needAccounts=new HashSet<>(), needStatuses=new HashSet<>();
 							do{
-								NotificationGroup ntf=MastodonAPIController.gson.fromJson(cursor.getString(0), NotificationGroup.class);
+								NotificationGroup ntf=readEntity(cursor, 0, NotificationGroup.class);
 								ntf.postprocess();
 								newMaxID=ntf.pageMinId;
 								needAccounts.addAll(ntf.sampleAccountIds);
@@ -188,53 +490,36 @@ public class CacheController{
 								result.add(ntf);
 							}while(cursor.moveToNext());
 							String _newMaxID=newMaxID;
-							HashMap<String, Account> accounts=new HashMap<>();
-							HashMap<String, Status> statuses=new HashMap<>();
-							if(!needAccounts.isEmpty()){
-								try(Cursor cursor2=db.query(accountsTable, new String[]{"json"}, "`id` IN ("+String.join(", ", Collections.nCopies(needAccounts.size(), "?"))+")",
-										needAccounts.toArray(new String[0]), null, null, null)){
-									while(cursor2.moveToNext()){
-										Account acc=MastodonAPIController.gson.fromJson(cursor2.getString(0), Account.class);
-										acc.postprocess();
-										accounts.put(acc.id, acc);
-									}
-								}
-							}
-							if(!needStatuses.isEmpty()){
-								try(Cursor cursor2=db.query(statusesTable, new String[]{"json"}, "`id` IN ("+String.join(", ", Collections.nCopies(needStatuses.size(), "?"))+")",
-										needStatuses.toArray(new String[0]), null, null, null)){
-									while(cursor2.moveToNext()){
-										Status s=MastodonAPIController.gson.fromJson(cursor2.getString(0), Status.class);
-										s.postprocess();
-										statuses.put(s.id, s);
-									}
-								}
-							}
+							Map<String, Account> accounts=loadAccounts(db, needAccounts);
+							Map<String, Status> statuses=loadStatuses(db, needStatuses);
 							uiHandler.post(()->callback.onSuccess(new PaginatedResponse<>(makeNotificationViewModels(result, accounts, statuses), _newMaxID)));
 							return;
 						}
-					}catch(IOException x){
+					}catch(IOException|JsonParseException x){
 						Log.w(TAG, "getNotifications: corrupted notification object in database", x);
 					}
 				}
 
-				if(!onlyMentions && loadingNotifications){
+				if(!onlyMentions){
 					synchronized(pendingNotificationsCallbacks){
-						pendingNotificationsCallbacks.add(callback);
+						if(loadingNotifications){
+							pendingNotificationsCallbacks.add(callback);
+							return;
+						}
+						loadingNotifications=true;
 					}
-					return;
 				}
-				if(!onlyMentions)
-					loadingNotifications=true;
 				if(AccountSessionManager.get(accountID).getInstanceInfo().getApiVersion()>=2){
 					new GetNotificationsV2(maxID, count, onlyMentions ? EnumSet.of(NotificationType.MENTION): EnumSet.allOf(NotificationType.class), NotificationType.getGroupableTypes())
+							.setPriority(priority)
 							.setCallback(new Callback<>(){
 								@Override
 								public void onSuccess(GetNotificationsV2.GroupedNotificationsResults result){
 									Map<String, Account> accounts=result.accounts.stream().collect(Collectors.toMap(a->a.id, Function.identity(), (a1, a2)->a2));
 									Map<String, Status> statuses=result.statuses.stream().collect(Collectors.toMap(s->s.id, Function.identity(), (s1, s2)->s2));
+									// Encoded for the cache before the UI gets them and can change them
+									putNotifications(result.notificationGroups, result.accounts, result.statuses, onlyMentions, maxID==null);
 									List<NotificationViewModel> notifications=makeNotificationViewModels(result.notificationGroups, accounts, statuses);
-									databaseThread.postRunnable(()->putNotifications(result.notificationGroups, result.accounts, result.statuses, onlyMentions, maxID==null), 0);
 									PaginatedResponse<List<NotificationViewModel>> res=new PaginatedResponse<>(notifications,
 											result.notificationGroups.isEmpty() ? null : result.notificationGroups.get(result.notificationGroups.size()-1).pageMinId);
 									callback.onSuccess(res);
@@ -266,6 +551,7 @@ public class CacheController{
 							.exec(accountID);
 				}else{
 					new GetNotificationsV1(maxID, count, onlyMentions ? EnumSet.of(NotificationType.MENTION): EnumSet.allOf(NotificationType.class))
+							.setPriority(priority)
 							.setCallback(new Callback<>(){
 								@Override
 								public void onSuccess(List<Notification> result){
@@ -293,6 +579,8 @@ public class CacheController{
 												return nvm;
 											})
 											.collect(Collectors.toList());
+									// Encoded for the cache before the UI gets them and can change them
+									putNotifications(converted.stream().map(nvm->nvm.notification).collect(Collectors.toList()), accounts, statuses, onlyMentions, maxID==null);
 									PaginatedResponse<List<NotificationViewModel>> res=new PaginatedResponse<>(converted, result.isEmpty() ? null : result.get(result.size()-1).id);
 									callback.onSuccess(res);
 									if(!onlyMentions){
@@ -304,7 +592,6 @@ public class CacheController{
 											pendingNotificationsCallbacks.clear();
 										}
 									}
-									databaseThread.postRunnable(()->putNotifications(converted.stream().map(nvm->nvm.notification).collect(Collectors.toList()), accounts, statuses, onlyMentions, maxID==null), 0);
 								}
 
 								@Override
@@ -326,51 +613,273 @@ public class CacheController{
 			}catch(SQLiteException x){
 				Log.w(TAG, x);
 				uiHandler.post(()->callback.onError(new MastodonErrorResponse(x.getLocalizedMessage(), 500, x)));
-			}finally{
-				closeDelayed();
 			}
-		}, 0);
+		});
 	}
 
 	private void putNotifications(List<NotificationGroup> notifications, List<Account> accounts, List<Status> statuses, boolean onlyMentions, boolean clear){
-		runOnDbThread((db)->{
-			String suffix=onlyMentions ? "mentions" : "all";
-			String table="notifications_"+suffix;
-			String accountsTable="notifications_accounts_"+suffix;
-			String statusesTable="notifications_statuses_"+suffix;
-			if(clear){
-				db.delete(table, null, null);
-				db.delete(accountsTable, null, null);
-				db.delete(statusesTable, null, null);
-			}
-			ContentValues values=new ContentValues(4);
-			for(NotificationGroup n:notifications){
-				if(n.type==null){
+		List<CacheWriteBuffer.EncodedNotificationGroup> encodedNotifications=notifications.stream().filter(ng->ng.type!=null).map(CacheWriteBuffer.EncodedNotificationGroup::of).collect(Collectors.toList());
+		List<CacheWriteBuffer.EncodedAccount> encodedAccounts=accounts.stream().map(CacheWriteBuffer.EncodedAccount::of).collect(Collectors.toList());
+		List<CacheWriteBuffer.EncodedStatus> encodedStatuses=statuses.stream().map(CacheWriteBuffer.EncodedStatus::of).collect(Collectors.toList());
+		bufferWrite(buf->buf.putNotifications(encodedNotifications, encodedAccounts, encodedStatuses, onlyMentions, clear));
+	}
+
+	/**
+	 * Loads statuses by ID and reassembles them with their authors and reblogged statuses.
+	 * Statuses that can't be fully reassembled are left out of the result.
+	 */
+	private Map<String, Status> loadStatuses(SQLiteDatabase db, Collection<String> ids) throws IOException{
+		Map<String, LazyStatusList.StatusRow> rows=loadStatusRows(db, ids);
+		Map<String, Account> accounts=loadAuthors(db, rows.values());
+		HashMap<String, Status> result=new HashMap<>();
+		for(LazyStatusList.StatusRow row:rows.values()){
+			if(row.isComplete(accounts))
+				result.put(row.id(), row.decode(accounts));
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the raw rows for these statuses and the statuses they reblog, without decoding them
+	 */
+	private Map<String, LazyStatusList.StatusRow> loadStatusRows(SQLiteDatabase db, Collection<String> ids){
+		HashMap<String, Object> data=new HashMap<>();
+		HashMap<String, String> authorIDs=new HashMap<>(), reblogIDs=new HashMap<>();
+		Consumer<Cursor> rowConsumer=cursor->{
+			String id=cursor.getString(0);
+			data.put(id, cursor.getType(3)==Cursor.FIELD_TYPE_BLOB ? cursor.getBlob(3) : cursor.getString(3));
+			authorIDs.put(id, cursor.getString(1));
+			if(!cursor.isNull(2))
+				reblogIDs.put(id, cursor.getString(2));
+		};
+		String[] columns={"id", "account_id", "reblog_id", "json"};
+		queryByIDs(db, "statuses", columns, ids, rowConsumer);
+		HashSet<String> missingReblogs=new HashSet<>(reblogIDs.values());
+		missingReblogs.removeAll(data.keySet());
+		if(!missingReblogs.isEmpty())
+			queryByIDs(db, "statuses", columns, missingReblogs, rowConsumer);
+
+		HashMap<String, LazyStatusList.StatusRow> rows=new HashMap<>();
+		for(String id:ids){
+			Object rowData=data.get(id);
+			if(rowData==null)
+				continue;
+			LazyStatusList.StatusRow reblog=null;
+			String reblogID=reblogIDs.get(id);
+			if(reblogID!=null){
+				Object reblogData=data.get(reblogID);
+				if(reblogData==null)
 					continue;
+				reblog=new LazyStatusList.StatusRow(reblogID, reblogData, authorIDs.get(reblogID), null, false);
+			}
+			rows.put(id, new LazyStatusList.StatusRow(id, rowData, authorIDs.get(id), reblog, false));
+		}
+		return rows;
+	}
+
+	private Map<String, Account> loadAuthors(SQLiteDatabase db, Collection<LazyStatusList.StatusRow> rows) throws IOException{
+		HashSet<String> ids=new HashSet<>();
+		for(LazyStatusList.StatusRow row:rows){
+			ids.add(row.accountID());
+			if(row.reblog()!=null)
+				ids.add(row.reblog().accountID());
+		}
+		return loadAccounts(db, ids);
+	}
+
+	private Map<String, Account> loadAccounts(SQLiteDatabase db, Collection<String> ids) throws IOException{
+		HashMap<String, Account> accounts=new HashMap<>();
+		queryByIDs(db, "accounts", new String[]{"json"}, ids, cursor->{
+			Account acc=readEntity(cursor, 0, Account.class);
+			accounts.put(acc.id, acc);
+		});
+		for(Account acc:accounts.values()){
+			acc.postprocess();
+		}
+		return accounts;
+	}
+
+	/**
+	 * Statuses, accounts and notifications are stored in {@link BinaryJson}, but rows written by older versions may still be JSON text
+	 */
+	static <T> T readEntity(Cursor cursor, int column, Class<T> type){
+		if(cursor.getType(column)==Cursor.FIELD_TYPE_BLOB)
+			return BinaryJson.decode(MastodonAPIController.gson, cursor.getBlob(column), type);
+		return MastodonAPIController.gson.fromJson(cursor.getString(column), type);
+	}
+
+	private void queryByIDs(SQLiteDatabase db, String table, String[] columns, Collection<String> ids, Consumer<Cursor> rowConsumer){
+		ArrayList<String> idList=new ArrayList<>(ids);
+		for(int offset=0;offset<idList.size();offset+=MAX_QUERY_ARGS){
+			List<String> chunk=idList.subList(offset, Math.min(idList.size(), offset+MAX_QUERY_ARGS));
+			try(Cursor cursor=db.query(table, columns, "`id` IN ("+String.join(", ", Collections.nCopies(chunk.size(), "?"))+")", chunk.toArray(new String[0]), null, null, null)){
+				while(cursor.moveToNext()){
+					rowConsumer.accept(cursor);
 				}
-				values.put("id", n.groupKey);
-				values.put("json", MastodonAPIController.gson.toJson(n));
-				values.put("type", n.type.ordinal());
-				values.put("time", n.latestPageNotificationAt.getEpochSecond());
-				values.put("max_id", n.pageMaxId);
-				db.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
 			}
-			values.clear();
-			for(Account acc:accounts){
-				values.put("id", acc.id);
-				values.put("json", MastodonAPIController.gson.toJson(acc));
-				db.insertWithOnConflict(accountsTable, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		}
+	}
+
+	/**
+	 * Removes the statuses and accounts that no timeline refers to anymore
+	 */
+	static void deleteUnreferencedEntities(SQLiteDatabase db){
+		String referencedStatuses="SELECT `id` FROM `timelines` UNION SELECT `status_id` FROM `notifications_all` WHERE `status_id` IS NOT NULL "+
+				"UNION SELECT `status_id` FROM `notifications_mentions` WHERE `status_id` IS NOT NULL";
+		db.execSQL("DELETE FROM `statuses` WHERE `id` NOT IN ("+referencedStatuses+") AND `id` NOT IN "+
+				"(SELECT `reblog_id` FROM `statuses` WHERE `reblog_id` IS NOT NULL AND `id` IN ("+referencedStatuses+"))");
+		db.execSQL("DELETE FROM `accounts` WHERE `id` NOT IN (SELECT `account_id` FROM `statuses` UNION SELECT `account_id` FROM `notifications_accounts_all` "+
+				"UNION SELECT `account_id` FROM `notifications_accounts_mentions`)");
+	}
+
+	/**
+	 * Replaces the cached copy of this account, if there is one. This updates it in every cached timeline at once.
+	 */
+	public void updateAccount(Account account){
+		CacheWriteBuffer.EncodedAccount encoded=CacheWriteBuffer.EncodedAccount.of(account);
+		bufferWrite(buf->buf.updateAccount(encoded));
+	}
+
+	private void bufferWrite(Consumer<CacheWriteBuffer> write){
+		synchronized(pendingWritesLock){
+			write.accept(pendingWrites);
+			if(pendingWrites.size()>=MAX_BUFFERED_WRITES){
+				writeHandler.removeCallbacks(flushRunnable);
+				writeHandler.post(flushRunnable);
+				flushScheduled=true;
+			}else if(!flushScheduled){
+				writeHandler.postDelayed(flushRunnable, WRITE_BUFFER_DELAY);
+				flushScheduled=true;
 			}
-			for(Status s:statuses){
-				values.put("id", s.id);
-				values.put("json", MastodonAPIController.gson.toJson(s));
-				db.insertWithOnConflict(statusesTable, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		}
+	}
+
+	/**
+	 * Writes all buffered writes to the database in one transaction. Must be called from a database task.
+	 * Reads call this first, on the read thread, so that they see everything that was written before them without
+	 * waiting for the write thread's queue. This is safe because flushes are serialized by flushLock, the buffer is
+	 * swapped out before it's written so each write happens once, and SQLite runs every write transaction on the
+	 * primary connection whichever thread it comes from.
+	 */
+	private void flushPendingWrites(){
+		synchronized(flushLock){
+			CacheWriteBuffer writes;
+			synchronized(pendingWritesLock){
+				writeHandler.removeCallbacks(flushRunnable);
+				flushScheduled=false;
+				if(pendingWrites.isEmpty())
+					return;
+				writes=pendingWrites;
+				pendingWrites=new CacheWriteBuffer();
+			}
+			SQLiteDatabase db=getOrOpenDatabase();
+			db.beginTransaction();
+			try{
+				writes.writeTo(db);
+				db.setTransactionSuccessful();
+			}finally{
+				db.endTransaction();
+			}
+		}
+		maybeStartEviction();
+	}
+
+	/**
+	 * Replace the limits for one of the cache tables. Rows over any of the limits are evicted in the background, oldest first.
+	 */
+	public void setRetentionPolicy(String table, RetentionPolicy policy){
+		if(!retentionPolicies.containsKey(table))
+			throw new IllegalArgumentException("Table "+table+" has no retention policy");
+		writeHandler.post(()->retentionPolicies.put(table, policy));
+	}
+
+	/**
+	 * Replace the limits for all cached timelines of this type together
+	 */
+	public void setRetentionPolicy(TimelineKey.Type type, RetentionPolicy policy){
+		writeHandler.post(()->timelineRetentionPolicies.put(type, policy));
+	}
+
+	/**
+	 * Can be called from any thread, eviction itself runs on the write thread
+	 */
+	private void maybeStartEviction(){
+		if(Looper.myLooper()!=writeThread.getLooper()){
+			writeHandler.post(this::maybeStartEviction);
+			return;
+		}
+		if(evictor!=null || SystemClock.elapsedRealtime()-lastEvictionTime<EVICTION_INTERVAL)
+			return;
+		lastEvictionTime=SystemClock.elapsedRealtime();
+		evictor=new CacheEvictor(new EnumMap<>(timelineRetentionPolicies), new LinkedHashMap<>(retentionPolicies));
+		writeHandler.post(evictionStepRunnable);
+	}
+
+	private void doEvictionStep(){
+		runDatabaseTask(()->{
+			try{
+				if(evictor.step(getOrOpenDatabase())){
+					writeHandler.post(evictionStepRunnable);
+					return;
+				}
+			}catch(SQLiteException x){
+				Log.w(TAG, x);
+			}
+			evictor=null;
+		});
+	}
+
+	/**
+	 * Evict whatever is over the retention limits right now instead of waiting for the next periodic eviction. For debugging.
+	 */
+	public void evictNow(){
+		writeHandler.post(()->{
+			lastEvictionTime=-EVICTION_INTERVAL;
+			maybeStartEviction();
+		});
+	}
+
+	/**
+	 * Collects the size of every table in the cache database. For debugging.
+	 */
+	public void getDatabaseStats(Consumer<DatabaseStats> callback){
+		runOnReadThread((db)->{
+			ArrayList<String> tables=new ArrayList<>();
+			try(Cursor cursor=db.rawQuery("SELECT `name` FROM `sqlite_master` WHERE `type`='table' AND `name` NOT LIKE 'sqlite_%' AND `name`!='android_metadata' ORDER BY `name`", null)){
+				while(cursor.moveToNext()){
+					tables.add(cursor.getString(0));
+				}
+			}
+			ArrayList<TableStats> tableStats=new ArrayList<>();
+			for(String table:tables){
+				ArrayList<String> sizes=new ArrayList<>();
+				try(Cursor cursor=db.rawQuery("PRAGMA table_info(`"+table+"`)", null)){
+					int nameColumn=cursor.getColumnIndexOrThrow("name");
+					while(cursor.moveToNext()){
+						sizes.add("IFNULL(length(`"+cursor.getString(nameColumn)+"`), 0)");
+					}
+				}
+				try(Cursor cursor=db.rawQuery("SELECT COUNT(*), IFNULL(SUM("+String.join("+", sizes)+"), 0) FROM `"+table+"`", null)){
+					cursor.moveToFirst();
+					tableStats.add(new TableStats(table, cursor.getLong(0), cursor.getLong(1)));
+				}
 			}
+			long pageSize=CacheEvictor.queryLong(db, "PRAGMA page_size");
+			DatabaseStats stats=new DatabaseStats(tableStats, CacheEvictor.queryLong(db, "PRAGMA page_count")*pageSize,
+					CacheEvictor.queryLong(db, "PRAGMA freelist_count")*pageSize, List.of(readQueueStats.getStats(), writeQueueStats.getStats()));
+			uiHandler.post(()->callback.accept(stats));
 		});
 	}
 
+	/**
+	 * Calls the callback on the main thread once everything that was written to the cache before this call is in the database
+	 */
+	public void flush(Runnable callback){
+		runOnDbThread(db->uiHandler.post(callback));
+	}
+
 	public void getRecentSearches(Consumer<List<SearchResult>> callback){
-		runOnDbThread((db)->{
+		runOnReadThread((db)->{
 			try(Cursor cursor=db.query("recent_searches", new String[]{"json"}, null, null, null, null, "time DESC")){
 				List<SearchResult> results=new ArrayList<>();
 				while(cursor.moveToNext()){
@@ -390,62 +899,294 @@ public class CacheController{
 			values.put("json", MastodonAPIController.gson.toJson(result));
 			values.put("time", (int)(System.currentTimeMillis()/1000));
 			db.insertWithOnConflict("recent_searches", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+			maybeStartEviction();
 		});
 	}
 
+	/**
+	 * Deletes a status that couldn't be decoded, but not its place in timelines. The next time a page with it is read,
+	 * the page ends before it and the rest of the page is loaded from the server, like for any status that isn't cached.
+	 */
+	private void deleteCorruptStatus(String id){
+		runOnDbThread(db->db.delete("statuses", "`id`=?", new String[]{id}));
+	}
+
 	public void deleteStatus(String id){
 		runOnDbThread((db)->{
-			db.delete("home_timeline", "`id`=?", new String[]{id});
+			String[] args={id, id};
+			db.delete("timelines", "`id`=? OR `id` IN (SELECT `id` FROM `statuses` WHERE `reblog_id`=?)", args);
+			db.delete("statuses", "`id`=? OR `reblog_id`=?", args);
 		});
 	}
 
+	/**
+	 * Searches the text, content warnings, author handles and hashtags of the cached statuses. Every word has to match,
+	 * the last one as a prefix. Results are newest first and aren't filtered.
+	 */
+	public void searchStatuses(String query, int limit, Consumer<List<Status>> callback){
+		String matchQuery=StatusSearchIndex.makeMatchQuery(query);
+		if(matchQuery==null){
+			callback.accept(new ArrayList<>());
+			return;
+		}
+		runOnReadThread((db)->{
+			ArrayList<String> ids=new ArrayList<>();
+			try(Cursor cursor=db.rawQuery("SELECT `s`.`id` FROM `statuses_fts` JOIN `statuses` AS `s` ON `s`.rowid=`statuses_fts`.`docid` "+
+					"WHERE `statuses_fts` MATCH ? ORDER BY `statuses_fts`.`docid` DESC LIMIT ?", new String[]{matchQuery, String.valueOf(limit)})){
+				while(cursor.moveToNext()){
+					ids.add(cursor.getString(0));
+				}
+			}
+			Map<String, Status> statuses=loadStatuses(db, ids);
+			List<Status> result=ids.stream().map(statuses::get).filter(Objects::nonNull).sorted(Comparator.comparing((Status s)->s.createdAt).reversed()).collect(Collectors.toList());
+			uiHandler.post(()->callback.accept(result));
+		}, err->uiHandler.post(()->callback.accept(new ArrayList<>())));
+	}
+
+	/**
+	 * Replaces the cached copy of this status, if there is one
+	 */
+	public void updateStatus(Status status){
+		CacheWriteBuffer.EncodedStatus encoded=CacheWriteBuffer.EncodedStatus.of(status);
+		bufferWrite(buf->buf.updateStatus(encoded));
+	}
+
 	public void clearRecentSearches(){
 		runOnDbThread((db)->db.delete("recent_searches", null, null));
 	}
 
-	private void closeDelayed(){
-		databaseThread.postRunnable(databaseCloseRunnable, 10_000);
+	/**
+	 * @return a copy of the last loaded context of this status, or null if there isn't one or it's too old to be useful
+	 */
+	public StatusContext getStatusContext(String statusID){
+		CachedStatusContext cached=statusContexts.get(statusID);
+		if(cached==null)
+			return null;
+		if(SystemClock.elapsedRealtime()-cached.time()>(cached.partial() ? PARTIAL_STATUS_CONTEXT_TTL : STATUS_CONTEXT_TTL)){
+			statusContexts.remove(statusID);
+			return null;
+		}
+		StatusContext copy=new StatusContext();
+		copy.ancestors=cached.ancestors().stream().map(Status::clone).collect(Collectors.toCollection(ArrayList::new));
+		copy.descendants=cached.descendants().stream().map(Status::clone).collect(Collectors.toCollection(ArrayList::new));
+		return copy;
+	}
+
+	/**
+	 * Must be called before the lists in the context are filtered or otherwise modified
+	 * @param partial whether the server is still fetching more replies for this thread
+	 */
+	public void putStatusContext(String statusID, StatusContext context, boolean partial){
+		statusContexts.put(statusID, new CachedStatusContext(List.copyOf(context.ancestors), List.copyOf(context.descendants), partial, SystemClock.elapsedRealtime()));
 	}
 
-	public void closeDatabase(){
-		if(db!=null){
+	/**
+	 * Drop every cached context that this status is a part of
+	 */
+	public void invalidateStatusContexts(String statusID){
+		for(Map.Entry<String, CachedStatusContext> e:statusContexts.snapshot().entrySet()){
+			CachedStatusContext ctx=e.getValue();
+			if(e.getKey().equals(statusID) || ctx.ancestors().stream().anyMatch(s->s.id.equals(statusID)) || ctx.descendants().stream().anyMatch(s->s.id.equals(statusID)))
+				statusContexts.remove(e.getKey());
+		}
+	}
+
+	/**
+	 * Saves the top of the home timeline to a small file of its own, to be shown on the next cold start before the
+	 * database is even opened. The file is only written once the app is in the background.
+	 */
+	public void putHomeTimelineSnapshot(List<Status> statuses){
+		List<Status> top=statuses.stream().limit(HOME_SNAPSHOT_SIZE).map(Status::clone).collect(Collectors.toList());
+		writeHandler.post(writeQueueStats.track(()->{
+			AtomicFile file=new AtomicFile(getHomeTimelineSnapshotFile());
+			FileOutputStream out=null;
+			try{
+				out=file.startWrite();
+				out.write(BinaryJson.encode(MastodonAPIController.gson, top, new TypeToken<List<Status>>(){}.getType()));
+				file.finishWrite(out);
+			}catch(IOException x){
+				Log.w(TAG, "Failed to write the home timeline snapshot", x);
+				if(out!=null)
+					file.failWrite(out);
+			}
+		}));
+	}
+
+	/**
+	 * Reads the statuses saved by {@link #putHomeTimelineSnapshot(List)} on the read executor and passes them, postprocessed,
+	 * to the callback on the main thread, or null if there aren't any. They aren't filtered, like the cached pages from
+	 * {@link #getTimeline(TimelineKey, String, int, boolean, boolean, Callback)}.
+	 */
+	public void getHomeTimelineSnapshot(Consumer<List<Status>> callback){
+		postRead(()->{
+			List<Status> result=readHomeTimelineSnapshot();
+			uiHandler.post(()->callback.accept(result));
+		});
+	}
+
+	private List<Status> readHomeTimelineSnapshot(){
+		AtomicFile file=new AtomicFile(getHomeTimelineSnapshotFile());
+		try{
+			List<Status> statuses=BinaryJson.decode(MastodonAPIController.gson, file.readFully(), new TypeToken<List<Status>>(){}.getType());
+			if(statuses==null)
+				return null;
+			ArrayList<Status> result=new ArrayList<>(statuses.size());
+			for(Status s:statuses){
+				try{
+					s.postprocess();
+					result.add(s);
+				}catch(ObjectValidationException x){
+					Log.w(TAG, "readHomeTimelineSnapshot: invalid status", x);
+				}
+			}
+			return result.isEmpty() ? null : result;
+		}catch(IOException|JsonParseException x){
+			return null;
+		}
+	}
+
+	private File getHomeTimelineSnapshotFile(){
+		return new File(MastodonApp.context.getCacheDir(), accountID+"_home_snapshot");
+	}
+
+	/**
+	 * Stop listening for events and close the database, for when the account is removed
+	 */
+	public void release(){
+		E.unregister(eventListener);
+		MastodonApp.context.unregisterComponentCallbacks(memoryCallbacks);
+		readExecutor.shutdown();
+		writeHandler.post(()->{
+			try{
+				readExecutor.awaitTermination(5, TimeUnit.SECONDS);
+			}catch(InterruptedException ignore){}
+			closeDatabase();
+			new AtomicFile(getHomeTimelineSnapshotFile()).delete();
+			writeThread.quitSafely();
+		});
+	}
+
+	private void onTrimMemory(int level){
+		// An open database holds on to its page cache, close it if it isn't being used when memory is tight
+		if(level>=ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level==ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW || level==ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL){
+			scheduleIdleClose(0);
+		}else if(level==ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN){
+			scheduleIdleClose(BACKGROUND_IDLE_CLOSE_DELAY);
+		}
+	}
+
+	private void scheduleIdleClose(long delay){
+		writeHandler.removeCallbacks(databaseCloseRunnable);
+		writeHandler.postDelayed(databaseCloseRunnable, delay);
+	}
+
+	private void closeIdleDatabase(){
+		try{
+			flushPendingWrites();
+		}catch(SQLiteException x){
+			Log.w(TAG, x);
+		}
+		synchronized(databaseLock){
+			if(activeDatabaseTasks>0 || db==null)
+				return;
+			// Nothing is reading or writing, and nothing can start while this holds the lock
+			try{
+				CacheEvictor.maybeVacuum(db.getWritableDatabase());
+			}catch(SQLiteException x){
+				Log.w(TAG, x);
+			}
 			if(BuildConfig.DEBUG)
-				Log.d(TAG, "closeDatabase");
+				Log.d(TAG, "Closing idle database");
 			db.close();
 			db=null;
 		}
 	}
 
-	private void cancelDelayedClose(){
-		if(db!=null){
-			databaseThread.handler.removeCallbacks(databaseCloseRunnable);
+	/**
+	 * Close the database without writing what's still buffered, because the account is being removed
+	 */
+	private void closeDatabase(){
+		synchronized(pendingWritesLock){
+			writeHandler.removeCallbacks(flushRunnable);
+			flushScheduled=false;
+			pendingWrites=new CacheWriteBuffer();
+		}
+		writeHandler.removeCallbacks(databaseCloseRunnable);
+		synchronized(databaseLock){
+			if(db!=null){
+				if(BuildConfig.DEBUG)
+					Log.d(TAG, "closeDatabase");
+				db.close();
+				db=null;
+			}
 		}
 	}
 
+	/**
+	 * Must be called from a database task, so that the database isn't closed while it's being used
+	 */
 	private SQLiteDatabase getOrOpenDatabase(){
-		if(db==null)
-			db=new DatabaseHelper();
-		return db.getWritableDatabase();
+		synchronized(databaseLock){
+			if(db==null)
+				db=new DatabaseHelper();
+			return db.getWritableDatabase();
+		}
+	}
+
+	/**
+	 * Runs something that uses the database. The database is closed once it hasn't been used for a while.
+	 */
+	private void runDatabaseTask(Runnable r){
+		synchronized(databaseLock){
+			activeDatabaseTasks++;
+		}
+		try{
+			r.run();
+		}finally{
+			synchronized(databaseLock){
+				activeDatabaseTasks--;
+			}
+			scheduleIdleClose(IDLE_CLOSE_DELAY);
+		}
 	}
 
 	private void runOnDbThread(DatabaseRunnable r){
 		runOnDbThread(r, null);
 	}
 
+	/**
+	 * Runs r on the write thread, after everything that was queued there before it
+	 */
 	private void runOnDbThread(DatabaseRunnable r, Consumer<Exception> onError){
-		cancelDelayedClose();
-		databaseThread.postRunnable(()->{
-			try{
-				SQLiteDatabase db=getOrOpenDatabase();
-				r.run(db);
-			}catch(SQLiteException|IOException x){
-				Log.w(TAG, x);
-				if(onError!=null)
-					onError.accept(x);
-			}finally{
-				closeDelayed();
-			}
-		}, 0);
+		writeHandler.post(writeQueueStats.track(()->runDatabaseTask(()->runDatabaseRunnable(r, onError))));
+	}
+
+	private void runOnReadThread(DatabaseRunnable r){
+		runOnReadThread(r, null);
+	}
+
+	/**
+	 * Runs r on one of the read threads. It may run concurrently with writes and other reads.
+	 */
+	private void runOnReadThread(DatabaseRunnable r, Consumer<Exception> onError){
+		postRead(()->runDatabaseRunnable(r, onError));
+	}
+
+	private void postRead(Runnable r){
+		readExecutor.execute(readQueueStats.track(()->runDatabaseTask(r)));
+	}
+
+	private void runDatabaseRunnable(DatabaseRunnable r, Consumer<Exception> onError){
+		try{
+			// Anything that was buffered before this must be in the database before this runs
+			flushPendingWrites();
+			SQLiteDatabase db=getOrOpenDatabase();
+			r.run(db);
+		}catch(SQLiteException|IOException x){
+			Log.w(TAG, x);
+			if(onError!=null)
+				onError.accept(x);
+		}
 	}
 
 	public void reloadLists(Callback<List<FollowList>> callback){
@@ -469,8 +1210,7 @@ public class CacheController{
 				.exec(accountID);
 	}
 
-	private List<FollowList> loadLists(){
-		SQLiteDatabase db=getOrOpenDatabase();
+	private List<FollowList> loadLists(SQLiteDatabase db){
 		try(Cursor cursor=db.query("misc", new String[]{"value"}, "`key`=?", new String[]{"lists"}, null, null, null)){
 			if(!cursor.moveToFirst())
 				return null;
@@ -493,8 +1233,8 @@ public class CacheController{
 				callback.onSuccess(lists);
 			return;
 		}
-		databaseThread.postRunnable(()->{
-			List<FollowList> lists=loadLists();
+		runOnReadThread(db->{
+			List<FollowList> lists=loadLists(db);
 			if(lists!=null){
 				this.lists=lists;
 				if(callback!=null)
@@ -502,7 +1242,7 @@ public class CacheController{
 				return;
 			}
 			reloadLists(callback);
-		}, 0);
+		});
 	}
 
 	public void addList(FollowList list){
@@ -533,21 +1273,68 @@ public class CacheController{
 		}
 	}
 
+	/**
+	 * @param maxAge in seconds
+	 * @param maxBytes the size of the rows themselves plus the statuses they refer to
+	 */
+	public record RetentionPolicy(int maxRows, long maxAge, long maxBytes){}
+
+	public record TableStats(String name, long rows, long bytes){}
+
+	private record CachedStatusContext(List<Status> ancestors, List<Status> descendants, boolean partial, long time){}
+
+	private static class TopUp{
+		/**
+		 * Requests for the page that this loads, made while it was loading
+		 */
+		private final ArrayList<Callback<CacheablePaginatedResponse<List<Status>>>> callbacks=new ArrayList<>();
+	}
+
+	public class EventListener{
+		@Subscribe
+		public void onStatusCreated(StatusCreatedEvent ev){
+			// A reply changes the context of every status in the thread it was posted to
+			if(ev.accountID.equals(accountID) && ev.status.inReplyToId!=null)
+				invalidateStatusContexts(ev.status.inReplyToId);
+		}
+
+		@Subscribe
+		public void onStatusUpdated(StatusUpdatedEvent ev){
+			updateStatus(ev.status);
+		}
+	}
+
+	/**
+	 * @param fileSize the size of the database file, including free pages
+	 * @param freeBytes space in the file that's unused and could be reclaimed by vacuuming
+	 */
+	public record DatabaseStats(List<TableStats> tables, long fileSize, long freeBytes, List<QueueStats> queues){}
+
+	/**
+	 * How long tasks waited before they started running, in milliseconds
+	 */
+	public record QueueStats(String name, long tasks, long averageWait, long maxWait){}
+
 	private class DatabaseHelper extends SQLiteOpenHelper{
 
 		public DatabaseHelper(){
 			super(MastodonApp.context, accountID+".db", null, DB_VERSION);
+			// Readers use their own connections and see the last committed state instead of waiting for writes
+			setWriteAheadLoggingEnabled(true);
+		}
+
+		@Override
+		public void onConfigure(SQLiteDatabase db){
+			// So that replacing a status fires the trigger that removes it from the search index.
+			// This runs for the read connections too, where it does nothing. Writes always use the primary connection, including flushes started by reads.
+			db.execSQL("PRAGMA recursive_triggers=ON");
 		}
 
 		@Override
 		public void onCreate(SQLiteDatabase db){
-			db.execSQL("""
-						CREATE TABLE `home_timeline` (
-							`id` VARCHAR(25) NOT NULL PRIMARY KEY,
-							`json` TEXT NOT NULL,
-							`flags` INTEGER NOT NULL DEFAULT 0,
-							`time` INTEGER NOT NULL
-						)""");
+			createEntityTables(db);
+			StatusSearchIndex.createTables(db);
+			createTimelinesTable(db);
 			createNotificationsTables(db, "all");
 			createNotificationsTables(db, "mentions");
 			createRecentSearchesTable(db);
@@ -571,6 +1358,59 @@ public class CacheController{
 				createNotificationsTables(db, "all");
 				createNotificationsTables(db, "mentions");
 			}
+			if(oldVersion<6){
+				// The cached data itself isn't worth migrating, it will be reloaded from the server
+				db.execSQL("DROP TABLE `home_timeline`");
+				for(String suffix:List.of("all", "mentions")){
+					db.execSQL("DROP TABLE IF EXISTS `notifications_"+suffix+"`");
+					db.execSQL("DROP TABLE IF EXISTS `notifications_accounts_"+suffix+"`");
+					db.execSQL("DROP TABLE IF EXISTS `notifications_statuses_"+suffix+"`");
+				}
+				createEntityTables(db);
+				createNotificationsTables(db, "all");
+				createNotificationsTables(db, "mentions");
+			}
+			if(oldVersion<7){
+				createTimelinesTable(db);
+				if(oldVersion==6)
+					db.execSQL("INSERT INTO `timelines` (`timeline`, `type`, `id`, `flags`, `time`) SELECT '"+TimelineKey.HOME+"', '"+TimelineKey.Type.HOME.name()+"', `id`, `flags`, `time` FROM `home_timeline`");
+				db.execSQL("DROP TABLE IF EXISTS `home_timeline`");
+			}
+			if(oldVersion<8){
+				StatusSearchIndex.createTables(db);
+				StatusSearchIndex.indexExisting(db);
+			}
+		}
+
+		private void createEntityTables(SQLiteDatabase db){
+			db.execSQL("""
+						CREATE TABLE `statuses` (
+							`id` VARCHAR(25) NOT NULL PRIMARY KEY,
+							`account_id` VARCHAR(25) NOT NULL,
+							`reblog_id` VARCHAR(25),
+							`json` TEXT NOT NULL
+						)""");
+			db.execSQL("CREATE INDEX `statuses_account_id` ON `statuses`(`account_id`)");
+			db.execSQL("CREATE INDEX `statuses_reblog_id` ON `statuses`(`reblog_id`)");
+			db.execSQL("""
+						CREATE TABLE `accounts` (
+							`id` VARCHAR(25) NOT NULL PRIMARY KEY,
+							`json` TEXT NOT NULL
+						)""");
+		}
+
+		private void createTimelinesTable(SQLiteDatabase db){
+			db.execSQL("""
+						CREATE TABLE `timelines` (
+							`timeline` VARCHAR(100) NOT NULL,
+							`type` VARCHAR(10) NOT NULL,
+							`id` VARCHAR(25) NOT NULL,
+							`flags` INTEGER NOT NULL DEFAULT 0,
+							`time` INTEGER NOT NULL,
+							PRIMARY KEY(`timeline`, `id`)
+						)""");
+			db.execSQL("CREATE INDEX `timelines_id` ON `timelines`(`id`)");
+			db.execSQL("CREATE INDEX `timelines_type_time` ON `timelines`(`type`, `time`)");
 		}
 
 		private void createRecentSearchesTable(SQLiteDatabase db){
@@ -607,18 +1447,16 @@ public class CacheController{
 							`flags` INTEGER NOT NULL DEFAULT 0,
 							`type` INTEGER NOT NULL,
 							`time` INTEGER NOT NULL,
-							`max_id` VARCHAR(25) NOT NULL
+							`max_id` VARCHAR(25) NOT NULL,
+							`status_id` VARCHAR(25)
 						)""");
 			db.execSQL("CREATE INDEX `notifications_"+suffix+"_max_id` ON `notifications_"+suffix+"`(`max_id`)");
+			// Which accounts each notification group refers to, so that unreferenced accounts can be cleaned up
 			db.execSQL("CREATE TABLE `notifications_accounts_"+suffix+"` ("+
 					"""
-					`id` VARCHAR(25) NOT NULL PRIMARY KEY,
-					`json` TEXT NOT NULL
-				)""");
-			db.execSQL("CREATE TABLE `notifications_statuses_"+suffix+"` ("+
-					"""
-					`id` VARCHAR(25) NOT NULL PRIMARY KEY,
-					`json` TEXT NOT NULL
+					`group_id` VARCHAR(100) NOT NULL,
+					`account_id` VARCHAR(25) NOT NULL,
+					PRIMARY KEY(`group_id`, `account_id`)
 				)""");
 		}
 	}
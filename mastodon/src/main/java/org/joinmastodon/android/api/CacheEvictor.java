@@ -0,0 +1,159 @@
+package org.joinmastodon.android.api;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.joinmastodon.android.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the cache tables within their {@link CacheController.RetentionPolicy}. Rows are always evicted from the old end,
+ * so what remains of a timeline is still contiguous and its gap flags are still correct. Timelines have a policy per
+ * {@link TimelineKey.Type} that applies to all timelines of that type together. Work is split into small steps
+ * so that reads don't have to wait for all of it.
+ */
+class CacheEvictor{
+	private static final String TAG="CacheEvictor";
+	private static final int ROWS_PER_STEP=200;
+	/**
+	 * VACUUM rewrites the whole file, so only do it when there's a meaningful amount of space to reclaim
+	 */
+	private static final long MIN_FREE_BYTES_TO_VACUUM=4*1024*1024;
+
+	private final List<Target> targets=new ArrayList<>();
+	private int currentTarget;
+	private int evictedRows;
+
+	CacheEvictor(Map<TimelineKey.Type, CacheController.RetentionPolicy> timelinePolicies, Map<String, CacheController.RetentionPolicy> tablePolicies){
+		for(Map.Entry<TimelineKey.Type, CacheController.RetentionPolicy> e:timelinePolicies.entrySet()){
+			targets.add(new Target("timelines", e.getKey(), e.getValue()));
+		}
+		for(Map.Entry<String, CacheController.RetentionPolicy> e:tablePolicies.entrySet()){
+			targets.add(new Target(e.getKey(), null, e.getValue()));
+		}
+	}
+
+	/**
+	 * Evicts up to {@link #ROWS_PER_STEP} rows. Must be called on the database thread, not in a transaction.
+	 * @return true if there's more work to do
+	 */
+	boolean step(SQLiteDatabase db){
+		while(currentTarget<targets.size()){
+			Target target=targets.get(currentTarget);
+			List<String> ids=findRowsToEvict(db, target);
+			if(ids.isEmpty()){
+				currentTarget++;
+				continue;
+			}
+			db.beginTransaction();
+			try{
+				deleteRows(db, target.table(), ids);
+				db.setTransactionSuccessful();
+			}finally{
+				db.endTransaction();
+			}
+			evictedRows+=ids.size();
+			return true;
+		}
+		if(evictedRows>0){
+			CacheController.deleteUnreferencedEntities(db);
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "Evicted "+evictedRows+" rows");
+		}
+		return false;
+	}
+
+	/**
+	 * @return the IDs of the oldest rows that are over any of the limits, at most {@link #ROWS_PER_STEP}
+	 */
+	private List<String> findRowsToEvict(SQLiteDatabase db, Target target){
+		CacheController.RetentionPolicy policy=target.policy();
+		long minTime=System.currentTimeMillis()/1000-policy.maxAge();
+		ArrayList<String> ids=new ArrayList<>();
+		int rows=0;
+		long bytes=0;
+		boolean evicting=false;
+		try(Cursor cursor=db.rawQuery(getRowSizeQuery(target), null)){
+			while(cursor.moveToNext()){
+				rows++;
+				bytes+=cursor.getLong(2);
+				if(!evicting)
+					evicting=rows>policy.maxRows() || bytes>policy.maxBytes() || cursor.getLong(1)<minTime;
+				if(evicting){
+					ids.add(cursor.getString(0));
+				}
+			}
+		}
+		// The query is newest first, so the oldest rows are at the end
+		if(ids.size()>ROWS_PER_STEP)
+			return ids.subList(ids.size()-ROWS_PER_STEP, ids.size());
+		return ids;
+	}
+
+	/**
+	 * @return a query that returns the ID, time and size in bytes of each row, newest first. The size includes the statuses the row refers to.
+	 * The same status can be in several timelines, so timeline rows are identified by their rowid instead.
+	 */
+	private static String getRowSizeQuery(Target target){
+		String table=target.table();
+		if(target.timelineType()!=null){
+			return "SELECT `t`.rowid, `t`.`time`, IFNULL(length(`s`.`json`), 0)+IFNULL(length(`r`.`json`), 0) FROM `timelines` AS `t` "+
+					"LEFT JOIN `statuses` AS `s` ON `s`.`id`=`t`.`id` LEFT JOIN `statuses` AS `r` ON `r`.`id`=`s`.`reblog_id` "+
+					"WHERE `t`.`type`='"+target.timelineType().name()+"' ORDER BY `t`.`time` DESC";
+		}else if(table.startsWith("notifications_")){
+			return "SELECT `n`.`id`, `n`.`time`, length(`n`.`json`)+IFNULL(length(`s`.`json`), 0) FROM `"+table+"` AS `n` "+
+					"LEFT JOIN `statuses` AS `s` ON `s`.`id`=`n`.`status_id` ORDER BY `n`.`time` DESC";
+		}else{
+			return "SELECT `id`, `time`, length(`json`) FROM `"+table+"` ORDER BY `time` DESC";
+		}
+	}
+
+	private static void deleteRows(SQLiteDatabase db, String table, List<String> ids){
+		try(SQLiteStatement stmt=db.compileStatement("DELETE FROM `"+table+"` WHERE "+(table.equals("timelines") ? "rowid" : "`id`")+"=?")){
+			for(String id:ids){
+				stmt.bindString(1, id);
+				stmt.executeUpdateDelete();
+			}
+		}
+		if(table.startsWith("notifications_")){
+			String accountsTable="notifications_accounts_"+table.substring("notifications_".length());
+			try(SQLiteStatement stmt=db.compileStatement("DELETE FROM `"+accountsTable+"` WHERE `group_id`=?")){
+				for(String id:ids){
+					stmt.bindString(1, id);
+					stmt.executeUpdateDelete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reclaims the space freed by eviction if there's enough of it. VACUUM needs the database to itself, so this is
+	 * only called while no other database task is running, right before an idle database is closed.
+	 */
+	static void maybeVacuum(SQLiteDatabase db){
+		long pageSize=queryLong(db, "PRAGMA page_size");
+		long pageCount=queryLong(db, "PRAGMA page_count");
+		long freePages=queryLong(db, "PRAGMA freelist_count");
+		if(freePages*pageSize>=MIN_FREE_BYTES_TO_VACUUM && freePages*4>=pageCount){
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "Vacuuming, "+freePages+" of "+pageCount+" pages are free");
+			db.execSQL("VACUUM");
+		}
+	}
+
+	static long queryLong(SQLiteDatabase db, String sql){
+		try(Cursor cursor=db.rawQuery(sql, null)){
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		}
+	}
+
+	/**
+	 * @param timelineType null for anything other than timelines
+	 */
+	private record Target(String table, TimelineKey.Type timelineType, CacheController.RetentionPolicy policy){}
+}
@@ -0,0 +1,320 @@
+package org.joinmastodon.android.api;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.joinmastodon.android.api.gson.BinaryJson;
+import org.joinmastodon.android.model.Account;
+import org.joinmastodon.android.model.NotificationGroup;
+import org.joinmastodon.android.model.Status;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache writes that haven't made it to the database yet. Writes to the same row replace each other, so e.g. a post
+ * whose gap flag is changed several times during a gap fill is only written once. Everything is then written in a
+ * single transaction by {@link #writeTo(SQLiteDatabase)}. Not thread-safe, {@link CacheController} synchronizes access.
+ *
+ * <p>Objects are encoded before they're put into the buffer, see {@link EncodedStatus}.</p>
+ */
+class CacheWriteBuffer{
+	private final LinkedHashMap<TimelineKey, TimelineWrites> timelines=new LinkedHashMap<>();
+	private final NotificationWrites[] notifications={new NotificationWrites("all"), new NotificationWrites("mentions")};
+	private final LinkedHashMap<String, EncodedStatus> statuses=new LinkedHashMap<>();
+	private final LinkedHashMap<String, EncodedAccount> accounts=new LinkedHashMap<>();
+	/**
+	 * Accounts that should only be updated if they're already cached
+	 */
+	private final LinkedHashMap<String, EncodedAccount> accountUpdates=new LinkedHashMap<>();
+	/**
+	 * Statuses that should only be updated if they're already cached
+	 */
+	private final LinkedHashMap<String, EncodedStatus> statusUpdates=new LinkedHashMap<>();
+	private int size;
+
+	public void putTimeline(TimelineKey key, List<EncodedStatus> posts, boolean clear){
+		TimelineWrites writes=timelines.computeIfAbsent(key, TimelineWrites::new);
+		if(clear){
+			writes.clear=true;
+			writes.posts.clear();
+			writes.gaps.clear();
+		}
+		for(EncodedStatus s:posts){
+			writes.posts.put(s.id(), s);
+			// The post carries its current gap flag, older changes to it no longer apply
+			writes.gaps.remove(s.id());
+			putStatus(s);
+		}
+	}
+
+	public void setTimelineGap(TimelineKey key, String id, boolean hasGapAfter){
+		TimelineWrites writes=timelines.computeIfAbsent(key, TimelineWrites::new);
+		// Applied after the posts, so this also overrides the flag of a post that's still in the buffer
+		writes.gaps.put(id, hasGapAfter);
+		size++;
+	}
+
+	public void putNotifications(List<EncodedNotificationGroup> groups, List<EncodedAccount> accounts, List<EncodedStatus> statuses, boolean onlyMentions, boolean clear){
+		NotificationWrites writes=notifications[onlyMentions ? 1 : 0];
+		if(clear){
+			writes.clear=true;
+			writes.groups.clear();
+		}
+		for(EncodedNotificationGroup ng:groups){
+			writes.groups.put(ng.groupKey(), ng);
+			size++;
+		}
+		for(EncodedAccount acc:accounts){
+			putAccount(acc);
+		}
+		for(EncodedStatus s:statuses){
+			putStatus(s);
+		}
+	}
+
+	public void updateAccount(EncodedAccount account){
+		if(accounts.containsKey(account.id()))
+			accounts.put(account.id(), account);
+		else
+			accountUpdates.put(account.id(), account);
+		size++;
+	}
+
+	public void updateStatus(EncodedStatus status){
+		if(status.reblog()!=null)
+			updateStatus(status.reblog());
+		if(statuses.containsKey(status.id()))
+			statuses.put(status.id(), status);
+		else
+			statusUpdates.put(status.id(), status);
+		size++;
+	}
+
+	/**
+	 * @return the number of writes that were buffered, including those that were since replaced
+	 */
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size==0 && !hasClears();
+	}
+
+	private boolean hasClears(){
+		if(notifications[0].clear || notifications[1].clear)
+			return true;
+		for(TimelineWrites writes:timelines.values()){
+			if(writes.clear)
+				return true;
+		}
+		return false;
+	}
+
+	private void putStatus(EncodedStatus s){
+		if(s.reblog()!=null)
+			putStatus(s.reblog());
+		statuses.put(s.id(), s);
+		statusUpdates.remove(s.id());
+		putAccount(s.account());
+		size++;
+	}
+
+	private void putAccount(EncodedAccount acc){
+		accounts.put(acc.id(), acc);
+		accountUpdates.remove(acc.id());
+		size++;
+	}
+
+	/**
+	 * Must be called inside a transaction
+	 */
+	public void writeTo(SQLiteDatabase db){
+		for(TimelineWrites writes:timelines.values()){
+			if(writes.clear)
+				db.delete("timelines", "`timeline`=?", new String[]{writes.key.toString()});
+		}
+		for(NotificationWrites writes:notifications){
+			if(writes.clear){
+				db.delete("notifications_"+writes.suffix, null, null);
+				db.delete("notifications_accounts_"+writes.suffix, null, null);
+			}
+		}
+
+		try(SQLiteStatement stmt=db.compileStatement("INSERT OR REPLACE INTO `accounts` (`id`, `json`) VALUES (?, ?)")){
+			for(EncodedAccount acc:accounts.values()){
+				stmt.bindString(1, acc.id());
+				stmt.bindBlob(2, acc.data());
+				stmt.executeInsert();
+			}
+		}
+		if(!accountUpdates.isEmpty()){
+			try(SQLiteStatement stmt=db.compileStatement("UPDATE `accounts` SET `json`=? WHERE `id`=?")){
+				for(EncodedAccount acc:accountUpdates.values()){
+					stmt.bindBlob(1, acc.data());
+					stmt.bindString(2, acc.id());
+					stmt.executeUpdateDelete();
+				}
+			}
+		}
+
+		// Statuses are stored without their author and reblogged status, which are stored in their own rows and referenced by ID.
+		// Replacing a row deletes its old search index entry, see StatusSearchIndex.
+		try(SQLiteStatement stmt=db.compileStatement("INSERT OR REPLACE INTO `statuses` (`id`, `account_id`, `reblog_id`, `json`) VALUES (?, ?, ?, ?)");
+			SQLiteStatement indexStmt=db.compileStatement(StatusSearchIndex.INSERT_SQL)){
+			for(EncodedStatus s:statuses.values()){
+				stmt.bindString(1, s.id());
+				stmt.bindString(2, s.account().id());
+				if(s.reblog()==null)
+					stmt.bindNull(3);
+				else
+					stmt.bindString(3, s.reblog().id());
+				stmt.bindBlob(4, s.data());
+				long rowid=stmt.executeInsert();
+				if(s.reblog()==null)
+					StatusSearchIndex.insert(indexStmt, rowid, s.searchEntry());
+			}
+		}
+		if(!statusUpdates.isEmpty()){
+			try(SQLiteStatement stmt=db.compileStatement("UPDATE `statuses` SET `json`=? WHERE `id`=?");
+				SQLiteStatement rowidStmt=db.compileStatement("SELECT rowid FROM `statuses` WHERE `id`=?");
+				SQLiteStatement deleteIndexStmt=db.compileStatement("DELETE FROM `statuses_fts` WHERE `docid`=?");
+				SQLiteStatement indexStmt=db.compileStatement(StatusSearchIndex.INSERT_SQL)){
+				for(EncodedStatus s:statusUpdates.values()){
+					stmt.bindBlob(1, s.data());
+					stmt.bindString(2, s.id());
+					if(stmt.executeUpdateDelete()==0 || s.reblog()!=null)
+						continue;
+					// UPDATE keeps the rowid, so the index entry has to be replaced by hand
+					rowidStmt.bindString(1, s.id());
+					long rowid=rowidStmt.simpleQueryForLong();
+					deleteIndexStmt.bindLong(1, rowid);
+					deleteIndexStmt.executeUpdateDelete();
+					StatusSearchIndex.insert(indexStmt, rowid, s.searchEntry());
+				}
+			}
+		}
+
+		try(SQLiteStatement insertStmt=db.compileStatement("INSERT OR REPLACE INTO `timelines` (`timeline`, `type`, `id`, `flags`, `time`) VALUES (?, ?, ?, ?, ?)");
+			SQLiteStatement gapStmt=db.compileStatement("UPDATE `timelines` SET `flags`=(`flags` & ~"+CacheController.POST_FLAG_GAP_AFTER+") | ? WHERE `timeline`=? AND `id`=?")){
+			for(TimelineWrites writes:timelines.values()){
+				writes.writeTo(insertStmt, gapStmt);
+			}
+		}
+
+		for(NotificationWrites writes:notifications){
+			if(!writes.groups.isEmpty())
+				writes.writeTo(db);
+		}
+
+		if(hasClears())
+			CacheController.deleteUnreferencedEntities(db);
+	}
+
+	/**
+	 * A status as it's written to its row, with its author and reblogged status encoded separately. The objects that are
+	 * cached are shared with the UI, which keeps changing them, so they're encoded on the thread that asks for the write
+	 * and nothing is read from them later on the write thread.
+	 * @param reblog null if this isn't a reblog
+	 * @param searchEntry null for reblogs, which aren't indexed
+	 */
+	record EncodedStatus(String id, byte[] data, EncodedAccount account, EncodedStatus reblog, boolean hasGapAfter, long time, StatusSearchIndex.Entry searchEntry){
+		static EncodedStatus of(Status s){
+			Status stripped=s.clone();
+			stripped.account=null;
+			stripped.reblog=null;
+			return new EncodedStatus(s.id, BinaryJson.encode(MastodonAPIController.gson, stripped, Status.class), EncodedAccount.of(s.account),
+					s.reblog==null ? null : of(s.reblog), s.hasGapAfter, s.createdAt.getEpochSecond(), s.reblog==null ? StatusSearchIndex.Entry.of(s) : null);
+		}
+	}
+
+	record EncodedAccount(String id, byte[] data){
+		static EncodedAccount of(Account acc){
+			return new EncodedAccount(acc.id, BinaryJson.encode(MastodonAPIController.gson, acc, Account.class));
+		}
+	}
+
+	record EncodedNotificationGroup(String groupKey, byte[] data, int type, long time, String pageMaxID, String statusID, List<String> sampleAccountIDs){
+		static EncodedNotificationGroup of(NotificationGroup ng){
+			return new EncodedNotificationGroup(ng.groupKey, BinaryJson.encode(MastodonAPIController.gson, ng, NotificationGroup.class), ng.type.ordinal(),
+					ng.latestPageNotificationAt.getEpochSecond(), ng.pageMaxId, ng.statusId, List.copyOf(ng.sampleAccountIds));
+		}
+	}
+
+	private static class TimelineWrites{
+		private final TimelineKey key;
+		private boolean clear;
+		private final LinkedHashMap<String, EncodedStatus> posts=new LinkedHashMap<>();
+		/**
+		 * Gap flag changes, applied after the posts. The posts may already be in the database or still in {@link #posts}.
+		 */
+		private final HashMap<String, Boolean> gaps=new HashMap<>();
+
+		private TimelineWrites(TimelineKey key){
+			this.key=key;
+		}
+
+		private void writeTo(SQLiteStatement insertStmt, SQLiteStatement gapStmt){
+			String timeline=key.toString();
+			for(EncodedStatus s:posts.values()){
+				insertStmt.bindString(1, timeline);
+				insertStmt.bindString(2, key.type().name());
+				insertStmt.bindString(3, s.id());
+				insertStmt.bindLong(4, s.hasGapAfter() ? CacheController.POST_FLAG_GAP_AFTER : 0);
+				insertStmt.bindLong(5, s.time());
+				insertStmt.executeInsert();
+			}
+			for(Map.Entry<String, Boolean> e:gaps.entrySet()){
+				gapStmt.bindLong(1, e.getValue() ? CacheController.POST_FLAG_GAP_AFTER : 0);
+				gapStmt.bindString(2, timeline);
+				gapStmt.bindString(3, e.getKey());
+				gapStmt.executeUpdateDelete();
+			}
+		}
+	}
+
+	private static class NotificationWrites{
+		private final String suffix;
+		private boolean clear;
+		private final LinkedHashMap<String, EncodedNotificationGroup> groups=new LinkedHashMap<>();
+
+		private NotificationWrites(String suffix){
+			this.suffix=suffix;
+		}
+
+		private void writeTo(SQLiteDatabase db){
+			String accountsTable="notifications_accounts_"+suffix;
+			try(SQLiteStatement stmt=db.compileStatement("INSERT OR REPLACE INTO `notifications_"+suffix+"` (`id`, `json`, `type`, `time`, `max_id`, `status_id`) VALUES (?, ?, ?, ?, ?, ?)")){
+				for(EncodedNotificationGroup ng:groups.values()){
+					stmt.bindString(1, ng.groupKey());
+					stmt.bindBlob(2, ng.data());
+					stmt.bindLong(3, ng.type());
+					stmt.bindLong(4, ng.time());
+					stmt.bindString(5, ng.pageMaxID());
+					if(ng.statusID()==null)
+						stmt.bindNull(6);
+					else
+						stmt.bindString(6, ng.statusID());
+					stmt.executeInsert();
+				}
+			}
+			try(SQLiteStatement deleteStmt=db.compileStatement("DELETE FROM `"+accountsTable+"` WHERE `group_id`=?");
+				SQLiteStatement insertStmt=db.compileStatement("INSERT OR IGNORE INTO `"+accountsTable+"` (`group_id`, `account_id`) VALUES (?, ?)")){
+				for(EncodedNotificationGroup ng:groups.values()){
+					if(!clear){
+						deleteStmt.bindString(1, ng.groupKey());
+						deleteStmt.executeUpdateDelete();
+					}
+					insertStmt.bindString(1, ng.groupKey());
+					for(String id:ng.sampleAccountIDs()){
+						insertStmt.bindString(2, id);
+						insertStmt.executeInsert();
+					}
+				}
+			}
+		}
+	}
+}
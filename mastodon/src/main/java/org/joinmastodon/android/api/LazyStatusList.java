@@ -0,0 +1,116 @@
+package org.joinmastodon.android.api;
+
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+
+import org.joinmastodon.android.api.gson.BinaryJson;
+import org.joinmastodon.android.model.Account;
+import org.joinmastodon.android.model.Status;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * A list of statuses read from the cache database that only decodes each status the first time it's accessed.
+ * This lets the first screenful be shown before the rest of the page is decoded. Thread-safe, so that the rest can be
+ * decoded on the database thread while the UI is already using the list.
+ *
+ * <p>A status that can't be decoded is null in this list. Whatever displays the list has to skip those.</p>
+ */
+class LazyStatusList extends AbstractList<Status> implements RandomAccess{
+	private static final String TAG="LazyStatusList";
+
+	private final StatusRow[] rows;
+	private final Status[] statuses;
+	private final Map<String, Account> accounts;
+	private final Consumer<String> onCorruptRow;
+
+	/**
+	 * @param accounts the authors of all statuses, including reblogged ones
+	 * @param onCorruptRow called with the ID of every status that couldn't be decoded, on whatever thread tried
+	 */
+	LazyStatusList(List<StatusRow> rows, Map<String, Account> accounts, Consumer<String> onCorruptRow){
+		this.rows=rows.toArray(new StatusRow[0]);
+		statuses=new Status[this.rows.length];
+		this.accounts=accounts;
+		this.onCorruptRow=onCorruptRow;
+	}
+
+	/**
+	 * @return the status, or null if it couldn't be decoded
+	 */
+	@Override
+	public synchronized Status get(int index){
+		Status s=statuses[index];
+		StatusRow row=rows[index];
+		if(s==null && row!=null){
+			// The raw data isn't needed anymore, and a row that fails once isn't tried again
+			rows[index]=null;
+			try{
+				s=row.decode(accounts);
+				statuses[index]=s;
+			}catch(IOException|JsonParseException x){
+				Log.w(TAG, "Corrupted status object "+row.id()+" in database", x);
+				onCorruptRow.accept(row.id());
+			}
+		}
+		return s;
+	}
+
+	@Override
+	public int size(){
+		return statuses.length;
+	}
+
+	/**
+	 * Decode the statuses in this range that haven't been accessed yet
+	 * @return false if any of them couldn't be decoded
+	 */
+	public boolean decode(int from, int to){
+		boolean allDecoded=true;
+		for(int i=from;i<to;i++){
+			if(get(i)==null)
+				allDecoded=false;
+		}
+		return allDecoded;
+	}
+
+	/**
+	 * A status as stored in the database, with its author and reblogged status stored separately
+	 * @param data {@link BinaryJson} or JSON text
+	 * @param reblog null if this isn't a reblog
+	 */
+	record StatusRow(String id, Object data, String accountID, StatusRow reblog, boolean hasGapAfter){
+		/**
+		 * @return whether the rows for the author and reblogged status, if any, were also found
+		 */
+		boolean isComplete(Map<String, Account> accounts){
+			return accounts.containsKey(accountID) && (reblog==null || reblog.isComplete(accounts));
+		}
+
+		Status decode(Map<String, Account> accounts) throws IOException{
+			Status s=decodeWithoutPostprocessing(accounts);
+			s.postprocess();
+			return s;
+		}
+
+		private Status decodeWithoutPostprocessing(Map<String, Account> accounts){
+			Status s=data instanceof byte[] bytes ? BinaryJson.decode(MastodonAPIController.gson, bytes, Status.class)
+					: MastodonAPIController.gson.fromJson((String)data, Status.class);
+			s.account=accounts.get(accountID);
+			if(reblog!=null)
+				s.reblog=reblog.decodeWithoutPostprocessing(accounts);
+			s.hasGapAfter=hasGapAfter;
+			return s;
+		}
+
+		StatusRow withGapAfter(boolean hasGapAfter){
+			return new StatusRow(id, data, accountID, reblog, hasGapAfter);
+		}
+	}
+}
@@ -18,13 +18,18 @@ import org.joinmastodon.android.BuildConfig;
 import org.joinmastodon.android.MastodonApp;
 import org.joinmastodon.android.api.gson.IsoInstantTypeAdapter;
 import org.joinmastodon.android.api.gson.IsoLocalDateTypeAdapter;
+import org.joinmastodon.android.api.gson.ModelTypeAdapterFactory;
 import org.joinmastodon.android.api.requests.async_refreshes.GetAsyncRefresh;
 import org.joinmastodon.android.api.session.AccountSession;
+import org.joinmastodon.android.model.Account;
 import org.joinmastodon.android.model.AsyncRefresh;
+import org.joinmastodon.android.model.Relationship;
+import org.joinmastodon.android.ui.utils.UiUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
@@ -36,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -45,6 +51,7 @@ import okhttp3.Cache;
 import okhttp3.CacheControl;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -57,15 +64,22 @@ public class MastodonAPIController{
 			.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
 			.registerTypeAdapter(Instant.class, new IsoInstantTypeAdapter())
 			.registerTypeAdapter(LocalDate.class, new IsoLocalDateTypeAdapter())
+			.registerTypeAdapterFactory(new ModelTypeAdapterFactory())
 			.create();
 	private static WorkerThread thread=new WorkerThread("MastodonAPIController");
+	private static WorkerThread backgroundThread=new WorkerThread("MastodonAPIBackground");
 	private static OkHttpClient httpClient=new OkHttpClient.Builder()
 			.connectTimeout(60, TimeUnit.SECONDS)
 			.writeTimeout(60, TimeUnit.SECONDS)
 			.readTimeout(60, TimeUnit.SECONDS)
 			.cache(new Cache(new File(MastodonApp.context.getCacheDir(), "http"), 10*1024*1024))
+			.dispatcher(makeDispatcher())
+			.eventListenerFactory(NetworkTimings.getEventListenerFactory())
 			.build();
+	private static final RequestScheduler scheduler=new RequestScheduler();
+	private static final RateLimitGovernor rateLimitGovernor=new RateLimitGovernor();
 	private static Handler uiThreadHandler=new Handler(Looper.getMainLooper());
+	private static final HashMap<String, InFlightCall> inFlightCalls=new HashMap<>();
 
 	private static final CacheControl NO_CACHE_WHATSOEVER=new CacheControl.Builder().noCache().noStore().build();
 
@@ -74,6 +88,7 @@ public class MastodonAPIController{
 
 	static{
 		thread.start();
+		backgroundThread.start();
 	}
 
 	public MastodonAPIController(@Nullable AccountSession session){
@@ -81,174 +96,289 @@ public class MastodonAPIController{
 	}
 
 	public <T> void submitRequest(final MastodonAPIRequest<T> req){
-		thread.postRunnable(()->{
-			try{
-				if(req.canceled)
-					return;
-				Request.Builder builder=new Request.Builder()
-						.url(req.getURL().toString())
-						.method(req.getMethod(), req.getRequestBody())
-						.header("User-Agent", "MastodonAndroid/"+BuildConfig.VERSION_NAME);
-
-				String token=null;
-				if(session!=null)
-					token=session.token.accessToken;
-				else if(req.token!=null)
-					token=req.token.accessToken;
-
-				if(token!=null)
-					builder.header("Authorization", "Bearer "+token);
-
-				if(!req.cacheable)
-					builder.cacheControl(NO_CACHE_WHATSOEVER);
-
-				if(req.headers!=null){
-					for(Map.Entry<String, String> header:req.headers.entrySet()){
-						builder.header(header.getKey(), header.getValue());
+		thread.postRunnable(()->doSubmitRequest(req), 0);
+	}
+
+	private <T> void doSubmitRequest(final MastodonAPIRequest<T> req){
+		try{
+			if(req.canceled)
+				return;
+			Request.Builder builder=new Request.Builder()
+					.url(req.getURL().toString())
+					.method(req.getMethod(), req.getRequestBody())
+					.header("User-Agent", "MastodonAndroid/"+BuildConfig.VERSION_NAME);
+
+			String token=null;
+			if(session!=null)
+				token=session.token.accessToken;
+			else if(req.token!=null)
+				token=req.token.accessToken;
+
+			if(token!=null)
+				builder.header("Authorization", "Bearer "+token);
+
+			if(!req.cacheable)
+				builder.cacheControl(NO_CACHE_WHATSOEVER);
+
+			if(req.headers!=null){
+				for(Map.Entry<String, String> header:req.headers.entrySet()){
+					builder.header(header.getKey(), header.getValue());
+				}
+			}
+
+			Request hreq=builder.build();
+
+			// Identical GETs that are already in flight don't need another HTTP call, we just wait for the response of the existing one
+			String coalescingKey=null;
+			if("GET".equals(hreq.method()) && req.headers==null && req.timeout==0){
+				coalescingKey=hreq.url()+" "+token+" "+req.cacheable;
+				synchronized(inFlightCalls){
+					InFlightCall existing=inFlightCalls.get(coalescingKey);
+					if(existing!=null){
+						if(BuildConfig.DEBUG)
+							Log.d(TAG, logTag(session)+"Joining in-flight request: "+hreq);
+						existing.addWaiter(req);
+						if(existing.priority.ordinal()>req.priority.ordinal()){
+							existing.priority=req.priority;
+							scheduler.promote(hreq.url().host(), existing.call, req.priority);
+						}
+						return;
 					}
 				}
+			}
+
+			// Only requests that actually make an HTTP call count against the rate limit
+			String rateLimitKey=session!=null ? session.getID() : "";
+			long rateLimitDelay=rateLimitGovernor.acquire(rateLimitKey, hreq, req.priority);
+			if(rateLimitDelay>0){
+				if(rateLimitDelay>RateLimitGovernor.getMaxDeferDelay(req.priority)){
+					// The user would be looking at a spinner until the limit resets, the error is more useful
+					if(BuildConfig.DEBUG)
+						Log.d(TAG, logTag(session)+"Rate limited for "+rateLimitDelay+" ms, failing "+hreq);
+					req.onError("Too Many Requests", 429, null);
+					return;
+				}
+				thread.postRunnable(()->doSubmitRequest(req), rateLimitDelay);
+				return;
+			}
 
-				Request hreq=builder.build();
-				Call call=httpClient.newCall(hreq);
+			Call call=httpClient.newCall(hreq);
+			final InFlightCall inFlightCall;
+			if(coalescingKey!=null){
+				inFlightCall=new InFlightCall(coalescingKey, call, req.priority);
+				synchronized(inFlightCalls){
+					inFlightCall.addWaiter(req);
+					inFlightCalls.put(coalescingKey, inFlightCall);
+				}
+			}else{
+				inFlightCall=null;
 				synchronized(req){
 					req.okhttpCall=call;
 				}
-				if(req.timeout>0){
-					call.timeout().timeout(req.timeout, TimeUnit.MILLISECONDS);
-				}
+			}
+			if(req.timeout>0){
+				call.timeout().timeout(req.timeout, TimeUnit.MILLISECONDS);
+			}
 
-				if(BuildConfig.DEBUG)
-					Log.d(TAG, logTag(session)+"Sending request: "+hreq);
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, logTag(session)+"Sending request: "+hreq);
 
-				call.enqueue(new Callback(){
-					@Override
-					public void onFailure(@NonNull Call call, @NonNull IOException e){
-						if(req.canceled)
-							return;
-						if(BuildConfig.DEBUG)
-							Log.w(TAG, logTag(session)+""+hreq+" failed", e);
-						synchronized(req){
-							req.okhttpCall=null;
+			scheduler.enqueue(hreq.url().host(), req.priority, call, new Callback(){
+				@Override
+				public void onFailure(@NonNull Call call, @NonNull IOException e){
+					List<MastodonAPIRequest<?>> waiters=inFlightCall!=null ? inFlightCall.complete() : List.of(req);
+					if(BuildConfig.DEBUG)
+						Log.w(TAG, logTag(session)+""+hreq+" failed", e);
+					for(MastodonAPIRequest<?> waiter:waiters){
+						if(waiter.canceled)
+							continue;
+						synchronized(waiter){
+							waiter.okhttpCall=null;
 						}
-						req.onError(e.getLocalizedMessage(), 0, e);
+						waiter.onError(e.getLocalizedMessage(), 0, e);
 					}
+				}
 
-					@Override
-					public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException{
-						if(req.canceled){
+				@Override
+				public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException{
+					List<MastodonAPIRequest<?>> waiters=inFlightCall!=null ? inFlightCall.complete() : List.of(req);
+					waiters=waiters.stream().filter(w->!w.canceled).collect(Collectors.toList());
+					if(waiters.isEmpty()){
+						response.close();
+						return;
+					}
+					if(BuildConfig.DEBUG)
+						Log.d(TAG, logTag(session)+hreq+" received response: "+response+(waiters.size()>1 ? " (shared by "+waiters.size()+" requests)" : ""));
+					for(MastodonAPIRequest<?> waiter:waiters){
+						synchronized(waiter){
+							waiter.okhttpCall=null;
+						}
+					}
+					rateLimitGovernor.onResponse(rateLimitKey, hreq, response);
+					if(response.code()==429){
+						long retryDelay=rateLimitGovernor.getRetryDelay(rateLimitKey, hreq, response);
+						ArrayList<MastodonAPIRequest<?>> notRetried=new ArrayList<>();
+						for(MastodonAPIRequest<?> waiter:waiters){
+							if(waiter.rateLimitRetries<RateLimitGovernor.MAX_RETRIES && retryDelay<=RateLimitGovernor.getMaxRetryDelay(waiter.priority)){
+								waiter.rateLimitRetries++;
+								if(BuildConfig.DEBUG)
+									Log.d(TAG, logTag(session)+"Rate limited, retrying "+hreq+" in "+retryDelay+" ms");
+								thread.postRunnable(()->doSubmitRequest(waiter), retryDelay);
+							}else{
+								notRetried.add(waiter);
+							}
+						}
+						if(notRetried.isEmpty()){
 							response.close();
 							return;
 						}
-						if(BuildConfig.DEBUG)
-							Log.d(TAG, logTag(session)+hreq+" received response: "+response);
-						synchronized(req){
-							req.okhttpCall=null;
+						waiters=notRetried;
+					}
+					if(BuildConfig.DEBUG){
+						String deprecationHeader=response.header("Deprecation");
+						if(deprecationHeader!=null && deprecationHeader.startsWith("@")){
+							try{
+								Instant date=Instant.ofEpochSecond(Long.parseLong(deprecationHeader.substring(1)));
+								String msg=hreq.url().encodedPath();
+								if(date.isAfter(Instant.now()))
+									msg+=" will be deprecated on ";
+								else
+									msg+=" is deprecated as of ";
+								msg+=date.atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM));
+								Log.w(TAG, logTag(session)+msg);
+								final String finalMsg=msg;
+								uiThreadHandler.post(()->Toast.makeText(MastodonApp.context, finalMsg, Toast.LENGTH_SHORT).show());
+							}catch(NumberFormatException ignored){}
 						}
-						if(BuildConfig.DEBUG){
-							String deprecationHeader=response.header("Deprecation");
-							if(deprecationHeader!=null && deprecationHeader.startsWith("@")){
-								try{
-									Instant date=Instant.ofEpochSecond(Long.parseLong(deprecationHeader.substring(1)));
-									String msg=hreq.url().encodedPath();
-									if(date.isAfter(Instant.now()))
-										msg+=" will be deprecated on ";
-									else
-										msg+=" is deprecated as of ";
-									msg+=date.atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM));
-									Log.w(TAG, logTag(session)+msg);
-									final String finalMsg=msg;
-									uiThreadHandler.post(()->Toast.makeText(MastodonApp.context, finalMsg, Toast.LENGTH_SHORT).show());
-								}catch(NumberFormatException ignored){}
+					}
+					try(ResponseBody body=response.body()){
+						if(waiters.size()==1){
+							handleResponse(waiters.get(0), response, body.charStream());
+						}else{
+							// Each waiter gets its own copy of the objects because callers are free to modify what they receive
+							String bodyString=body.string();
+							for(MastodonAPIRequest<?> waiter:waiters){
+								handleResponse(waiter, response, new StringReader(bodyString));
 							}
 						}
-						try(ResponseBody body=response.body()){
-							Reader reader=body.charStream();
-							if(response.isSuccessful()){
-								T respObj;
-								try{
-									if(BuildConfig.DEBUG){
-										JsonElement respJson=JsonParser.parseReader(reader);
-										Log.d(TAG, logTag(session)+"response body: "+respJson);
-										if(req.respTypeToken!=null)
-											respObj=gson.fromJson(respJson, req.respTypeToken.getType());
-										else if(req.respClass!=null)
-											respObj=gson.fromJson(respJson, req.respClass);
-										else
-											respObj=null;
-									}else{
-										if(req.respTypeToken!=null)
-											respObj=gson.fromJson(reader, req.respTypeToken.getType());
-										else if(req.respClass!=null)
-											respObj=gson.fromJson(reader, req.respClass);
-										else
-											respObj=null;
-									}
-								}catch(JsonIOException|JsonSyntaxException x){
-									if(BuildConfig.DEBUG)
-										Log.w(TAG, logTag(session)+response+" error parsing or reading body", x);
-									req.onError(x.getLocalizedMessage(), response.code(), x);
-									return;
-								}
-
-								try{
-									req.validateAndPostprocessResponse(respObj, response);
-								}catch(IOException x){
-									if(BuildConfig.DEBUG)
-										Log.w(TAG, logTag(session)+response+" error post-processing or validating response", x);
-									req.onError(x.getLocalizedMessage(), response.code(), x);
-									return;
-								}
+					}catch(Exception x){
+						Log.w(TAG, "onResponse: error processing response", x);
+						IOException ioException=(IOException) new IOException(x).fillInStackTrace();
+						for(MastodonAPIRequest<?> waiter:waiters){
+							waiter.onError(ioException.getLocalizedMessage(), 0, ioException);
+						}
+					}
+				}
+			});
+		}catch(Exception x){
+			if(BuildConfig.DEBUG)
+				Log.w(TAG, logTag(session)+"error creating and sending http request", x);
+			req.onError(x.getLocalizedMessage(), 0, x);
+		}
+	}
 
-								if(BuildConfig.DEBUG)
-									Log.d(TAG, logTag(session)+response+" parsed successfully: "+respObj);
+	private <T> void handleResponse(MastodonAPIRequest<T> req, Response response, Reader reader){
+		if(response.code()==304 && req.isConditional()){
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, logTag(session)+response+" not modified");
+			req.responseETag=response.header("ETag");
+			req.onSuccess(null);
+			return;
+		}
+		if(response.isSuccessful()){
+			T respObj;
+			long parseStart=System.nanoTime();
+			try{
+				if(BuildConfig.DEBUG){
+					JsonElement respJson=JsonParser.parseReader(reader);
+					Log.d(TAG, logTag(session)+"response body: "+respJson);
+					if(req.respTypeToken!=null)
+						respObj=gson.fromJson(respJson, req.respTypeToken.getType());
+					else if(req.respClass!=null)
+						respObj=gson.fromJson(respJson, req.respClass);
+					else
+						respObj=null;
+				}else{
+					if(req.respTypeToken!=null)
+						respObj=gson.fromJson(reader, req.respTypeToken.getType());
+					else if(req.respClass!=null)
+						respObj=gson.fromJson(reader, req.respClass);
+					else
+						respObj=null;
+				}
+			}catch(JsonIOException|JsonSyntaxException x){
+				if(BuildConfig.DEBUG)
+					Log.w(TAG, logTag(session)+response+" error parsing or reading body", x);
+				req.onError(x.getLocalizedMessage(), response.code(), x);
+				return;
+			}
+			NetworkTimings.record(response.request().url(), NetworkTimings.Phase.PARSE, System.nanoTime()-parseStart);
 
-								req.onSuccess(respObj);
-							}else{
-								try{
-									JsonObject error=JsonParser.parseReader(reader).getAsJsonObject();
-									Log.w(TAG, logTag(session)+response+" received error: "+error);
-									if(error.has("details")){
-										MastodonDetailedErrorResponse err=new MastodonDetailedErrorResponse(error.get("error").getAsString(), response.code(), null);
-										HashMap<String, List<MastodonDetailedErrorResponse.FieldError>> details=new HashMap<>();
-										JsonObject errorDetails=error.getAsJsonObject("details");
-										for(String key:errorDetails.keySet()){
-											ArrayList<MastodonDetailedErrorResponse.FieldError> fieldErrors=new ArrayList<>();
-											for(JsonElement el:errorDetails.getAsJsonArray(key)){
-												JsonObject eobj=el.getAsJsonObject();
-												MastodonDetailedErrorResponse.FieldError fe=new MastodonDetailedErrorResponse.FieldError();
-												fe.description=eobj.get("description").getAsString();
-												fe.error=eobj.get("error").getAsString();
-												fieldErrors.add(fe);
-											}
-											details.put(key, fieldErrors);
-										}
-										err.detailedErrors=details;
-										req.onError(err);
-									}else{
-										req.onError(error.get("error").getAsString(), response.code(), null);
-									}
-								}catch(JsonIOException|JsonSyntaxException x){
-									req.onError(response.code()+" "+response.message(), response.code(), x);
-								}catch(Exception x){
-									req.onError("Error parsing an API error", response.code(), x);
-								}
-							}
-						}catch(Exception x){
-							Log.w(TAG, "onResponse: error processing response", x);
-							onFailure(call, (IOException) new IOException(x).fillInStackTrace());
+			long postprocessStart=System.nanoTime();
+			try{
+				req.validateAndPostprocessResponse(respObj, response);
+			}catch(IOException x){
+				if(BuildConfig.DEBUG)
+					Log.w(TAG, logTag(session)+response+" error post-processing or validating response", x);
+				req.onError(x.getLocalizedMessage(), response.code(), x);
+				return;
+			}
+			NetworkTimings.record(response.request().url(), NetworkTimings.Phase.POSTPROCESS, System.nanoTime()-postprocessStart);
+			req.responseETag=response.header("ETag");
+			// Following, blocking etc. all return the new relationship, keep the shared cache up to date.
+			// The loader lives on the main thread, like the session's other lazily created objects.
+			if(session!=null && respObj instanceof Relationship rel)
+				UiUtils.runOnUiThread(()->session.getRelationshipLoader().put(rel));
+			// Same for accounts, an updated profile shows up in all cached timelines
+			if(session!=null && respObj instanceof Account acc)
+				session.getCacheController().updateAccount(acc);
+
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, logTag(session)+response+" parsed successfully: "+respObj);
+
+			req.onSuccess(respObj);
+		}else{
+			try{
+				JsonObject error=JsonParser.parseReader(reader).getAsJsonObject();
+				Log.w(TAG, logTag(session)+response+" received error: "+error);
+				if(error.has("details")){
+					MastodonDetailedErrorResponse err=new MastodonDetailedErrorResponse(error.get("error").getAsString(), response.code(), null);
+					HashMap<String, List<MastodonDetailedErrorResponse.FieldError>> details=new HashMap<>();
+					JsonObject errorDetails=error.getAsJsonObject("details");
+					for(String key:errorDetails.keySet()){
+						ArrayList<MastodonDetailedErrorResponse.FieldError> fieldErrors=new ArrayList<>();
+						for(JsonElement el:errorDetails.getAsJsonArray(key)){
+							JsonObject eobj=el.getAsJsonObject();
+							MastodonDetailedErrorResponse.FieldError fe=new MastodonDetailedErrorResponse.FieldError();
+							fe.description=eobj.get("description").getAsString();
+							fe.error=eobj.get("error").getAsString();
+							fieldErrors.add(fe);
 						}
+						details.put(key, fieldErrors);
 					}
-				});
+					err.detailedErrors=details;
+					req.onError(err);
+				}else{
+					req.onError(error.get("error").getAsString(), response.code(), null);
+				}
+			}catch(JsonIOException|JsonSyntaxException x){
+				req.onError(response.code()+" "+response.message(), response.code(), x);
 			}catch(Exception x){
-				if(BuildConfig.DEBUG)
-					Log.w(TAG, logTag(session)+"error creating and sending http request", x);
-				req.onError(x.getLocalizedMessage(), 0, x);
+				req.onError("Error parsing an API error", response.code(), x);
 			}
-		}, 0);
+		}
 	}
 
 	public static void runInBackground(Runnable action){
-		thread.postRunnable(action, 0);
+		backgroundThread.postRunnable(action, 0);
+	}
+
+	private static Dispatcher makeDispatcher(){
+		// Per-host concurrency is handled by RequestScheduler, this only needs to stay out of its way
+		Dispatcher dispatcher=new Dispatcher();
+		dispatcher.setMaxRequests(64);
+		dispatcher.setMaxRequestsPerHost(16);
+		return dispatcher;
 	}
 
 	public static OkHttpClient getHttpClient(){
@@ -279,6 +409,7 @@ public class MastodonAPIController{
 
 	private void doAsyncRefreshPoll(String id, AsyncRefreshPollRecord r){
 		r.currentApiCall=new GetAsyncRefresh(id)
+				.setPriority(MastodonAPIRequest.Priority.POLLING)
 				.setCallback(new me.grishka.appkit.api.Callback<>(){
 					@Override
 					public void onSuccess(GetAsyncRefresh.Response result){
@@ -327,6 +458,56 @@ public class MastodonAPIController{
 		return r==null ? 0 : r.resultCount;
 	}
 
+	/**
+	 * An HTTP call shared by all identical GET requests submitted while it's in flight.
+	 * The call itself is only canceled once every request waiting for it has been canceled.
+	 */
+	static class InFlightCall{
+		private final String key;
+		private final Call call;
+		private final ArrayList<MastodonAPIRequest<?>> waiters=new ArrayList<>();
+		private MastodonAPIRequest.Priority priority;
+		private boolean completed;
+
+		private InFlightCall(String key, Call call, MastodonAPIRequest.Priority priority){
+			this.key=key;
+			this.call=call;
+			this.priority=priority;
+		}
+
+		// must be called with inFlightCalls locked
+		private void addWaiter(MastodonAPIRequest<?> req){
+			waiters.add(req);
+			req.inFlightCall=this;
+		}
+
+		void removeWaiter(MastodonAPIRequest<?> req){
+			synchronized(inFlightCalls){
+				waiters.remove(req);
+				if(waiters.isEmpty() && !completed){
+					completed=true;
+					inFlightCalls.remove(key);
+					call.cancel();
+				}
+			}
+		}
+
+		private List<MastodonAPIRequest<?>> complete(){
+			synchronized(inFlightCalls){
+				if(!completed){
+					completed=true;
+					inFlightCalls.remove(key);
+				}
+				ArrayList<MastodonAPIRequest<?>> result=new ArrayList<>(waiters);
+				for(MastodonAPIRequest<?> req:waiters){
+					req.inFlightCall=null;
+				}
+				waiters.clear();
+				return result;
+			}
+		}
+	}
+
 	private static class AsyncRefreshPollRecord{
 		public ArrayList<Consumer<AsyncRefresh>> callbacks=new ArrayList<>();
 		public int retryInterval;
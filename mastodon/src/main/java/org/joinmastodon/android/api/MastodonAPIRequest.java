@@ -43,11 +43,15 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 	Class<T> respClass;
 	TypeToken<T> respTypeToken;
 	Call okhttpCall;
+	MastodonAPIController.InFlightCall inFlightCall;
 	Token token;
 	boolean canceled;
 	Map<String, String> headers;
 	long timeout;
 	boolean cacheable;
+	Priority priority;
+	int rateLimitRetries;
+	String responseETag;
 	private ProgressDialog progressDialog;
 	protected boolean removeUnsupportedItems;
 
@@ -55,12 +59,14 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 		this.path=path;
 		this.method=method.toString();
 		this.respClass=respClass;
+		priority=method==HttpMethod.GET ? Priority.UI : Priority.USER_ACTION;
 	}
 
 	public MastodonAPIRequest(HttpMethod method, String path, TypeToken<T> respTypeToken){
 		this.path=path;
 		this.method=method.toString();
 		this.respTypeToken=respTypeToken;
+		priority=method==HttpMethod.GET ? Priority.UI : Priority.USER_ACTION;
 	}
 
 	@Override
@@ -71,6 +77,10 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 		if(okhttpCall!=null){
 			okhttpCall.cancel();
 		}
+		MastodonAPIController.InFlightCall sharedCall=inFlightCall;
+		if(sharedCall!=null){
+			sharedCall.removeWaiter(this);
+		}
 	}
 
 	@Override
@@ -165,6 +175,36 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 		return requestBody==null ? null : new JsonObjectRequestBody(requestBody);
 	}
 
+	/**
+	 * Set the scheduling priority of this request. By default, GET requests are {@link Priority#UI} and everything else is {@link Priority#USER_ACTION}.
+	 * Must be called before {@code exec}.
+	 */
+	public MastodonAPIRequest<T> setPriority(Priority priority){
+		this.priority=priority;
+		return this;
+	}
+
+	/**
+	 * Make this a conditional request. If the server responds with 304 Not Modified, the success callback is invoked with null.
+	 * @param etag the value of the ETag header from a previous response for the same resource, or null to make an unconditional request
+	 */
+	public MastodonAPIRequest<T> setIfNoneMatch(String etag){
+		if(etag!=null)
+			addHeader("If-None-Match", etag);
+		return this;
+	}
+
+	/**
+	 * @return the ETag header of the response, for use with {@link #setIfNoneMatch(String)}. Only valid in the success callback.
+	 */
+	public String getResponseETag(){
+		return responseETag;
+	}
+
+	boolean isConditional(){
+		return headers!=null && headers.containsKey("If-None-Match");
+	}
+
 	@Override
 	public MastodonAPIRequest<T> setCallback(Callback<T> callback){
 		super.setCallback(callback);
@@ -227,6 +267,28 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 		}
 	}
 
+	/**
+	 * Scheduling lanes, from the most important to the least.
+	 */
+	public enum Priority{
+		/**
+		 * Something the user explicitly did, like favoriting or posting. Always goes first.
+		 */
+		USER_ACTION,
+		/**
+		 * Content the user is looking at or waiting for.
+		 */
+		UI,
+		/**
+		 * Prefetching and refreshing of things that aren't immediately needed.
+		 */
+		BACKGROUND,
+		/**
+		 * Periodic polling.
+		 */
+		POLLING
+	}
+
 	public enum HttpMethod{
 		GET,
 		POST,
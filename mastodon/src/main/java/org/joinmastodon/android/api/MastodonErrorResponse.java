@@ -34,6 +34,8 @@ public class MastodonErrorResponse extends ErrorResponse{
 			this.messageResource=R.string.server_error;
 		}else if(httpStatus==404){
 			this.messageResource=R.string.not_found;
+		}else if(httpStatus==429){
+			this.messageResource=R.string.rate_limited;
 		}else{
 			this.messageResource=0;
 		}
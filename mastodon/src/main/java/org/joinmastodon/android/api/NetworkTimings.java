@@ -0,0 +1,286 @@
+package org.joinmastodon.android.api;
+
+import com.google.gson.JsonObject;
+
+import org.joinmastodon.android.api.gson.JsonObjectBuilder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Collects how long each phase of API requests takes, grouped by endpoint. Network phases come from an OkHttp
+ * {@link EventListener}, parsing and post-processing times are reported by {@link MastodonAPIController}.
+ * Only the most recent samples are kept for each endpoint and phase.
+ */
+public class NetworkTimings{
+	private static final int SAMPLES_PER_PHASE=128; // must be a power of 2
+	/**
+	 * Anything that isn't grouped by {@link #getPathTemplate(HttpUrl)} goes into one "other" endpoint beyond this
+	 */
+	private static final int MAX_ENDPOINTS=200;
+	private static final String OTHER_ENDPOINT="(other)";
+	/**
+	 * Path segments that are followed by an ID or a name, and the fixed endpoints that can be there instead
+	 */
+	private static final Map<String, Set<String>> COLLECTIONS=Map.ofEntries(
+			Map.entry("accounts", Set.of("verify_credentials", "update_credentials", "relationships", "familiar_followers", "search", "lookup")),
+			Map.entry("statuses", Set.of()),
+			Map.entry("scheduled_statuses", Set.of()),
+			Map.entry("lists", Set.of()),
+			Map.entry("list", Set.of()),
+			Map.entry("tags", Set.of()),
+			Map.entry("tag", Set.of()),
+			Map.entry("filters", Set.of("keywords", "statuses")),
+			Map.entry("keywords", Set.of()),
+			Map.entry("notifications", Set.of("clear", "policy", "requests", "unread_count")),
+			Map.entry("requests", Set.of("accept", "dismiss", "merged")),
+			Map.entry("polls", Set.of()),
+			Map.entry("media", Set.of()),
+			Map.entry("featured_tags", Set.of("suggestions")),
+			Map.entry("follow_requests", Set.of()),
+			Map.entry("suggestions", Set.of()),
+			Map.entry("conversations", Set.of()),
+			Map.entry("announcements", Set.of()),
+			Map.entry("reactions", Set.of())
+	);
+	private static final ConcurrentHashMap<String, Endpoint> endpoints=new ConcurrentHashMap<>();
+
+	public enum Phase{
+		DNS,
+		CONNECT,
+		TLS,
+		/**
+		 * From the start of sending the request to the start of receiving the response headers
+		 */
+		TIME_TO_FIRST_BYTE,
+		/**
+		 * From the end of the response headers to the body being fully consumed. Responses are parsed while they're
+		 * being downloaded, so this overlaps with {@link #PARSE}.
+		 */
+		BODY,
+		PARSE,
+		POSTPROCESS,
+		TOTAL
+	}
+
+	public static EventListener.Factory getEventListenerFactory(){
+		return call->new TimingEventListener();
+	}
+
+	public static void record(HttpUrl url, Phase phase, long nanos){
+		String path=getPathTemplate(url);
+		if(endpoints.size()>=MAX_ENDPOINTS && !endpoints.containsKey(path))
+			path=OTHER_ENDPOINT;
+		endpoints.computeIfAbsent(path, k->new Endpoint()).phases[phase.ordinal()].add(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	public static void reset(){
+		endpoints.clear();
+	}
+
+	public static List<EndpointSummary> getSummaries(){
+		ArrayList<EndpointSummary> result=new ArrayList<>();
+		for(Map.Entry<String, Endpoint> e:endpoints.entrySet()){
+			Endpoint endpoint=e.getValue();
+			PhaseSummary[] phases=new PhaseSummary[Phase.values().length];
+			for(int i=0;i<phases.length;i++){
+				phases[i]=endpoint.phases[i].summarize();
+			}
+			result.add(new EndpointSummary(e.getKey(), phases));
+		}
+		result.sort((a, b)->Long.compare(b.getPhase(Phase.TOTAL).count(), a.getPhase(Phase.TOTAL).count()));
+		return result;
+	}
+
+	public static JsonObject exportAsJson(){
+		JsonObjectBuilder root=new JsonObjectBuilder();
+		for(EndpointSummary s:getSummaries()){
+			JsonObjectBuilder endpoint=new JsonObjectBuilder();
+			for(Phase phase:Phase.values()){
+				PhaseSummary ps=s.getPhase(phase);
+				if(ps.count()==0)
+					continue;
+				endpoint.add(phase.name().toLowerCase(), new JsonObjectBuilder()
+						.add("count", ps.count())
+						.add("p50_us", ps.p50())
+						.add("p90_us", ps.p90())
+						.add("p99_us", ps.p99())
+						.add("max_us", ps.max()));
+			}
+			root.add(s.path(), endpoint);
+		}
+		return root.build();
+	}
+
+	/**
+	 * Replaces the variable parts of API paths (IDs, hashtags, names) with placeholders so that requests to the same endpoint are grouped together.
+	 */
+	static String getPathTemplate(HttpUrl url){
+		StringBuilder sb=new StringBuilder();
+		// The previous segment if it's a collection, so that this one may be an ID
+		String collection=null;
+		for(String segment:url.pathSegments()){
+			sb.append('/');
+			if(collection!=null && !segment.isEmpty() && !COLLECTIONS.get(collection).contains(segment)){
+				sb.append(collection.startsWith("tag") ? ":tag" : ":id");
+				// A placeholder is never a collection itself, e.g. /api/v1/statuses/:id/reblogged_by
+				collection=null;
+			}else if(!segment.isEmpty() && segment.chars().allMatch(Character::isDigit)){
+				sb.append(":id");
+				collection=null;
+			}else{
+				sb.append(segment);
+				collection=COLLECTIONS.containsKey(segment) ? segment : null;
+			}
+		}
+		return sb.toString();
+	}
+
+	public record EndpointSummary(String path, PhaseSummary[] phases){
+		public PhaseSummary getPhase(Phase phase){
+			return phases[phase.ordinal()];
+		}
+	}
+
+	/**
+	 * All times are in microseconds. {@code count} is the total number of samples ever recorded, while the percentiles are only over the recent ones.
+	 */
+	public record PhaseSummary(long count, long p50, long p90, long p99, long max){}
+
+	private static class Endpoint{
+		private final RollingSamples[] phases=new RollingSamples[Phase.values().length];
+
+		private Endpoint(){
+			for(int i=0;i<phases.length;i++){
+				phases[i]=new RollingSamples();
+			}
+		}
+	}
+
+	/**
+	 * A ring buffer of the most recent samples. Writers never block each other or the readers. A reader racing with
+	 * writers may see a slightly mixed set of old and new samples, which is fine for statistics.
+	 */
+	private static class RollingSamples{
+		private final AtomicLongArray samples=new AtomicLongArray(SAMPLES_PER_PHASE);
+		private final AtomicInteger next=new AtomicInteger();
+		private final AtomicLong totalCount=new AtomicLong();
+
+		public void add(long value){
+			samples.set(next.getAndIncrement() & (SAMPLES_PER_PHASE-1), value);
+			totalCount.incrementAndGet();
+		}
+
+		public PhaseSummary summarize(){
+			long count=totalCount.get();
+			int n=(int)Math.min(count, SAMPLES_PER_PHASE);
+			if(n==0)
+				return new PhaseSummary(0, 0, 0, 0, 0);
+			long[] values=new long[n];
+			for(int i=0;i<n;i++){
+				values[i]=samples.get(i);
+			}
+			Arrays.sort(values);
+			return new PhaseSummary(count, percentile(values, 50), percentile(values, 90), percentile(values, 99), values[n-1]);
+		}
+
+		private static long percentile(long[] sorted, int p){
+			return sorted[Math.min(sorted.length-1, sorted.length*p/100)];
+		}
+	}
+
+	private static class TimingEventListener extends EventListener{
+		private long callStart, dnsStart, connectStart, secureConnectStart, requestStart, responseHeadersEnd;
+
+		@Override
+		public void callStart(@NonNull Call call){
+			callStart=System.nanoTime();
+		}
+
+		@Override
+		public void dnsStart(@NonNull Call call, @NonNull String domainName){
+			dnsStart=System.nanoTime();
+		}
+
+		@Override
+		public void dnsEnd(@NonNull Call call, @NonNull String domainName, @NonNull List<InetAddress> inetAddressList){
+			record(call.request().url(), Phase.DNS, System.nanoTime()-dnsStart);
+		}
+
+		@Override
+		public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy){
+			connectStart=System.nanoTime();
+			secureConnectStart=0;
+		}
+
+		@Override
+		public void secureConnectStart(@NonNull Call call){
+			secureConnectStart=System.nanoTime();
+		}
+
+		@Override
+		public void secureConnectEnd(@NonNull Call call, @Nullable Handshake handshake){
+			record(call.request().url(), Phase.TLS, System.nanoTime()-secureConnectStart);
+		}
+
+		@Override
+		public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol){
+			// TCP only, the TLS handshake is recorded separately
+			long end=secureConnectStart!=0 ? secureConnectStart : System.nanoTime();
+			record(call.request().url(), Phase.CONNECT, end-connectStart);
+		}
+
+		@Override
+		public void requestHeadersStart(@NonNull Call call){
+			requestStart=System.nanoTime();
+		}
+
+		@Override
+		public void responseHeadersStart(@NonNull Call call){
+			if(requestStart!=0)
+				record(call.request().url(), Phase.TIME_TO_FIRST_BYTE, System.nanoTime()-requestStart);
+		}
+
+		@Override
+		public void responseHeadersEnd(@NonNull Call call, @NonNull Response response){
+			responseHeadersEnd=System.nanoTime();
+		}
+
+		@Override
+		public void responseBodyEnd(@NonNull Call call, long byteCount){
+			if(responseHeadersEnd!=0)
+				record(call.request().url(), Phase.BODY, System.nanoTime()-responseHeadersEnd);
+		}
+
+		@Override
+		public void callEnd(@NonNull Call call){
+			record(call.request().url(), Phase.TOTAL, System.nanoTime()-callStart);
+		}
+
+		@Override
+		public void callFailed(@NonNull Call call, @NonNull IOException ioe){
+			record(call.request().url(), Phase.TOTAL, System.nanoTime()-callStart);
+		}
+	}
+}
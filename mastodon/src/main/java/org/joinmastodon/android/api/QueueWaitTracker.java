@@ -0,0 +1,45 @@
+package org.joinmastodon.android.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.joinmastodon.android.BuildConfig;
+
+/**
+ * Measures how long tasks wait in a queue before they start running, which is how long the UI waits on
+ * the database on top of the query itself
+ */
+class QueueWaitTracker{
+	private static final String TAG="QueueWaitTracker";
+	private static final long SLOW_WAIT=100;
+
+	private final String name;
+	private long tasks, totalWait, maxWait;
+
+	QueueWaitTracker(String name){
+		this.name=name;
+	}
+
+	/**
+	 * @return a runnable that records the wait when it starts and then runs r. Must be queued right away.
+	 */
+	Runnable track(Runnable r){
+		long queuedAt=SystemClock.elapsedRealtime();
+		return ()->{
+			record(SystemClock.elapsedRealtime()-queuedAt);
+			r.run();
+		};
+	}
+
+	private synchronized void record(long wait){
+		tasks++;
+		totalWait+=wait;
+		maxWait=Math.max(maxWait, wait);
+		if(BuildConfig.DEBUG && wait>=SLOW_WAIT)
+			Log.d(TAG, name+": task waited "+wait+"ms in the queue");
+	}
+
+	synchronized CacheController.QueueStats getStats(){
+		return new CacheController.QueueStats(name, tasks, tasks==0 ? 0 : totalWait/tasks, maxWait);
+	}
+}
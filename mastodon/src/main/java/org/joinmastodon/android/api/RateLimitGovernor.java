@@ -0,0 +1,164 @@
+package org.joinmastodon.android.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.joinmastodon.android.BuildConfig;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Tracks the rate limit budgets that the server reports in {@code X-RateLimit-*} response headers.
+ * Mastodon limits media uploads and status deletions separately from everything else, so budgets are kept
+ * per account and per endpoint family. Low-priority requests are held back when a budget runs low so that
+ * whatever's left is spent on things the user actually asked for.
+ */
+class RateLimitGovernor{
+	private static final String TAG="RateLimitGovernor";
+	/**
+	 * Background and polling requests are held back once fewer than this fraction of the limit remains.
+	 */
+	private static final float BACKGROUND_RESERVE_FRACTION=0.1f;
+	private static final int MIN_BACKGROUND_RESERVE=5;
+	/**
+	 * Used for 429 responses that don't say when the limit resets.
+	 */
+	private static final long DEFAULT_RETRY_DELAY=30_000;
+	public static final int MAX_RETRIES=2;
+
+	private final HashMap<String, Budget> budgets=new HashMap<>();
+
+	/**
+	 * Takes one request out of the budget, unless it should wait.
+	 * @return 0 if the request can be sent now, or how long to wait before trying again, in milliseconds. If that's
+	 * longer than {@link #getMaxDeferDelay(MastodonAPIRequest.Priority)}, the request should fail instead.
+	 */
+	public synchronized long acquire(String accountKey, Request req, MastodonAPIRequest.Priority priority){
+		Budget budget=budgets.get(getBudgetKey(accountKey, req));
+		if(budget==null)
+			return 0;
+		long now=SystemClock.elapsedRealtime();
+		if(now>=budget.resetAt){
+			// The server will have started a new period by now. Whatever it says in the next response is what we go by.
+			budgets.remove(getBudgetKey(accountKey, req));
+			return 0;
+		}
+		int reserve=switch(priority){
+			case USER_ACTION -> Integer.MIN_VALUE;
+			case UI -> 0;
+			case BACKGROUND, POLLING -> Math.max(MIN_BACKGROUND_RESERVE, Math.round(budget.limit*BACKGROUND_RESERVE_FRACTION));
+		};
+		if(budget.remaining<=reserve){
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "Deferring "+priority+" request "+req.url().encodedPath()+" for "+(budget.resetAt-now)+" ms, "+budget.remaining+"/"+budget.limit+" remaining");
+			return budget.resetAt-now;
+		}
+		budget.remaining--;
+		return 0;
+	}
+
+	public synchronized void onResponse(String accountKey, Request req, Response resp){
+		String limit=resp.header("X-RateLimit-Limit");
+		String remaining=resp.header("X-RateLimit-Remaining");
+		String reset=resp.header("X-RateLimit-Reset");
+		if(limit==null || remaining==null || reset==null)
+			return;
+		long timeUntilReset=getTimeUntilReset(resp, reset);
+		if(timeUntilReset<0)
+			return;
+		try{
+			Budget budget=new Budget();
+			budget.limit=Integer.parseInt(limit);
+			budget.remaining=Integer.parseInt(remaining);
+			budget.resetAt=SystemClock.elapsedRealtime()+timeUntilReset;
+			budgets.put(getBudgetKey(accountKey, req), budget);
+		}catch(NumberFormatException x){
+			if(BuildConfig.DEBUG)
+				Log.w(TAG, "Invalid rate limit headers: "+limit+", "+remaining, x);
+		}
+	}
+
+	/**
+	 * @return how long to wait before retrying a request that got a 429, in milliseconds
+	 */
+	public synchronized long getRetryDelay(String accountKey, Request req, Response resp){
+		long delay=DEFAULT_RETRY_DELAY;
+		String retryAfter=resp.header("Retry-After");
+		String reset=resp.header("X-RateLimit-Reset");
+		if(retryAfter!=null){
+			try{
+				delay=Long.parseLong(retryAfter)*1000L;
+			}catch(NumberFormatException ignore){}
+		}else if(reset!=null){
+			long timeUntilReset=getTimeUntilReset(resp, reset);
+			if(timeUntilReset>=0)
+				delay=timeUntilReset;
+		}
+		Budget budget=budgets.get(getBudgetKey(accountKey, req));
+		if(budget!=null)
+			budget.remaining=0;
+		// Requests that were deferred together shouldn't all come back at the exact same moment
+		return delay+ThreadLocalRandom.current().nextLong(1000);
+	}
+
+	/**
+	 * @return the longest a request of this priority may be held back by {@link #acquire(String, Request, MastodonAPIRequest.Priority)}
+	 * before we'd rather show the error. Background and polling requests wait for the reset however long it takes.
+	 */
+	public static long getMaxDeferDelay(MastodonAPIRequest.Priority priority){
+		return switch(priority){
+			case USER_ACTION, UI -> getMaxRetryDelay(priority);
+			case BACKGROUND, POLLING -> Long.MAX_VALUE;
+		};
+	}
+
+	/**
+	 * @return the longest a request of this priority may be delayed by a retry before we'd rather show the error
+	 */
+	public static long getMaxRetryDelay(MastodonAPIRequest.Priority priority){
+		return switch(priority){
+			case USER_ACTION, UI -> 30_000;
+			case BACKGROUND, POLLING -> 15*60_000;
+		};
+	}
+
+	private static long getTimeUntilReset(Response resp, String reset){
+		long resetTime;
+		try{
+			resetTime=Instant.parse(reset).toEpochMilli();
+		}catch(DateTimeParseException x){
+			if(BuildConfig.DEBUG)
+				Log.w(TAG, "Invalid X-RateLimit-Reset header: "+reset);
+			return -1;
+		}
+		// Measure against the server's clock so the device's clock being off doesn't matter
+		Date serverDate=resp.headers().getDate("Date");
+		long serverNow=serverDate!=null ? serverDate.getTime() : System.currentTimeMillis();
+		return Math.max(0, resetTime-serverNow);
+	}
+
+	private static String getBudgetKey(String accountKey, Request req){
+		String path=req.url().encodedPath();
+		String family;
+		if("POST".equals(req.method()) && (path.startsWith("/api/v1/media") || path.startsWith("/api/v2/media")))
+			family="media";
+		else if("DELETE".equals(req.method()) && path.startsWith("/api/v1/statuses/"))
+			family="delete";
+		else
+			family="default";
+		return accountKey+"@"+req.url().host()+"/"+family;
+	}
+
+	private static class Budget{
+		public int limit;
+		public int remaining;
+		public long resetAt;
+	}
+}
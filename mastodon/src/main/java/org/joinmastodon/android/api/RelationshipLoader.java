@@ -0,0 +1,72 @@
+package org.joinmastodon.android.api;
+
+import android.os.SystemClock;
+
+import org.joinmastodon.android.api.requests.accounts.GetAccountRelationships;
+import org.joinmastodon.android.model.Relationship;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Loads relationships for one account. Requests made by all fragments within a short window are merged into as few
+ * API calls as possible, and recently loaded relationships are served from memory.
+ * All methods must be called on the main thread.
+ */
+public class RelationshipLoader extends BatchingLoader<Relationship>{
+	/**
+	 * Mastodon ignores any IDs beyond this in a single /accounts/relationships request
+	 */
+	private static final int MAX_BATCH_SIZE=40;
+	private static final long BATCH_DELAY=100;
+	private static final long CACHE_TTL=2*60_000;
+
+	private final HashMap<String, CachedRelationship> cache=new HashMap<>();
+
+	public RelationshipLoader(String accountID){
+		super(accountID, MAX_BATCH_SIZE, BATCH_DELAY);
+	}
+
+	/**
+	 * @return the cached relationship with this account, if it's recent enough
+	 */
+	public Relationship get(String id){
+		return getCached(id);
+	}
+
+	/**
+	 * Update the cache with a relationship that was returned by some other API call, e.g. following someone
+	 */
+	public void put(Relationship relationship){
+		putCached(relationship);
+	}
+
+	public void clearCache(){
+		cache.clear();
+	}
+
+	@Override
+	protected Relationship getCached(String id){
+		CachedRelationship cached=cache.get(id);
+		if(cached==null || SystemClock.elapsedRealtime()-cached.loadedAt>=CACHE_TTL)
+			return null;
+		return cached.relationship;
+	}
+
+	@Override
+	protected void putCached(Relationship obj){
+		cache.put(obj.id, new CachedRelationship(obj, SystemClock.elapsedRealtime()));
+	}
+
+	@Override
+	protected String getID(Relationship obj){
+		return obj.id;
+	}
+
+	@Override
+	protected MastodonAPIRequest<List<Relationship>> createRequest(List<String> ids){
+		return new GetAccountRelationships(ids);
+	}
+
+	private record CachedRelationship(Relationship relationship, long loadedAt){}
+}
@@ -0,0 +1,136 @@
+package org.joinmastodon.android.api;
+
+import android.util.Log;
+
+import org.joinmastodon.android.BuildConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import androidx.annotation.NonNull;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * Decides when HTTP calls actually start. Every host gets a set of lanes, one per {@link MastodonAPIRequest.Priority},
+ * each with its own concurrency cap, plus a cap on the total number of calls to that host. Pending calls start in
+ * priority order, so a user action submitted last still goes out before queued background work. Background and polling
+ * calls are deferred for as long as anything more important is waiting for the same host.
+ */
+class RequestScheduler{
+	private static final String TAG="RequestScheduler";
+	private static final int MAX_CALLS_PER_HOST=6;
+	private static final int[] MAX_CALLS_PER_LANE={
+			4, // USER_ACTION
+			4, // UI
+			2, // BACKGROUND
+			1  // POLLING
+	};
+
+	private final HashMap<String, HostState> hosts=new HashMap<>();
+	private long nextSequence;
+
+	public synchronized void enqueue(String host, MastodonAPIRequest.Priority priority, Call call, Callback callback){
+		HostState state=hosts.computeIfAbsent(host, h->new HostState());
+		state.pending.add(new PendingCall(priority, nextSequence++, call, callback));
+		dispatch(host, state);
+	}
+
+	/**
+	 * Moves a call that hasn't started yet into a higher-priority lane. Does nothing if it's already running.
+	 */
+	public synchronized void promote(String host, Call call, MastodonAPIRequest.Priority priority){
+		HostState state=hosts.get(host);
+		if(state==null)
+			return;
+		for(PendingCall pc:state.pending){
+			if(pc.call==call){
+				if(pc.priority.ordinal()>priority.ordinal()){
+					state.pending.remove(pc);
+					state.pending.add(new PendingCall(priority, pc.sequence, pc.call, pc.callback));
+					dispatch(host, state);
+				}
+				return;
+			}
+		}
+	}
+
+	private void dispatch(String host, HostState state){
+		ArrayList<PendingCall> toStart=new ArrayList<>();
+		boolean importantCallsWaiting=false;
+		Iterator<PendingCall> itr=state.pending.iterator();
+		while(itr.hasNext()){
+			PendingCall pc=itr.next();
+			int lane=pc.priority.ordinal();
+			if(pc.call.isCanceled()){
+				// Let OkHttp fail it right away so the caller gets the usual "Canceled" error path
+				itr.remove();
+				toStart.add(pc);
+				state.running[lane]++;
+				continue;
+			}
+			boolean isBackground=pc.priority.ordinal()>=MastodonAPIRequest.Priority.BACKGROUND.ordinal();
+			if(isBackground && importantCallsWaiting)
+				break;
+			if(state.running[lane]>=MAX_CALLS_PER_LANE[lane] || (pc.priority!=MastodonAPIRequest.Priority.USER_ACTION && state.getTotalRunning()>=MAX_CALLS_PER_HOST)){
+				if(!isBackground)
+					importantCallsWaiting=true;
+				continue;
+			}
+			itr.remove();
+			state.running[lane]++;
+			toStart.add(pc);
+		}
+		for(PendingCall pc:toStart){
+			if(BuildConfig.DEBUG)
+				Log.v(TAG, "Starting "+pc.priority+" call to "+host+", "+state.pending.size()+" still pending");
+			pc.call.enqueue(new Callback(){
+				@Override
+				public void onFailure(@NonNull Call call, @NonNull IOException e){
+					try{
+						pc.callback.onFailure(call, e);
+					}finally{
+						onCallFinished(host, pc);
+					}
+				}
+
+				@Override
+				public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException{
+					try{
+						pc.callback.onResponse(call, response);
+					}finally{
+						onCallFinished(host, pc);
+					}
+				}
+			});
+		}
+	}
+
+	private synchronized void onCallFinished(String host, PendingCall pc){
+		HostState state=hosts.get(host);
+		state.running[pc.priority.ordinal()]--;
+		if(state.pending.isEmpty() && state.getTotalRunning()==0)
+			hosts.remove(host);
+		else
+			dispatch(host, state);
+	}
+
+	private static class HostState{
+		public final int[] running=new int[MAX_CALLS_PER_LANE.length];
+		public final TreeSet<PendingCall> pending=new TreeSet<>(Comparator.comparingInt((PendingCall pc)->pc.priority.ordinal()).thenComparingLong(pc->pc.sequence));
+
+		public int getTotalRunning(){
+			int total=0;
+			for(int r:running)
+				total+=r;
+			return total;
+		}
+	}
+
+	private record PendingCall(MastodonAPIRequest.Priority priority, long sequence, Call call, Callback callback){}
+}
@@ -0,0 +1,58 @@
+package org.joinmastodon.android.api;
+
+import android.util.LruCache;
+
+import org.joinmastodon.android.api.requests.statuses.GetStatusesByIDs;
+import org.joinmastodon.android.model.Status;
+
+import java.util.List;
+
+/**
+ * Loads statuses that are referenced by ID but weren't included in a response, like nested quotes, for one account.
+ * Statuses that were recently seen anywhere in the app are served from memory.
+ * All methods must be called on the main thread.
+ */
+public class StatusHydrator extends BatchingLoader<Status>{
+	/**
+	 * Mastodon ignores any IDs beyond this in a single /statuses request
+	 */
+	private static final int MAX_BATCH_SIZE=20;
+	private static final long BATCH_DELAY=50;
+
+	private final LruCache<String, Status> recentStatuses=new LruCache<>(500);
+
+	public StatusHydrator(String accountID){
+		super(accountID, MAX_BATCH_SIZE, BATCH_DELAY);
+	}
+
+	/**
+	 * Make statuses that were loaded some other way available to everyone who needs them
+	 */
+	public void remember(Status status){
+		recentStatuses.put(status.id, status);
+	}
+
+	public void forget(String id){
+		recentStatuses.remove(id);
+	}
+
+	@Override
+	protected Status getCached(String id){
+		return recentStatuses.get(id);
+	}
+
+	@Override
+	protected void putCached(Status obj){
+		recentStatuses.put(obj.id, obj);
+	}
+
+	@Override
+	protected String getID(Status obj){
+		return obj.id;
+	}
+
+	@Override
+	protected MastodonAPIRequest<List<Status>> createRequest(List<String> ids){
+		return new GetStatusesByIDs(ids);
+	}
+}
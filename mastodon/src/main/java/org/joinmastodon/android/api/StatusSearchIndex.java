@@ -0,0 +1,126 @@
+package org.joinmastodon.android.api;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+
+import org.joinmastodon.android.model.Account;
+import org.joinmastodon.android.model.Hashtag;
+import org.joinmastodon.android.model.Status;
+import org.joinmastodon.android.ui.text.HtmlParser;
+
+import java.util.ArrayList;
+
+/**
+ * Full-text index of the cached statuses, so that they can be searched without the server. Each row's docid is the
+ * rowid of its status in the `statuses` table, and a trigger removes it when the status is deleted, be it by
+ * {@link CacheController#deleteStatus(String)}, eviction or being replaced by a newer copy. Reblogs aren't indexed
+ * themselves, the statuses they reblog are.
+ */
+class StatusSearchIndex{
+	private static final String TAG="StatusSearchIndex";
+	static final String INSERT_SQL="INSERT INTO `statuses_fts` (`docid`, `text`, `spoiler`, `handles`, `hashtags`) VALUES (?, ?, ?, ?, ?)";
+
+	/**
+	 * The trigger relies on recursive triggers being enabled, otherwise it doesn't fire for rows deleted by INSERT OR REPLACE
+	 */
+	static void createTables(SQLiteDatabase db){
+		try{
+			db.execSQL("CREATE VIRTUAL TABLE `statuses_fts` USING fts4(`text`, `spoiler`, `handles`, `hashtags`, tokenize=unicode61)");
+		}catch(SQLiteException x){
+			// Some SQLite builds don't have it, the default tokenizer only folds the case of ASCII letters but works otherwise
+			Log.w(TAG, x);
+			db.execSQL("CREATE VIRTUAL TABLE `statuses_fts` USING fts4(`text`, `spoiler`, `handles`, `hashtags`)");
+		}
+		db.execSQL("""
+					CREATE TRIGGER `statuses_fts_delete` AFTER DELETE ON `statuses` BEGIN
+						DELETE FROM `statuses_fts` WHERE `docid`=old.rowid;
+					END""");
+	}
+
+	/**
+	 * Indexes the statuses that were cached before the index existed
+	 */
+	static void indexExisting(SQLiteDatabase db){
+		ArrayList<Long> rowids=new ArrayList<>();
+		ArrayList<Status> statuses=new ArrayList<>();
+		try(Cursor cursor=db.rawQuery("SELECT `s`.rowid, `s`.`json`, `a`.`json` FROM `statuses` AS `s` JOIN `accounts` AS `a` ON `a`.`id`=`s`.`account_id` WHERE `s`.`reblog_id` IS NULL", null)){
+			while(cursor.moveToNext()){
+				try{
+					Status s=CacheController.readEntity(cursor, 1, Status.class);
+					s.account=CacheController.readEntity(cursor, 2, Account.class);
+					rowids.add(cursor.getLong(0));
+					statuses.add(s);
+				}catch(JsonParseException x){
+					Log.w(TAG, x);
+				}
+			}
+		}
+		try(SQLiteStatement stmt=db.compileStatement(INSERT_SQL)){
+			for(int i=0;i<rowids.size();i++){
+				insert(stmt, rowids.get(i), statuses.get(i));
+			}
+		}
+	}
+
+	/**
+	 * @param stmt compiled from {@link #INSERT_SQL}
+	 * @param rowid the rowid of the status in the `statuses` table
+	 * @param s must not be a reblog, and must have its author set
+	 */
+	static void insert(SQLiteStatement stmt, long rowid, Status s){
+		insert(stmt, rowid, Entry.of(s));
+	}
+
+	static void insert(SQLiteStatement stmt, long rowid, Entry entry){
+		stmt.bindLong(1, rowid);
+		stmt.bindString(2, entry.content()==null ? "" : HtmlParser.strip(entry.content()));
+		stmt.bindString(3, entry.spoilerText()==null ? "" : entry.spoilerText());
+		stmt.bindString(4, entry.handles());
+		stmt.bindString(5, entry.hashtags());
+		stmt.executeInsert();
+	}
+
+	/**
+	 * What's indexed of a status, taken from it when its write is buffered. The HTML is only stripped when it's written.
+	 */
+	record Entry(String content, String spoilerText, String handles, String hashtags){
+		/**
+		 * @param s must not be a reblog, and must have its author set
+		 */
+		static Entry of(Status s){
+			StringBuilder hashtags=new StringBuilder();
+			if(s.tags!=null){
+				for(Hashtag tag:s.tags){
+					if(hashtags.length()>0)
+						hashtags.append(' ');
+					hashtags.append(tag.name);
+				}
+			}
+			return new Entry(s.content, s.spoilerText, s.account.acct+" "+s.account.username, hashtags.toString());
+		}
+	}
+
+	/**
+	 * Turns what the user typed into an FTS query that matches statuses containing all of the words, with the last
+	 * word of each treated as a prefix. "#tag" and "@user@domain" work too, the tokenizer ignores the punctuation.
+	 * @return null if there's nothing to search for
+	 */
+	static String makeMatchQuery(String query){
+		StringBuilder sb=new StringBuilder();
+		for(String term:query.trim().split("\\s+")){
+			// Quotes would end the phrase, everything else is handled by the tokenizer inside a phrase
+			term=term.replace("\"", "");
+			if(term.codePoints().noneMatch(Character::isLetterOrDigit))
+				continue;
+			if(sb.length()>0)
+				sb.append(' ');
+			sb.append('"').append(term).append("\"*");
+		}
+		return sb.length()==0 ? null : sb.toString();
+	}
+}
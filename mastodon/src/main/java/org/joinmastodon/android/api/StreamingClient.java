@@ -0,0 +1,331 @@
+package org.joinmastodon.android.api;
+
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.joinmastodon.android.BuildConfig;
+import org.joinmastodon.android.E;
+import org.joinmastodon.android.api.gson.JsonObjectBuilder;
+import org.joinmastodon.android.api.session.AccountSession;
+import org.joinmastodon.android.api.session.AccountSessionManager;
+import org.joinmastodon.android.events.StatusDeletedEvent;
+import org.joinmastodon.android.events.StatusUpdatedEvent;
+import org.joinmastodon.android.events.StreamingNotificationEvent;
+import org.joinmastodon.android.events.StreamingStateChangedEvent;
+import org.joinmastodon.android.events.StreamingUpdateEvent;
+import org.joinmastodon.android.model.Notification;
+import org.joinmastodon.android.model.Status;
+import org.joinmastodon.android.ui.utils.UiUtils;
+
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Maintains a single multiplexed WebSocket connection to the Mastodon streaming API for one account.
+ * Fragments subscribe to the streams they display and receive updates through the event bus.
+ * All public methods must be called on the main thread.
+ */
+public class StreamingClient{
+	private static final String TAG="StreamingClient";
+	private static final long MIN_RECONNECT_DELAY=1000;
+	private static final long MAX_RECONNECT_DELAY=60_000;
+	private static final long IDLE_DISCONNECT_DELAY=5000;
+
+	private static OkHttpClient webSocketClient;
+
+	private final String accountID;
+	private final HashMap<Stream, Integer> subscriptions=new HashMap<>();
+	private final Runnable reconnectRunnable=this::connect;
+	private final Runnable idleDisconnectRunnable=this::disconnect;
+	private volatile WebSocket socket;
+	private volatile boolean connected;
+	private boolean unavailable;
+	private int reconnectAttempts;
+
+	public StreamingClient(String accountID){
+		this.accountID=accountID;
+	}
+
+	public void subscribe(Stream stream){
+		UiUtils.removeCallbacks(idleDisconnectRunnable);
+		Integer count=subscriptions.get(stream);
+		subscriptions.put(stream, count==null ? 1 : count+1);
+		if(count!=null)
+			return;
+		if(socket==null){
+			if(subscriptions.size()==1)
+				unavailable=false;
+			connect();
+		}else if(connected){
+			sendSubscriptionMessage("subscribe", stream);
+		}
+	}
+
+	public void unsubscribe(Stream stream){
+		Integer count=subscriptions.get(stream);
+		if(count==null)
+			return;
+		if(count>1){
+			subscriptions.put(stream, count-1);
+			return;
+		}
+		subscriptions.remove(stream);
+		if(connected)
+			sendSubscriptionMessage("unsubscribe", stream);
+		if(subscriptions.isEmpty())
+			UiUtils.runOnUiThread(idleDisconnectRunnable, IDLE_DISCONNECT_DELAY);
+	}
+
+	/**
+	 * @return true if the connection is open and the server has been asked to deliver events for this stream
+	 */
+	public boolean isConnected(Stream stream){
+		return connected && subscriptions.containsKey(stream);
+	}
+
+	public void disconnect(){
+		UiUtils.removeCallbacks(reconnectRunnable);
+		UiUtils.removeCallbacks(idleDisconnectRunnable);
+		reconnectAttempts=0;
+		if(socket!=null){
+			socket.close(1000, null);
+			socket=null;
+		}
+		setConnected(false);
+	}
+
+	private void connect(){
+		if(socket!=null || subscriptions.isEmpty() || unavailable)
+			return;
+		AccountSession session=AccountSessionManager.getInstance().tryGetAccount(accountID);
+		if(session==null)
+			return;
+		String streamingURL=session.getInstanceInfo().getStreamingURL();
+		if(TextUtils.isEmpty(streamingURL)){
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "["+accountID+"] Server doesn't advertise a streaming endpoint");
+			unavailable=true;
+			return;
+		}
+		Uri uri=Uri.parse(streamingURL).buildUpon().path("/api/v1/streaming").build();
+		Request req=new Request.Builder()
+				.url(uri.toString())
+				.header("User-Agent", "MastodonAndroid/"+BuildConfig.VERSION_NAME)
+				.header("Authorization", "Bearer "+session.token.accessToken)
+				.build();
+		if(BuildConfig.DEBUG)
+			Log.d(TAG, "["+accountID+"] Connecting to "+uri);
+		socket=getWebSocketClient().newWebSocket(req, new Listener());
+	}
+
+	private void scheduleReconnect(){
+		if(subscriptions.isEmpty() || unavailable)
+			return;
+		long delay=Math.min(MAX_RECONNECT_DELAY, MIN_RECONNECT_DELAY << Math.min(reconnectAttempts, 6));
+		delay+=ThreadLocalRandom.current().nextLong(delay/2+1);
+		reconnectAttempts++;
+		if(BuildConfig.DEBUG)
+			Log.d(TAG, "["+accountID+"] Reconnecting in "+delay+" ms");
+		UiUtils.runOnUiThread(reconnectRunnable, delay);
+	}
+
+	private void setConnected(boolean connected){
+		if(this.connected==connected)
+			return;
+		this.connected=connected;
+		E.post(new StreamingStateChangedEvent(accountID, connected));
+	}
+
+	private void sendSubscriptionMessage(String type, Stream stream){
+		JsonObjectBuilder msg=new JsonObjectBuilder()
+				.add("type", type)
+				.add("stream", stream.name());
+		if(stream.param()!=null)
+			msg.add(stream.paramName(), stream.param());
+		socket.send(msg.build().toString());
+	}
+
+	/**
+	 * Parses the message on the socket thread, then hands it to the main thread, where the session and everything in it live
+	 */
+	private void handleMessage(WebSocket webSocket, String text){
+		JsonObject obj=JsonParser.parseString(text).getAsJsonObject();
+		if(!obj.has("event") || !obj.has("payload"))
+			return;
+		String event=obj.get("event").getAsString();
+		String payload=obj.get("payload").getAsString();
+		Stream stream=Stream.fromJson(obj.get("stream"));
+		Consumer<AccountSession> handler;
+		try{
+			handler=switch(event){
+				case "update" -> {
+					Status status=MastodonAPIController.gson.fromJson(payload, Status.class);
+					status.postprocess();
+					yield session->E.post(new StreamingUpdateEvent(accountID, stream, status));
+				}
+				case "status.update" -> {
+					Status status=MastodonAPIController.gson.fromJson(payload, Status.class);
+					status.postprocess();
+					yield session->{
+						session.getStatusHydrator().remember(status);
+						E.post(new StatusUpdatedEvent(status));
+					};
+				}
+				case "delete" -> session->{
+					session.getCacheController().deleteStatus(payload);
+					session.getStatusHydrator().forget(payload);
+					E.post(new StatusDeletedEvent(payload, accountID));
+				};
+				case "notification" -> {
+					Notification notification=MastodonAPIController.gson.fromJson(payload, Notification.class);
+					notification.postprocess();
+					yield session->E.post(new StreamingNotificationEvent(accountID, notification));
+				}
+				default -> null;
+			};
+		}catch(ObjectValidationException x){
+			Log.w(TAG, "["+accountID+"] Invalid object in "+event+" event", x);
+			return;
+		}
+		if(handler==null)
+			return;
+		UiUtils.runOnUiThread(()->{
+			// Disconnected, or the account was removed, while this message was on its way
+			AccountSession session=AccountSessionManager.getInstance().tryGetAccount(accountID);
+			if(webSocket!=socket || session==null)
+				return;
+			handler.accept(session);
+		});
+	}
+
+	private static synchronized OkHttpClient getWebSocketClient(){
+		if(webSocketClient==null){
+			webSocketClient=MastodonAPIController.getHttpClient().newBuilder()
+					.readTimeout(0, TimeUnit.MILLISECONDS)
+					.pingInterval(30, TimeUnit.SECONDS)
+					.eventListener(EventListener.NONE)
+					.build();
+		}
+		return webSocketClient;
+	}
+
+	private class Listener extends WebSocketListener{
+		@Override
+		public void onOpen(@NonNull WebSocket webSocket, @NonNull Response response){
+			UiUtils.runOnUiThread(()->{
+				if(webSocket!=socket)
+					return;
+				if(BuildConfig.DEBUG)
+					Log.d(TAG, "["+accountID+"] Connected, subscribing to "+subscriptions.keySet());
+				reconnectAttempts=0;
+				for(Stream stream:subscriptions.keySet()){
+					sendSubscriptionMessage("subscribe", stream);
+				}
+				setConnected(true);
+			});
+		}
+
+		@Override
+		public void onMessage(@NonNull WebSocket webSocket, @NonNull String text){
+			if(webSocket!=socket)
+				return;
+			try{
+				handleMessage(webSocket, text);
+			}catch(Exception x){
+				Log.w(TAG, "["+accountID+"] Error processing streaming message", x);
+			}
+		}
+
+		@Override
+		public void onClosing(@NonNull WebSocket webSocket, int code, @NonNull String reason){
+			webSocket.close(1000, null);
+		}
+
+		@Override
+		public void onClosed(@NonNull WebSocket webSocket, int code, @NonNull String reason){
+			UiUtils.runOnUiThread(()->{
+				if(webSocket!=socket)
+					return;
+				socket=null;
+				setConnected(false);
+				scheduleReconnect();
+			});
+		}
+
+		@Override
+		public void onFailure(@NonNull WebSocket webSocket, @NonNull Throwable t, @Nullable Response response){
+			if(BuildConfig.DEBUG)
+				Log.w(TAG, "["+accountID+"] Streaming connection failed: "+response, t);
+			UiUtils.runOnUiThread(()->{
+				if(webSocket!=socket)
+					return;
+				socket=null;
+				setConnected(false);
+				// A client error during the handshake means the server doesn't do streaming (or not for us), no point in retrying
+				if(response!=null && response.code()>=400 && response.code()<500 && response.code()!=429){
+					unavailable=true;
+					return;
+				}
+				scheduleReconnect();
+			});
+		}
+	}
+
+	/**
+	 * A streaming API channel.
+	 * @param name the stream name as understood by the server, e.g. {@code user} or {@code public:local}
+	 * @param param the list ID for list streams, the tag for hashtag streams, or null
+	 */
+	public record Stream(String name, String param){
+		public static final Stream USER=new Stream("user", null);
+		public static final Stream LOCAL=new Stream("public:local", null);
+
+		public static Stream list(String id){
+			return new Stream("list", id);
+		}
+
+		public static Stream hashtag(String tag){
+			return new Stream("hashtag", tag.toLowerCase());
+		}
+
+		private String paramName(){
+			return "list".equals(name) ? "list" : "tag";
+		}
+
+		private static Stream fromJson(JsonElement el){
+			if(el==null || !el.isJsonArray())
+				return null;
+			JsonArray arr=el.getAsJsonArray();
+			if(arr.size()==0)
+				return null;
+			String name=arr.get(0).getAsString();
+			String param=arr.size()>1 ? arr.get(1).getAsString() : null;
+			if(param!=null && name.startsWith("hashtag"))
+				param=param.toLowerCase();
+			return new Stream(name, param);
+		}
+
+		@NonNull
+		@Override
+		public String toString(){
+			return param==null ? name : name+":"+param;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package org.joinmastodon.android.api;
+
+import org.joinmastodon.android.api.requests.accounts.GetAccountStatuses;
+import org.joinmastodon.android.api.requests.timelines.GetHashtagTimeline;
+import org.joinmastodon.android.api.requests.timelines.GetHomeTimeline;
+import org.joinmastodon.android.api.requests.timelines.GetListTimeline;
+import org.joinmastodon.android.api.requests.timelines.GetPublicTimeline;
+import org.joinmastodon.android.model.FilterContext;
+import org.joinmastodon.android.model.Status;
+
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Identifies a paginated timeline that {@link CacheController} can cache, and knows how to load it from the server.
+ * @param param the list ID, hashtag or account ID, depending on the type
+ * @param accountFilter only for account timelines
+ */
+public record TimelineKey(Type type, String param, GetAccountStatuses.Filter accountFilter){
+	public static final TimelineKey HOME=new TimelineKey(Type.HOME, null, null);
+	public static final TimelineKey LOCAL=new TimelineKey(Type.LOCAL, null, null);
+
+	public static TimelineKey list(String id){
+		return new TimelineKey(Type.LIST, id, null);
+	}
+
+	public static TimelineKey hashtag(String tag){
+		return new TimelineKey(Type.HASHTAG, tag.toLowerCase(), null);
+	}
+
+	public static TimelineKey account(String id, GetAccountStatuses.Filter filter){
+		return new TimelineKey(Type.ACCOUNT, id, filter);
+	}
+
+	/**
+	 * @param sinceID ignored for hashtag and account timelines, the API doesn't support it there
+	 */
+	public MastodonAPIRequest<List<Status>> createRequest(String maxID, String minID, int limit, String sinceID){
+		return switch(type){
+			case HOME -> new GetHomeTimeline(maxID, minID, limit, sinceID);
+			case LOCAL -> new GetPublicTimeline(true, false, maxID, minID, limit, sinceID);
+			case LIST -> new GetListTimeline(param, maxID, minID, limit, sinceID);
+			case HASHTAG -> new GetHashtagTimeline(param, maxID, minID, limit);
+			case ACCOUNT -> new GetAccountStatuses(param, maxID, minID, limit, accountFilter, null);
+		};
+	}
+
+	public FilterContext getFilterContext(){
+		return switch(type){
+			case HOME, LIST -> FilterContext.HOME;
+			case LOCAL, HASHTAG -> FilterContext.PUBLIC;
+			case ACCOUNT -> FilterContext.ACCOUNT;
+		};
+	}
+
+	@NonNull
+	@Override
+	public String toString(){
+		String name=type.name().toLowerCase(Locale.ROOT);
+		if(param==null)
+			return name;
+		if(accountFilter==null)
+			return name+":"+param;
+		return name+":"+param+":"+accountFilter.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Every type has its own {@link CacheController.RetentionPolicy}, shared by all timelines of that type
+	 */
+	public enum Type{
+		HOME,
+		LOCAL,
+		LIST,
+		HASHTAG,
+		ACCOUNT
+	}
+}
@@ -0,0 +1,126 @@
+package org.joinmastodon.android.api.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.joinmastodon.android.model.Account;
+import org.joinmastodon.android.model.AccountField;
+import org.joinmastodon.android.model.Emoji;
+import org.joinmastodon.android.model.Source;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+public class AccountTypeAdapter extends ModelTypeAdapter<Account>{
+	private static final Set<String> FIELD_NAMES=Set.of("id", "username", "acct", "url", "display_name", "note", "avatar", "avatar_static", "header",
+			"header_static", "locked", "emojis", "discoverable", "created_at", "last_status_at", "statuses_count", "followers_count", "following_count",
+			"moved", "fields", "bot", "source", "suspended", "mute_expires_at", "noindex");
+
+	private final TypeAdapter<Instant> instantAdapter;
+	private final TypeAdapter<LocalDate> localDateAdapter;
+	private final TypeAdapter<List<Emoji>> emojisAdapter;
+	private final TypeAdapter<Account> accountAdapter;
+	private final TypeAdapter<List<AccountField>> fieldsAdapter;
+	private final TypeAdapter<Source> sourceAdapter;
+
+	public AccountTypeAdapter(Gson gson){
+		super(Account.class, FIELD_NAMES);
+		instantAdapter=gson.getAdapter(Instant.class);
+		localDateAdapter=gson.getAdapter(LocalDate.class);
+		emojisAdapter=gson.getAdapter(new TypeToken<List<Emoji>>(){});
+		accountAdapter=gson.getAdapter(Account.class);
+		fieldsAdapter=gson.getAdapter(new TypeToken<List<AccountField>>(){});
+		sourceAdapter=gson.getAdapter(Source.class);
+	}
+
+	@Override
+	public void write(JsonWriter out, Account a) throws IOException{
+		if(a==null){
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("id").value(a.id);
+		out.name("username").value(a.username);
+		out.name("acct").value(a.acct);
+		out.name("url").value(a.url);
+		out.name("display_name").value(a.displayName);
+		out.name("note").value(a.note);
+		out.name("avatar").value(a.avatar);
+		out.name("avatar_static").value(a.avatarStatic);
+		out.name("header").value(a.header);
+		out.name("header_static").value(a.headerStatic);
+		out.name("locked").value(a.locked);
+		out.name("emojis");
+		emojisAdapter.write(out, a.emojis);
+		out.name("discoverable").value(a.discoverable);
+		out.name("created_at");
+		instantAdapter.write(out, a.createdAt);
+		out.name("last_status_at");
+		localDateAdapter.write(out, a.lastStatusAt);
+		out.name("statuses_count").value(a.statusesCount);
+		out.name("followers_count").value(a.followersCount);
+		out.name("following_count").value(a.followingCount);
+		out.name("moved");
+		accountAdapter.write(out, a.moved);
+		out.name("fields");
+		fieldsAdapter.write(out, a.fields);
+		out.name("bot").value(a.bot);
+		out.name("source");
+		sourceAdapter.write(out, a.source);
+		out.name("suspended").value(a.suspended);
+		out.name("mute_expires_at");
+		instantAdapter.write(out, a.muteExpiresAt);
+		out.name("noindex").value(a.noindex);
+		out.endObject();
+	}
+
+	@Override
+	public Account read(JsonReader in) throws IOException{
+		if(in.peek()==JsonToken.NULL){
+			in.nextNull();
+			return null;
+		}
+		Account a=new Account();
+		in.beginObject();
+		while(in.hasNext()){
+			switch(in.nextName()){
+				case "id" -> a.id=readString(in);
+				case "username" -> a.username=readString(in);
+				case "acct" -> a.acct=readString(in);
+				case "url" -> a.url=readString(in);
+				case "display_name" -> a.displayName=readString(in);
+				case "note" -> a.note=readString(in);
+				case "avatar" -> a.avatar=readString(in);
+				case "avatar_static" -> a.avatarStatic=readString(in);
+				case "header" -> a.header=readString(in);
+				case "header_static" -> a.headerStatic=readString(in);
+				case "locked" -> a.locked=readBoolean(in, a.locked);
+				case "emojis" -> a.emojis=emojisAdapter.read(in);
+				case "discoverable" -> a.discoverable=readBoolean(in, a.discoverable);
+				case "created_at" -> a.createdAt=instantAdapter.read(in);
+				case "last_status_at" -> a.lastStatusAt=localDateAdapter.read(in);
+				case "statuses_count" -> a.statusesCount=readLong(in, a.statusesCount);
+				case "followers_count" -> a.followersCount=readLong(in, a.followersCount);
+				case "following_count" -> a.followingCount=readLong(in, a.followingCount);
+				case "moved" -> a.moved=accountAdapter.read(in);
+				case "fields" -> a.fields=fieldsAdapter.read(in);
+				case "bot" -> a.bot=readBoolean(in, a.bot);
+				case "source" -> a.source=sourceAdapter.read(in);
+				case "suspended" -> a.suspended=readBoolean(in, a.suspended);
+				case "mute_expires_at" -> a.muteExpiresAt=instantAdapter.read(in);
+				case "noindex" -> a.noindex=readBoolean(in, a.noindex);
+				default -> in.skipValue();
+			}
+		}
+		in.endObject();
+		return a;
+	}
+}
@@ -0,0 +1,121 @@
+package org.joinmastodon.android.api.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of the JSON data model, used for storing objects in the cache database. Objects are
+ * written and read with the same Gson type adapters as JSON, but the data is a sequence of tagged tokens instead of text:
+ * numbers are varints, strings are length-prefixed UTF-8, and every field name and short string is stored once per
+ * object and referred to by index after that. Common field names and enum values are in a dictionary shared by all
+ * objects, so they never have to be stored at all.
+ *
+ * <p>An encoded object starts with {@link #MAGIC} and a format version. The dictionary is part of the format, so it
+ * can only ever be appended to, and only together with a version increment.</p>
+ */
+public class BinaryJson{
+	static final int MAGIC=0xB7;
+	static final int VERSION=1;
+
+	static final int TAG_NULL=0;
+	static final int TAG_TRUE=1;
+	static final int TAG_FALSE=2;
+	static final int TAG_BEGIN_OBJECT=3;
+	static final int TAG_END_OBJECT=4;
+	static final int TAG_BEGIN_ARRAY=5;
+	static final int TAG_END_ARRAY=6;
+	/**
+	 * Zigzag-encoded varint
+	 */
+	static final int TAG_LONG=7;
+	/**
+	 * 8 bytes, little-endian IEEE 754
+	 */
+	static final int TAG_DOUBLE=8;
+	/**
+	 * Varint length + UTF-8, added to the string table
+	 */
+	static final int TAG_STRING=9;
+	/**
+	 * Varint index into the string table
+	 */
+	static final int TAG_STRING_REF=10;
+	/**
+	 * Varint length + UTF-8, not added to the string table. Used for long strings that are unlikely to repeat, like post content.
+	 */
+	static final int TAG_LONG_STRING=11;
+	static final int TAG_NAME=12;
+	static final int TAG_NAME_REF=13;
+
+	/**
+	 * Strings longer than this aren't added to the string table
+	 */
+	static final int MAX_INTERNED_LENGTH=256;
+
+	static final List<String> DICTIONARY=List.of(
+			// Status
+			"id", "uri", "created_at", "account", "content", "visibility", "sensitive", "spoiler_text", "media_attachments", "application",
+			"mentions", "tags", "emojis", "reblogs_count", "favourites_count", "replies_count", "quotes_count", "edited_at", "url",
+			"in_reply_to_id", "in_reply_to_account_id", "reblog", "poll", "card", "language", "text", "filtered", "quote", "quote_approval",
+			"favourited", "reblogged", "muted", "bookmarked", "pinned",
+			// Account
+			"username", "acct", "display_name", "note", "avatar", "avatar_static", "header", "header_static", "locked", "discoverable",
+			"last_status_at", "statuses_count", "followers_count", "following_count", "moved", "fields", "bot", "source", "suspended",
+			"mute_expires_at", "noindex", "name", "value", "verified_at",
+			// Attachment
+			"type", "preview_url", "remote_url", "description", "blurhash", "meta", "duration", "width", "height", "aspect", "focus",
+			"original", "small", "colors", "bitrate", "background", "foreground", "accent", "x", "y",
+			// Poll
+			"expires_at", "expired", "multiple", "voters_count", "votes_count", "voted", "own_votes", "options", "title",
+			// Card
+			"author_name", "author_url", "provider_name", "provider_url", "image", "embed_url", "history", "published_at", "author_account", "authors",
+			// NotificationGroup
+			"group_key", "notifications_count", "most_recent_notification_id", "page_min_id", "page_max_id", "latest_page_notification_at",
+			"sample_account_ids", "status_id", "event", "moderation_warning",
+			// Other nested objects
+			"shortcode", "static_url", "visible_in_picker", "category", "website", "filter", "keyword_matches", "state", "quoted_status",
+			"quoted_status_id", "automatic", "manual", "current_user", "day", "uses", "accounts", "following",
+			// Enum values
+			"public", "unlisted", "private", "direct", "gifv", "video", "audio", "unknown", "link", "photo", "rich", "mention", "favourite",
+			"follow", "follow_request", "status", "update", "accepted", "pending", "rejected", "revoked", "followers", "unsupported_policy"
+	);
+	static final Map<String, Integer> DICTIONARY_INDICES;
+
+	static{
+		HashMap<String, Integer> indices=new HashMap<>(DICTIONARY.size()*2);
+		for(int i=0;i<DICTIONARY.size();i++){
+			if(indices.put(DICTIONARY.get(i), i)!=null)
+				throw new IllegalStateException("Duplicate dictionary entry "+DICTIONARY.get(i));
+		}
+		DICTIONARY_INDICES=indices;
+	}
+
+	public static byte[] encode(Gson gson, Object obj, Type type){
+		BinaryJsonWriter writer=new BinaryJsonWriter();
+		gson.toJson(obj, type, writer);
+		return writer.toByteArray();
+	}
+
+	public static <T> T decode(Gson gson, byte[] data, Type type){
+		BinaryJsonReader reader;
+		try{
+			reader=new BinaryJsonReader(data);
+		}catch(IOException x){
+			throw new JsonSyntaxException(x);
+		}
+		return gson.fromJson(reader, type);
+	}
+
+	/**
+	 * @return whether this looks like something produced by {@link #encode(Gson, Object, Type)}
+	 */
+	public static boolean isBinaryJson(byte[] data){
+		return data.length>=2 && (data[0] & 0xFF)==MAGIC;
+	}
+}
@@ -0,0 +1,272 @@
+package org.joinmastodon.android.api.gson;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.joinmastodon.android.api.gson.BinaryJson.*;
+
+/**
+ * Reads the {@link BinaryJson} format. Like {@link BinaryJsonWriter}, this relies on Gson's adapters only calling the public
+ * methods of {@link JsonReader}. The exception is maps with non-string keys, which aren't supported.
+ */
+class BinaryJsonReader extends JsonReader{
+	private static final Reader UNREADABLE_READER=new Reader(){
+		@Override
+		public int read(char[] buffer, int offset, int count){
+			throw new AssertionError();
+		}
+
+		@Override
+		public void close(){
+			throw new AssertionError();
+		}
+	};
+
+	private final byte[] data;
+	private int pos;
+	private final ArrayList<String> stringTable=new ArrayList<>();
+
+	BinaryJsonReader(byte[] data) throws IOException{
+		super(UNREADABLE_READER);
+		this.data=data;
+		if(data.length<2 || (data[0] & 0xFF)!=MAGIC)
+			throw new MalformedJsonException("Not binary JSON");
+		if(data[1]!=VERSION)
+			throw new MalformedJsonException("Unsupported binary JSON version "+data[1]);
+		pos=2;
+	}
+
+	@Override
+	public void beginArray() throws IOException{
+		expect(TAG_BEGIN_ARRAY, JsonToken.BEGIN_ARRAY);
+	}
+
+	@Override
+	public void endArray() throws IOException{
+		expect(TAG_END_ARRAY, JsonToken.END_ARRAY);
+	}
+
+	@Override
+	public void beginObject() throws IOException{
+		expect(TAG_BEGIN_OBJECT, JsonToken.BEGIN_OBJECT);
+	}
+
+	@Override
+	public void endObject() throws IOException{
+		expect(TAG_END_OBJECT, JsonToken.END_OBJECT);
+	}
+
+	@Override
+	public boolean hasNext() throws IOException{
+		JsonToken token=peek();
+		return token!=JsonToken.END_OBJECT && token!=JsonToken.END_ARRAY && token!=JsonToken.END_DOCUMENT;
+	}
+
+	@Override
+	public JsonToken peek() throws IOException{
+		if(pos>=data.length)
+			return JsonToken.END_DOCUMENT;
+		return switch(data[pos]){
+			case TAG_NULL -> JsonToken.NULL;
+			case TAG_TRUE, TAG_FALSE -> JsonToken.BOOLEAN;
+			case TAG_BEGIN_OBJECT -> JsonToken.BEGIN_OBJECT;
+			case TAG_END_OBJECT -> JsonToken.END_OBJECT;
+			case TAG_BEGIN_ARRAY -> JsonToken.BEGIN_ARRAY;
+			case TAG_END_ARRAY -> JsonToken.END_ARRAY;
+			case TAG_LONG, TAG_DOUBLE -> JsonToken.NUMBER;
+			case TAG_STRING, TAG_STRING_REF, TAG_LONG_STRING -> JsonToken.STRING;
+			case TAG_NAME, TAG_NAME_REF -> JsonToken.NAME;
+			default -> throw new MalformedJsonException("Unknown tag "+data[pos]+" at "+pos);
+		};
+	}
+
+	@Override
+	public String nextName() throws IOException{
+		JsonToken token=peek();
+		if(token!=JsonToken.NAME)
+			throw unexpected(JsonToken.NAME, token);
+		return readString(data[pos++]);
+	}
+
+	@Override
+	public String nextString() throws IOException{
+		JsonToken token=peek();
+		if(token==JsonToken.STRING)
+			return readString(data[pos++]);
+		if(token==JsonToken.NUMBER){
+			if(data[pos++]==TAG_LONG)
+				return Long.toString(readLong());
+			return Double.toString(readDouble());
+		}
+		throw unexpected(JsonToken.STRING, token);
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException{
+		JsonToken token=peek();
+		if(token!=JsonToken.BOOLEAN)
+			throw unexpected(JsonToken.BOOLEAN, token);
+		return data[pos++]==TAG_TRUE;
+	}
+
+	@Override
+	public void nextNull() throws IOException{
+		expect(TAG_NULL, JsonToken.NULL);
+	}
+
+	@Override
+	public double nextDouble() throws IOException{
+		JsonToken token=peek();
+		if(token==JsonToken.STRING){
+			try{
+				return Double.parseDouble(nextString());
+			}catch(NumberFormatException x){
+				throw new MalformedJsonException(x);
+			}
+		}
+		if(token!=JsonToken.NUMBER)
+			throw unexpected(JsonToken.NUMBER, token);
+		if(data[pos++]==TAG_LONG)
+			return readLong();
+		return readDouble();
+	}
+
+	@Override
+	public long nextLong() throws IOException{
+		JsonToken token=peek();
+		if(token==JsonToken.STRING){
+			try{
+				return Long.parseLong(nextString());
+			}catch(NumberFormatException x){
+				throw new NumberFormatException(x.getMessage());
+			}
+		}
+		if(token!=JsonToken.NUMBER)
+			throw unexpected(JsonToken.NUMBER, token);
+		if(data[pos++]==TAG_LONG)
+			return readLong();
+		double d=readDouble();
+		long l=(long)d;
+		if(l!=d)
+			throw new NumberFormatException("Expected a long but was "+d);
+		return l;
+	}
+
+	@Override
+	public int nextInt() throws IOException{
+		long l=nextLong();
+		int i=(int)l;
+		if(i!=l)
+			throw new NumberFormatException("Expected an int but was "+l);
+		return i;
+	}
+
+	@Override
+	public void skipValue() throws IOException{
+		int depth=0;
+		do{
+			JsonToken token=peek();
+			switch(token){
+				case BEGIN_OBJECT, BEGIN_ARRAY -> {
+					pos++;
+					depth++;
+				}
+				case END_OBJECT, END_ARRAY -> {
+					pos++;
+					depth--;
+				}
+				case END_DOCUMENT -> throw new EOFException();
+				// Strings still have to be read because they may be referenced by index later
+				case NAME, STRING -> readString(data[pos++]);
+				case NUMBER -> {
+					if(data[pos++]==TAG_LONG)
+						readLong();
+					else
+						pos+=8;
+				}
+				default -> pos++;
+			}
+		}while(depth>0);
+	}
+
+	@Override
+	public void close(){}
+
+	@Override
+	public String getPath(){
+		return "$ at byte "+pos;
+	}
+
+	@Override
+	public String toString(){
+		return "BinaryJsonReader";
+	}
+
+	private void expect(int tag, JsonToken token) throws IOException{
+		JsonToken actual=peek();
+		if(actual!=token)
+			throw unexpected(token, actual);
+		if(data[pos]!=tag)
+			throw new MalformedJsonException("Unexpected tag "+data[pos]+" at "+pos);
+		pos++;
+	}
+
+	private IllegalStateException unexpected(JsonToken expected, JsonToken actual){
+		return new IllegalStateException("Expected "+expected+" but was "+actual+" at "+getPath());
+	}
+
+	private String readString(int tag) throws IOException{
+		if(tag==TAG_STRING_REF || tag==TAG_NAME_REF){
+			int index=(int)readVarint();
+			if(index<DICTIONARY.size())
+				return DICTIONARY.get(index);
+			index-=DICTIONARY.size();
+			if(index>=stringTable.size())
+				throw new MalformedJsonException("String table index out of range at "+pos);
+			return stringTable.get(index);
+		}
+		int length=(int)readVarint();
+		if(length<0 || pos+length>data.length)
+			throw new EOFException();
+		String s=new String(data, pos, length, StandardCharsets.UTF_8);
+		pos+=length;
+		if(tag!=TAG_LONG_STRING)
+			stringTable.add(s);
+		return s;
+	}
+
+	private long readLong() throws IOException{
+		long value=readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private double readDouble() throws IOException{
+		if(pos+8>data.length)
+			throw new EOFException();
+		long bits=0;
+		for(int i=0;i<8;i++){
+			bits|=(data[pos++] & 0xFFL) << (i*8);
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	private long readVarint() throws IOException{
+		long value=0;
+		for(int shift=0;shift<64;shift+=7){
+			if(pos>=data.length)
+				throw new EOFException();
+			byte b=data[pos++];
+			value|=(long)(b & 0x7F) << shift;
+			if((b & 0x80)==0)
+				return value;
+		}
+		throw new MalformedJsonException("Malformed varint at "+pos);
+	}
+}
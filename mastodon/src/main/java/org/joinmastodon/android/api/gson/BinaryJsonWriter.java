@@ -0,0 +1,257 @@
+package org.joinmastodon.android.api.gson;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static org.joinmastodon.android.api.gson.BinaryJson.*;
+
+/**
+ * Writes the {@link BinaryJson} format. Gson's adapters only ever call the public methods of {@link JsonWriter},
+ * so they work with this unchanged.
+ */
+class BinaryJsonWriter extends JsonWriter{
+	private static final Writer UNWRITABLE_WRITER=new Writer(){
+		@Override
+		public void write(char[] buffer, int offset, int counter){
+			throw new AssertionError();
+		}
+
+		@Override
+		public void flush(){
+			throw new AssertionError();
+		}
+
+		@Override
+		public void close(){
+			throw new AssertionError();
+		}
+	};
+
+	private final ByteArrayOutputStream buf=new ByteArrayOutputStream(1024);
+	private final HashMap<String, Integer> stringTable=new HashMap<>();
+	private String deferredName;
+
+	BinaryJsonWriter(){
+		super(UNWRITABLE_WRITER);
+		buf.write(MAGIC);
+		buf.write(VERSION);
+	}
+
+	byte[] toByteArray(){
+		return buf.toByteArray();
+	}
+
+	@Override
+	public JsonWriter beginArray(){
+		writeDeferredName();
+		buf.write(TAG_BEGIN_ARRAY);
+		return this;
+	}
+
+	@Override
+	public JsonWriter endArray(){
+		buf.write(TAG_END_ARRAY);
+		return this;
+	}
+
+	@Override
+	public JsonWriter beginObject(){
+		writeDeferredName();
+		buf.write(TAG_BEGIN_OBJECT);
+		return this;
+	}
+
+	@Override
+	public JsonWriter endObject(){
+		buf.write(TAG_END_OBJECT);
+		return this;
+	}
+
+	@Override
+	public JsonWriter name(String name){
+		if(name==null)
+			throw new NullPointerException("name == null");
+		if(deferredName!=null)
+			throw new IllegalStateException();
+		deferredName=name;
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(String value){
+		if(value==null)
+			return nullValue();
+		writeDeferredName();
+		writeString(value, TAG_STRING, TAG_STRING_REF, value.length()<=MAX_INTERNED_LENGTH);
+		return this;
+	}
+
+	/**
+	 * There's no way to store JSON text as is in this format, so it's parsed and written out token by token.
+	 * Numbers keep their value but not their exact spelling, e.g. 1.0 comes back as 1.
+	 */
+	@Override
+	public JsonWriter jsonValue(String value) throws IOException{
+		if(value==null)
+			return nullValue();
+		JsonReader reader=new JsonReader(new StringReader(value));
+		reader.setLenient(true);
+		copyValue(reader);
+		if(reader.peek()!=JsonToken.END_DOCUMENT)
+			throw new MalformedJsonException("More than one value in "+value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter nullValue(){
+		if(deferredName!=null && !getSerializeNulls()){
+			// Same as JsonWriter, skip the name and the value entirely
+			deferredName=null;
+			return this;
+		}
+		writeDeferredName();
+		buf.write(TAG_NULL);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(boolean value){
+		writeDeferredName();
+		buf.write(value ? TAG_TRUE : TAG_FALSE);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(Boolean value){
+		if(value==null)
+			return nullValue();
+		return value(value.booleanValue());
+	}
+
+	@Override
+	public JsonWriter value(double value){
+		if(!isLenient() && (Double.isNaN(value) || Double.isInfinite(value)))
+			throw new IllegalArgumentException("Numeric values must be finite, but was "+value);
+		writeDeferredName();
+		buf.write(TAG_DOUBLE);
+		long bits=Double.doubleToRawLongBits(value);
+		for(int i=0;i<8;i++){
+			buf.write((int)(bits >>> (i*8)));
+		}
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(long value){
+		writeDeferredName();
+		buf.write(TAG_LONG);
+		writeVarint((value << 1) ^ (value >> 63));
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(Number value){
+		if(value==null)
+			return nullValue();
+		if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+			return value(value.longValue());
+		return value(value.doubleValue());
+	}
+
+	@Override
+	public void flush(){}
+
+	@Override
+	public void close(){}
+
+	private void copyValue(JsonReader reader) throws IOException{
+		switch(reader.peek()){
+			case BEGIN_ARRAY -> {
+				reader.beginArray();
+				beginArray();
+				while(reader.hasNext()){
+					copyValue(reader);
+				}
+				reader.endArray();
+				endArray();
+			}
+			case BEGIN_OBJECT -> {
+				reader.beginObject();
+				beginObject();
+				while(reader.hasNext()){
+					name(reader.nextName());
+					copyValue(reader);
+				}
+				reader.endObject();
+				endObject();
+			}
+			case STRING -> value(reader.nextString());
+			case NUMBER -> {
+				String number=reader.nextString();
+				try{
+					value(Long.parseLong(number));
+				}catch(NumberFormatException x){
+					value(Double.parseDouble(number));
+				}
+			}
+			case BOOLEAN -> value(reader.nextBoolean());
+			case NULL -> {
+				reader.nextNull();
+				// Written even without serializeNulls, the null is part of the JSON that was passed in
+				writeDeferredName();
+				buf.write(TAG_NULL);
+			}
+			default -> throw new MalformedJsonException("Unexpected "+reader.peek()+" at "+reader.getPath());
+		}
+	}
+
+	private void writeDeferredName(){
+		if(deferredName!=null){
+			writeString(deferredName, TAG_NAME, TAG_NAME_REF, true);
+			deferredName=null;
+		}
+	}
+
+	private void writeString(String value, int tag, int refTag, boolean intern){
+		if(intern){
+			Integer index=DICTIONARY_INDICES.get(value);
+			if(index==null)
+				index=stringTable.get(value);
+			if(index!=null){
+				buf.write(refTag);
+				writeVarint(index);
+				return;
+			}
+			// The reader assigns indices in the same order as it encounters these
+			stringTable.put(value, DICTIONARY.size()+stringTable.size());
+		}else{
+			tag=TAG_LONG_STRING;
+		}
+		byte[] bytes=value.getBytes(StandardCharsets.UTF_8);
+		buf.write(tag);
+		writeVarint(bytes.length);
+		buf.write(bytes, 0, bytes.length);
+	}
+
+	private void writeVarint(long value){
+		while((value & ~0x7FL)!=0){
+			buf.write((int)((value & 0x7F) | 0x80));
+			value>>>=7;
+		}
+		buf.write((int)value);
+	}
+
+	@Override
+	public String toString(){
+		return "BinaryJsonWriter";
+	}
+}
@@ -0,0 +1,95 @@
+package org.joinmastodon.android.api.gson;
+
+import android.util.Log;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.joinmastodon.android.BuildConfig;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Set;
+
+/**
+ * Base class for hand-written adapters of the models that are parsed most often. These read and write fields directly
+ * instead of going through Gson's reflective adapter. The helpers here mimic what Gson's built-in adapters accept,
+ * so the result is the same as with the reflective adapter.
+ */
+public abstract class ModelTypeAdapter<T> extends TypeAdapter<T>{
+	private static final String TAG="ModelTypeAdapter";
+
+	/**
+	 * @param fieldNames the JSON names of all fields this adapter handles. Only used to catch fields that were added
+	 *                   to the model without updating the adapter, in debug builds.
+	 */
+	protected ModelTypeAdapter(Class<T> type, Set<String> fieldNames){
+		if(BuildConfig.DEBUG){
+			for(Field fld:type.getDeclaredFields()){
+				int mod=fld.getModifiers();
+				if(Modifier.isStatic(mod) || Modifier.isTransient(mod) || fld.isSynthetic())
+					continue;
+				String name=toJsonName(fld.getName());
+				if(!fieldNames.contains(name))
+					Log.e(TAG, getClass().getSimpleName()+" doesn't handle field '"+name+"' of "+type.getSimpleName());
+			}
+		}
+	}
+
+	protected static String readString(JsonReader in) throws IOException{
+		JsonToken token=in.peek();
+		if(token==JsonToken.NULL){
+			in.nextNull();
+			return null;
+		}
+		if(token==JsonToken.BOOLEAN)
+			return Boolean.toString(in.nextBoolean());
+		return in.nextString();
+	}
+
+	protected static Boolean readNullableBoolean(JsonReader in) throws IOException{
+		JsonToken token=in.peek();
+		if(token==JsonToken.NULL){
+			in.nextNull();
+			return null;
+		}
+		if(token==JsonToken.STRING)
+			return Boolean.parseBoolean(in.nextString());
+		return in.nextBoolean();
+	}
+
+	protected static boolean readBoolean(JsonReader in, boolean defaultValue) throws IOException{
+		Boolean value=readNullableBoolean(in);
+		return value==null ? defaultValue : value;
+	}
+
+	protected static long readLong(JsonReader in, long defaultValue) throws IOException{
+		if(in.peek()==JsonToken.NULL){
+			in.nextNull();
+			return defaultValue;
+		}
+		try{
+			return in.nextLong();
+		}catch(NumberFormatException x){
+			throw new JsonSyntaxException(x);
+		}
+	}
+
+	private static String toJsonName(String fieldName){
+		StringBuilder sb=new StringBuilder(fieldName.length()+4);
+		for(int i=0;i<fieldName.length();i++){
+			char c=fieldName.charAt(i);
+			if(Character.isUpperCase(c)){
+				if(sb.length()>0)
+					sb.append('_');
+				sb.append(Character.toLowerCase(c));
+			}else{
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
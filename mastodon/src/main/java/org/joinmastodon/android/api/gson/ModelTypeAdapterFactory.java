@@ -0,0 +1,26 @@
+package org.joinmastodon.android.api.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+import org.joinmastodon.android.model.Account;
+import org.joinmastodon.android.model.Status;
+
+/**
+ * Provides the hand-written adapters for the models that make up the bulk of every timeline.
+ * Everything else goes through Gson's reflective adapter as usual.
+ */
+public class ModelTypeAdapterFactory implements TypeAdapterFactory{
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type){
+		Class<? super T> cls=type.getRawType();
+		if(cls==Status.class)
+			return (TypeAdapter<T>) new StatusTypeAdapter(gson);
+		if(cls==Account.class)
+			return (TypeAdapter<T>) new AccountTypeAdapter(gson);
+		return null;
+	}
+}
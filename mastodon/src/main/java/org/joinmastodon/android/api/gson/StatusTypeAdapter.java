@@ -0,0 +1,177 @@
+package org.joinmastodon.android.api.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.joinmastodon.android.model.Account;
+import org.joinmastodon.android.model.Application;
+import org.joinmastodon.android.model.Attachment;
+import org.joinmastodon.android.model.Card;
+import org.joinmastodon.android.model.Emoji;
+import org.joinmastodon.android.model.FilterResult;
+import org.joinmastodon.android.model.Hashtag;
+import org.joinmastodon.android.model.Mention;
+import org.joinmastodon.android.model.Poll;
+import org.joinmastodon.android.model.Quote;
+import org.joinmastodon.android.model.QuoteApproval;
+import org.joinmastodon.android.model.Status;
+import org.joinmastodon.android.model.StatusPrivacy;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+public class StatusTypeAdapter extends ModelTypeAdapter<Status>{
+	private static final Set<String> FIELD_NAMES=Set.of("id", "uri", "created_at", "account", "content", "visibility", "sensitive", "spoiler_text",
+			"media_attachments", "application", "mentions", "tags", "emojis", "reblogs_count", "favourites_count", "replies_count", "quotes_count",
+			"edited_at", "url", "in_reply_to_id", "in_reply_to_account_id", "reblog", "poll", "card", "language", "text", "filtered", "quote",
+			"quote_approval", "favourited", "reblogged", "muted", "bookmarked", "pinned");
+
+	private final TypeAdapter<Instant> instantAdapter;
+	private final TypeAdapter<Account> accountAdapter;
+	private final TypeAdapter<StatusPrivacy> privacyAdapter;
+	private final TypeAdapter<List<Attachment>> attachmentsAdapter;
+	private final TypeAdapter<Application> applicationAdapter;
+	private final TypeAdapter<List<Mention>> mentionsAdapter;
+	private final TypeAdapter<List<Hashtag>> tagsAdapter;
+	private final TypeAdapter<List<Emoji>> emojisAdapter;
+	private final TypeAdapter<Status> statusAdapter;
+	private final TypeAdapter<Poll> pollAdapter;
+	private final TypeAdapter<Card> cardAdapter;
+	private final TypeAdapter<List<FilterResult>> filteredAdapter;
+	private final TypeAdapter<Quote> quoteAdapter;
+	private final TypeAdapter<QuoteApproval> quoteApprovalAdapter;
+
+	public StatusTypeAdapter(Gson gson){
+		super(Status.class, FIELD_NAMES);
+		instantAdapter=gson.getAdapter(Instant.class);
+		accountAdapter=gson.getAdapter(Account.class);
+		privacyAdapter=gson.getAdapter(StatusPrivacy.class);
+		attachmentsAdapter=gson.getAdapter(new TypeToken<List<Attachment>>(){});
+		applicationAdapter=gson.getAdapter(Application.class);
+		mentionsAdapter=gson.getAdapter(new TypeToken<List<Mention>>(){});
+		tagsAdapter=gson.getAdapter(new TypeToken<List<Hashtag>>(){});
+		emojisAdapter=gson.getAdapter(new TypeToken<List<Emoji>>(){});
+		statusAdapter=gson.getAdapter(Status.class);
+		pollAdapter=gson.getAdapter(Poll.class);
+		cardAdapter=gson.getAdapter(Card.class);
+		filteredAdapter=gson.getAdapter(new TypeToken<List<FilterResult>>(){});
+		quoteAdapter=gson.getAdapter(Quote.class);
+		quoteApprovalAdapter=gson.getAdapter(QuoteApproval.class);
+	}
+
+	@Override
+	public void write(JsonWriter out, Status s) throws IOException{
+		if(s==null){
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("id").value(s.id);
+		out.name("uri").value(s.uri);
+		out.name("created_at");
+		instantAdapter.write(out, s.createdAt);
+		out.name("account");
+		accountAdapter.write(out, s.account);
+		out.name("content").value(s.content);
+		out.name("visibility");
+		privacyAdapter.write(out, s.visibility);
+		out.name("sensitive").value(s.sensitive);
+		out.name("spoiler_text").value(s.spoilerText);
+		out.name("media_attachments");
+		attachmentsAdapter.write(out, s.mediaAttachments);
+		out.name("application");
+		applicationAdapter.write(out, s.application);
+		out.name("mentions");
+		mentionsAdapter.write(out, s.mentions);
+		out.name("tags");
+		tagsAdapter.write(out, s.tags);
+		out.name("emojis");
+		emojisAdapter.write(out, s.emojis);
+		out.name("reblogs_count").value(s.reblogsCount);
+		out.name("favourites_count").value(s.favouritesCount);
+		out.name("replies_count").value(s.repliesCount);
+		out.name("quotes_count").value(s.quotesCount);
+		out.name("edited_at");
+		instantAdapter.write(out, s.editedAt);
+		out.name("url").value(s.url);
+		out.name("in_reply_to_id").value(s.inReplyToId);
+		out.name("in_reply_to_account_id").value(s.inReplyToAccountId);
+		out.name("reblog");
+		statusAdapter.write(out, s.reblog);
+		out.name("poll");
+		pollAdapter.write(out, s.poll);
+		out.name("card");
+		cardAdapter.write(out, s.card);
+		out.name("language").value(s.language);
+		out.name("text").value(s.text);
+		out.name("filtered");
+		filteredAdapter.write(out, s.filtered);
+		out.name("quote");
+		quoteAdapter.write(out, s.quote);
+		out.name("quote_approval");
+		quoteApprovalAdapter.write(out, s.quoteApproval);
+		out.name("favourited").value(s.favourited);
+		out.name("reblogged").value(s.reblogged);
+		out.name("muted").value(s.muted);
+		out.name("bookmarked").value(s.bookmarked);
+		out.name("pinned").value(s.pinned);
+		out.endObject();
+	}
+
+	@Override
+	public Status read(JsonReader in) throws IOException{
+		if(in.peek()==JsonToken.NULL){
+			in.nextNull();
+			return null;
+		}
+		Status s=new Status();
+		in.beginObject();
+		while(in.hasNext()){
+			switch(in.nextName()){
+				case "id" -> s.id=readString(in);
+				case "uri" -> s.uri=readString(in);
+				case "created_at" -> s.createdAt=instantAdapter.read(in);
+				case "account" -> s.account=accountAdapter.read(in);
+				case "content" -> s.content=readString(in);
+				case "visibility" -> s.visibility=privacyAdapter.read(in);
+				case "sensitive" -> s.sensitive=readBoolean(in, s.sensitive);
+				case "spoiler_text" -> s.spoilerText=readString(in);
+				case "media_attachments" -> s.mediaAttachments=attachmentsAdapter.read(in);
+				case "application" -> s.application=applicationAdapter.read(in);
+				case "mentions" -> s.mentions=mentionsAdapter.read(in);
+				case "tags" -> s.tags=tagsAdapter.read(in);
+				case "emojis" -> s.emojis=emojisAdapter.read(in);
+				case "reblogs_count" -> s.reblogsCount=readLong(in, s.reblogsCount);
+				case "favourites_count" -> s.favouritesCount=readLong(in, s.favouritesCount);
+				case "replies_count" -> s.repliesCount=readLong(in, s.repliesCount);
+				case "quotes_count" -> s.quotesCount=readLong(in, s.quotesCount);
+				case "edited_at" -> s.editedAt=instantAdapter.read(in);
+				case "url" -> s.url=readString(in);
+				case "in_reply_to_id" -> s.inReplyToId=readString(in);
+				case "in_reply_to_account_id" -> s.inReplyToAccountId=readString(in);
+				case "reblog" -> s.reblog=statusAdapter.read(in);
+				case "poll" -> s.poll=pollAdapter.read(in);
+				case "card" -> s.card=cardAdapter.read(in);
+				case "language" -> s.language=readString(in);
+				case "text" -> s.text=readString(in);
+				case "filtered" -> s.filtered=filteredAdapter.read(in);
+				case "quote" -> s.quote=quoteAdapter.read(in);
+				case "quote_approval" -> s.quoteApproval=quoteApprovalAdapter.read(in);
+				case "favourited" -> s.favourited=readBoolean(in, s.favourited);
+				case "reblogged" -> s.reblogged=readBoolean(in, s.reblogged);
+				case "muted" -> s.muted=readNullableBoolean(in);
+				case "bookmarked" -> s.bookmarked=readBoolean(in, s.bookmarked);
+				case "pinned" -> s.pinned=readNullableBoolean(in);
+				default -> in.skipValue();
+			}
+		}
+		in.endObject();
+		return s;
+	}
+}
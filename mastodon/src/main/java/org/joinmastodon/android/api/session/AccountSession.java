@@ -17,8 +17,12 @@ import org.joinmastodon.android.MastodonApp;
 import org.joinmastodon.android.R;
 import org.joinmastodon.android.api.CacheController;
 import org.joinmastodon.android.api.MastodonAPIController;
+import org.joinmastodon.android.api.MastodonAPIRequest;
 import org.joinmastodon.android.api.PushSubscriptionManager;
+import org.joinmastodon.android.api.RelationshipLoader;
+import org.joinmastodon.android.api.StatusHydrator;
 import org.joinmastodon.android.api.StatusInteractionController;
+import org.joinmastodon.android.api.StreamingClient;
 import org.joinmastodon.android.api.gson.JsonObjectBuilder;
 import org.joinmastodon.android.api.requests.accounts.GetPreferences;
 import org.joinmastodon.android.api.requests.accounts.UpdateAccountCredentialsPreferences;
@@ -96,6 +100,9 @@ public class AccountSession{
 	private transient StatusInteractionController statusInteractionController;
 	private transient CacheController cacheController;
 	private transient PushSubscriptionManager pushSubscriptionManager;
+	private transient StreamingClient streamingClient;
+	private transient RelationshipLoader relationshipLoader;
+	private transient StatusHydrator statusHydrator;
 	private transient SharedPreferences prefs;
 	private transient boolean preferencesNeedSaving;
 	private transient AccountLocalPreferences localPreferences;
@@ -201,12 +208,31 @@ public class AccountSession{
 		return pushSubscriptionManager;
 	}
 
+	public StreamingClient getStreamingClient(){
+		if(streamingClient==null)
+			streamingClient=new StreamingClient(getID());
+		return streamingClient;
+	}
+
+	public RelationshipLoader getRelationshipLoader(){
+		if(relationshipLoader==null)
+			relationshipLoader=new RelationshipLoader(getID());
+		return relationshipLoader;
+	}
+
+	public StatusHydrator getStatusHydrator(){
+		if(statusHydrator==null)
+			statusHydrator=new StatusHydrator(getID());
+		return statusHydrator;
+	}
+
 	public String getFullUsername(){
 		return '@'+self.username+'@'+domain;
 	}
 
 	public void reloadPreferences(Consumer<Preferences> callback){
 		new GetPreferences()
+				.setPriority(MastodonAPIRequest.Priority.BACKGROUND)
 				.setCallback(new Callback<>(){
 					@Override
 					public void onSuccess(Preferences result){
@@ -322,15 +348,7 @@ public class AccountSession{
 			// Even with server-side filters, clients are expected to remove statuses that match a filter that hides them
 			objects.removeIf(o->{
 				Status s=extractor.apply(o);
-				if(s==null)
-					return false;
-				if(s.filtered==null)
-					return false;
-				for(FilterResult filter:s.filtered){
-					if(filter.filter.isActive() && filter.filter.filterAction==FilterAction.HIDE)
-						return true;
-				}
-				return false;
+				return s!=null && isHiddenByServerSideFilter(s);
 			});
 			return;
 		}
@@ -346,16 +364,43 @@ public class AccountSession{
 		}
 		objects.removeIf(o->{
 			Status s=extractor.apply(o);
-			if(s==null)
-				return false;
-			for(LegacyFilter filter:wordFilters){
-				if(filter.context.contains(context) && filter.matches(s) && filter.isActive())
-					return true;
-			}
-			return false;
+			return s!=null && isHiddenByLegacyFilter(s, context);
 		});
 	}
 
+	/**
+	 * The same as {@link #filterStatuses(List, FilterContext)} for a single status, for lists that are filtered one
+	 * status at a time as they're displayed
+	 * @return whether the status matches a filter that hides it
+	 */
+	public boolean isFilteredOut(Status s, FilterContext context){
+		if(!getLocalPreferences().serverSideFiltersSupported && s.filtered!=null){
+			getLocalPreferences().serverSideFiltersSupported=true;
+			getLocalPreferences().save();
+		}
+		if(getLocalPreferences().serverSideFiltersSupported)
+			return isHiddenByServerSideFilter(s);
+		return wordFilters!=null && isHiddenByLegacyFilter(s, context);
+	}
+
+	private static boolean isHiddenByServerSideFilter(Status s){
+		if(s.filtered==null)
+			return false;
+		for(FilterResult filter:s.filtered){
+			if(filter.filter.isActive() && filter.filter.filterAction==FilterAction.HIDE)
+				return true;
+		}
+		return false;
+	}
+
+	private boolean isHiddenByLegacyFilter(Status s, FilterContext context){
+		for(LegacyFilter filter:wordFilters){
+			if(filter.context.contains(context) && filter.matches(s) && filter.isActive())
+				return true;
+		}
+		return false;
+	}
+
 	public void updateAccountInfo(){
 		AccountSessionManager.getInstance().updateSessionLocalInfo(this);
 	}
@@ -18,6 +18,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.drawable.Icon;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
@@ -60,6 +61,7 @@ import org.joinmastodon.android.model.LegacyFilter;
 import org.joinmastodon.android.model.Preferences;
 import org.joinmastodon.android.model.Token;
 import org.joinmastodon.android.ui.utils.UiUtils;
+import org.joinmastodon.android.utils.StartupTimer;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -73,6 +75,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.stream.Collectors;
 
 import androidx.annotation.NonNull;
@@ -86,20 +90,31 @@ public class AccountSessionManager{
 	private static final String TAG="AccountSessionManager";
 	public static final String SCOPE="read write follow push";
 	public static final String REDIRECT_URI="kronk-auth://callback";
-	private static final int DB_VERSION=3;
+	private static final int DB_VERSION=5;
 
 	private static final AccountSessionManager instance=new AccountSessionManager();
 
 	private HashMap<String, AccountSession> sessions=new HashMap<>();
-	private HashMap<String, List<EmojiCategory>> customEmojis=new HashMap<>();
-	private HashMap<String, Long> instancesLastUpdated=new HashMap<>();
-	private HashMap<String, Instance> instances=new HashMap<>();
+	/**
+	 * Only has the domains whose emojis were needed since the app started, see {@link #getCustomEmojis(String)}
+	 */
+	private ConcurrentHashMap<String, List<EmojiCategory>> customEmojis=new ConcurrentHashMap<>();
+	private Set<String> domainsWithEmojisLoading=ConcurrentHashMap.newKeySet();
+	// These are filled on the database thread on startup, and updated on the main thread
+	private Set<String> domainsWithCustomEmojis=ConcurrentHashMap.newKeySet();
+	private ConcurrentHashMap<String, Long> instancesLastUpdated=new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, Instance> instances=new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, String> customEmojiETags=new ConcurrentHashMap<>();
 	private MastodonAPIController unauthenticatedApiController=new MastodonAPIController(null);
 	private Instance authenticatingInstance;
 	private Application authenticatingApp;
 	private String lastActiveAccountID;
 	private SharedPreferences prefs;
-	private boolean loadedInstances;
+	private volatile boolean loadedInstances;
+	/**
+	 * Released once the instance info that was saved is loaded, see {@link #waitForInstances()}
+	 */
+	private final CountDownLatch instancesReady=new CountDownLatch(1);
 	private DatabaseHelper db;
 	private final Runnable databaseCloseRunnable=this::closeDatabase;
 	private final Object databaseLock=new Object();
@@ -110,8 +125,9 @@ public class AccountSessionManager{
 
 	private AccountSessionManager(){
 		prefs=MastodonApp.context.getSharedPreferences("account_manager", Context.MODE_PRIVATE);
+		HashSet<String> domains=new HashSet<>();
+		// This usually runs on the main thread during startup, so only the sessions themselves are read here
 		runWithDatabase(db->{
-			HashSet<String> domains=new HashSet<>();
 			try(Cursor cursor=db.query("accounts", null, null, null, null, null, null)){
 				ContentValues values=new ContentValues();
 				while(cursor.moveToNext()){
@@ -121,15 +137,22 @@ public class AccountSessionManager{
 					sessions.put(session.getID(), session);
 				}
 			}
-			readInstanceInfo(db, domains);
 		});
+		CacheController.databaseThread.postRunnable(()->{
+			try{
+				runWithDatabase(db->readInstanceInfo(db, domains));
+			}finally{
+				instancesReady.countDown();
+			}
+		}, 0);
 		lastActiveAccountID=prefs.getString("lastActiveAccount", null);
 		maybeUpdateShortcuts();
+		StartupTimer.mark(StartupTimer.Step.SESSIONS_LOADED);
 	}
 
 	public void addAccount(Instance instance, Token token, Account self, Application app, AccountActivationInfo activationInfo){
 		instances.put(instance.getDomain(), instance);
-		runOnDbThread(db->insertInstanceIntoDatabase(db, instance.getDomain(), instance, null, 0));
+		runOnDbThread(db->updateInstanceInDatabase(db, instance.getDomain(), instance));
 		AccountSession session=new AccountSession(token, self, app, instance.getDomain(), activationInfo==null, activationInfo);
 		sessions.put(session.getID(), session);
 		lastActiveAccountID=session.getID();
@@ -193,7 +216,8 @@ public class AccountSessionManager{
 
 	public void removeAccount(String id){
 		AccountSession session=getAccount(id);
-		session.getCacheController().closeDatabase();
+		session.getStreamingClient().disconnect();
+		session.getCacheController().release();
 		MastodonApp.context.deleteDatabase(id+".db");
 		MastodonApp.context.getSharedPreferences(id, 0).edit().clear().commit();
 		if(Build.VERSION.SDK_INT>=Build.VERSION_CODES.N){
@@ -213,9 +237,15 @@ public class AccountSessionManager{
 				lastActiveAccountID=getLoggedInAccounts().get(0).getID();
 			prefs.edit().putString("lastActiveAccount", lastActiveAccountID).apply();
 		}
+		String domain=session.domain.toLowerCase();
+		if(sessions.values().stream().noneMatch(s->s.domain.equalsIgnoreCase(domain))){
+			customEmojis.remove(domain);
+			domainsWithCustomEmojis.remove(domain);
+		}
 		runOnDbThread(db->{
 			db.delete("accounts", "`id`=?", new String[]{id});
 			db.delete("instances", "`domain` NOT IN (SELECT DISTINCT `domain` FROM `accounts`)", new String[]{});
+			db.delete("emojis", "`domain` NOT IN (SELECT DISTINCT `domain` FROM `accounts`)", new String[]{});
 		});
 		if(Build.VERSION.SDK_INT>=Build.VERSION_CODES.O){
 			NotificationManager nm=MastodonApp.context.getSystemService(NotificationManager.class);
@@ -315,6 +345,7 @@ public class AccountSessionManager{
 
 	/*package*/ void updateSessionLocalInfo(AccountSession session){
 		new GetOwnAccount()
+				.setPriority(MastodonAPIRequest.Priority.BACKGROUND)
 				.setCallback(new Callback<>(){
 					@Override
 					public void onSuccess(Account result){
@@ -338,6 +369,7 @@ public class AccountSessionManager{
 
 	private void updateSessionWordFilters(AccountSession session){
 		new GetLegacyFilters()
+				.setPriority(MastodonAPIRequest.Priority.BACKGROUND)
 				.setCallback(new Callback<>(){
 					@Override
 					public void onSuccess(List<LegacyFilter> result){
@@ -363,11 +395,18 @@ public class AccountSessionManager{
 	}
 
 	public void updateInstanceInfo(String domain){
-		loadInstanceInfo(domain, new Callback<>(){
+		waitForInstances();
+		Instance existing=instances.get(domain);
+		loadInstanceInfo(domain, MastodonAPIRequest.Priority.BACKGROUND, existing!=null ? existing.etag : null, new Callback<>(){
 					@Override
 					public void onSuccess(Instance instance){
+						if(instance==null){
+							// 304, what we have is still current
+							updateInstanceEmojis(existing, domain);
+							return;
+						}
 						instances.put(domain, instance);
-						runOnDbThread(db->insertInstanceIntoDatabase(db, domain, instance, null, 0));
+						runOnDbThread(db->updateInstanceInDatabase(db, domain, instance));
 						updateInstanceEmojis(instance, domain);
 					}
 
@@ -379,14 +418,39 @@ public class AccountSessionManager{
 	}
 
 	private void updateInstanceEmojis(Instance instance, String domain){
-		GetCustomEmojis getCustomEmojisRequest=(GetCustomEmojis)new GetCustomEmojis()
+		GetCustomEmojis getCustomEmojisRequest=new GetCustomEmojis();
+		getCustomEmojisRequest.setIfNoneMatch(customEmojiETags.get(domain))
+				.setPriority(MastodonAPIRequest.Priority.BACKGROUND)
 				.setCallback(new Callback<>(){
 					@Override
 					public void onSuccess(List<Emoji> result){
 						long lastUpdated=System.currentTimeMillis();
-						customEmojis.put(domain, groupCustomEmojis(result));
 						instancesLastUpdated.put(domain, lastUpdated);
-						runOnDbThread(db->insertInstanceIntoDatabase(db, domain, instance, result, lastUpdated));
+						if(result==null){
+							// 304, no need to parse or store the list again
+							runOnDbThread(db->{
+								ContentValues values=new ContentValues();
+								values.put("last_updated", lastUpdated);
+								db.update("instances", values, "`domain`=?", new String[]{domain});
+							});
+							return;
+						}
+						String etag=getCustomEmojisRequest.getResponseETag();
+						if(etag!=null)
+							customEmojiETags.put(domain, etag);
+						else
+							customEmojiETags.remove(domain);
+						customEmojis.put(domain, groupCustomEmojis(result));
+						runOnDbThread(db->{
+							db.beginTransaction();
+							try{
+								insertInstanceIntoDatabase(db, domain, instance, etag, lastUpdated);
+								updateEmojisInDatabase(db, domain, result);
+								db.setTransactionSuccessful();
+							}finally{
+								db.endTransaction();
+							}
+						});
 						E.post(new EmojiUpdatedEvent(domain));
 					}
 
@@ -404,9 +468,7 @@ public class AccountSessionManager{
 
 	private void readInstanceInfo(SQLiteDatabase db, Set<String> domains){
 		for(String domain : domains){
-			final int maxEmojiLength=500000;
-			try(Cursor cursor=db.rawQuery("SELECT domain, instance_obj, substr(emojis,1,?) AS emojis, length(emojis) AS emoji_length, last_updated, version FROM instances WHERE `domain` = ?",
-					new String[]{String.valueOf(maxEmojiLength) , domain})) {
+			try(Cursor cursor=db.query("instances", new String[]{"instance_obj", "last_updated", "version", "instance_etag", "emojis_etag"}, "`domain`=?", new String[]{domain}, null, null, null)){
 				ContentValues values=new ContentValues();
 				while(cursor.moveToNext()){
 					DatabaseUtils.cursorRowToContentValues(cursor, values);
@@ -416,29 +478,23 @@ public class AccountSessionManager{
 						case 2 -> InstanceV2.class;
 						default -> throw new IllegalStateException("Unexpected value: "+version);
 					});
-					instances.put(domain, instance);
-					StringBuilder emojiSB=new StringBuilder();
-					String emojiPart=values.getAsString("emojis");
-					if(TextUtils.isEmpty(emojiPart)){
+					instance.etag=values.getAsString("instance_etag");
+					// addAccount() or a refresh may have already put something newer there
+					if(instances.putIfAbsent(domain, instance)!=null)
+						continue;
+					// The emojis themselves are only loaded when they're needed
+					Long lastUpdated=values.getAsLong("last_updated");
+					if(lastUpdated==null || lastUpdated==0){
 						// not putting anything into instancesLastUpdated to force a reload
 						continue;
 					}
-					emojiSB.append(emojiPart);
-					//get emoji in chunks of 1MB if it didn't fit in the first query
-					int emojiStringLength=values.getAsInteger("emoji_length");
-					if(emojiStringLength>maxEmojiLength){
-						final int pagesize=1000000;
-						for(int start=maxEmojiLength + 1; start<=emojiStringLength; start+=pagesize){
-							try(Cursor emojiCursor=db.rawQuery("SELECT substr(emojis,?, ?) FROM instances WHERE `domain` = ?", new String[]{String.valueOf(start), String.valueOf(pagesize), domain})){
-								emojiCursor.moveToNext();
-								emojiSB.append(emojiCursor.getString(0));
-							}
-						}
-					}
-					List<Emoji> emojis=MastodonAPIController.gson.fromJson(emojiSB.toString(), new TypeToken<List<Emoji>>(){}.getType());
-					customEmojis.put(domain, groupCustomEmojis(emojis));
-					instancesLastUpdated.put(domain, values.getAsLong("last_updated"));
+					instancesLastUpdated.putIfAbsent(domain, lastUpdated);
+					String emojisETag=values.getAsString("emojis_etag");
+					if(emojisETag!=null)
+						customEmojiETags.putIfAbsent(domain, emojisETag);
 				}
+				if(DatabaseUtils.longForQuery(db, "SELECT EXISTS(SELECT 1 FROM `emojis` WHERE `domain`=? AND `visible_in_picker`=1)", new String[]{domain})!=0)
+					domainsWithCustomEmojis.add(domain);
 			}catch(Exception ex){
 				Log.d(TAG, "readInstanceInfo failed", ex);
 				// instancesLastUpdated will not contain that domain, so instance data will be forced to be reloaded
@@ -450,6 +506,39 @@ public class AccountSessionManager{
 		}
 	}
 
+	/**
+	 * Blocks until the instance info that was saved is loaded. It's read in the background on startup and is usually
+	 * ready by the time anything needs it. Must not be called on the database thread.
+	 */
+	private void waitForInstances(){
+		if(instancesReady.getCount()==0)
+			return;
+		long start=SystemClock.uptimeMillis();
+		try{
+			instancesReady.await();
+		}catch(InterruptedException x){
+			Thread.currentThread().interrupt();
+		}
+		if(BuildConfig.DEBUG)
+			Log.d(TAG, "Waited "+(SystemClock.uptimeMillis()-start)+"ms for instance info to load");
+	}
+
+	private List<EmojiCategory> loadCustomEmojis(SQLiteDatabase db, String domain){
+		ArrayList<Emoji> emojis=new ArrayList<>();
+		try(Cursor cursor=db.query("emojis", new String[]{"shortcode", "url", "static_url", "category"}, "`domain`=? AND `visible_in_picker`=1", new String[]{domain}, null, null, "`position`")){
+			while(cursor.moveToNext()){
+				Emoji emoji=new Emoji();
+				emoji.shortcode=cursor.getString(0);
+				emoji.url=cursor.getString(1);
+				emoji.staticUrl=cursor.getString(2);
+				emoji.category=cursor.getString(3);
+				emoji.visibleInPicker=true;
+				emojis.add(emoji);
+			}
+		}
+		return groupCustomEmojis(emojis);
+	}
+
 	private List<EmojiCategory> groupCustomEmojis(List<Emoji> emojis){
 		return emojis.stream()
 				.filter(e->e.visibleInPicker)
@@ -461,12 +550,55 @@ public class AccountSessionManager{
 				.collect(Collectors.toList());
 	}
 
+	/**
+	 * Doesn't block. The emojis are loaded from the database in the background the first time they're needed for this
+	 * domain, instances can have thousands.
+	 * @return the emojis, or an empty list if they aren't loaded yet. An {@link EmojiUpdatedEvent} is posted once they are.
+	 */
 	public List<EmojiCategory> getCustomEmojis(String domain){
-		List<EmojiCategory> r=customEmojis.get(domain.toLowerCase());
-		return r==null ? Collections.emptyList() : r;
+		String lowerDomain=domain.toLowerCase();
+		List<EmojiCategory> r=customEmojis.get(lowerDomain);
+		if(r==null){
+			preloadCustomEmojis(lowerDomain);
+			return Collections.emptyList();
+		}
+		return r;
+	}
+
+	/**
+	 * Starts loading the emojis of this domain from the database, if they aren't loaded yet, so that they're there by the
+	 * time {@link #getCustomEmojis(String)} is called
+	 */
+	public void preloadCustomEmojis(String domain){
+		String lowerDomain=domain.toLowerCase();
+		if(customEmojis.containsKey(lowerDomain) || !domainsWithEmojisLoading.add(lowerDomain))
+			return;
+		// This runs after the instance info is read on startup, it's the same thread
+		runOnDbThread(db->{
+			try{
+				// They may have been loaded from the server in the meantime
+				if(customEmojis.putIfAbsent(lowerDomain, loadCustomEmojis(db, lowerDomain))==null)
+					E.post(new EmojiUpdatedEvent(domain));
+			}finally{
+				domainsWithEmojisLoading.remove(lowerDomain);
+			}
+		});
+	}
+
+	/**
+	 * Like {@code !getCustomEmojis(domain).isEmpty()}, but doesn't load them
+	 */
+	public boolean hasCustomEmojis(String domain){
+		waitForInstances();
+		String lowerDomain=domain.toLowerCase();
+		List<EmojiCategory> r=customEmojis.get(lowerDomain);
+		if(r!=null)
+			return !r.isEmpty();
+		return domainsWithCustomEmojis.contains(lowerDomain);
 	}
 
 	public Instance getInstanceInfo(String domain){
+		waitForInstances();
 		Instance i=instances.get(domain);
 		if(i!=null)
 			return i;
@@ -641,20 +773,68 @@ public class AccountSessionManager{
 	public void clearInstanceInfo(){
 		SQLiteDatabase db=getOrOpenDatabase();
 		db.delete("instances", null, null);
+		db.delete("emojis", null, null);
 		db.close();
 	}
 
-	private static void insertInstanceIntoDatabase(SQLiteDatabase db, String domain, Instance instance, List<Emoji> emojis, long lastUpdated){
+	/**
+	 * @param lastUpdated when the emojis were last loaded, 0 if never
+	 */
+	private static void insertInstanceIntoDatabase(SQLiteDatabase db, String domain, Instance instance, String emojisETag, long lastUpdated){
 		ContentValues values=new ContentValues();
 		values.put("domain", domain);
 		values.put("instance_obj", MastodonAPIController.gson.toJson(instance));
-		if(emojis!=null)
-			values.put("emojis", MastodonAPIController.gson.toJson(emojis));
+		values.put("instance_etag", instance.etag);
+		values.put("emojis_etag", emojisETag);
 		values.put("last_updated", lastUpdated);
 		values.put("version", instance.getVersion());
 		db.insertWithOnConflict("instances", null, values, SQLiteDatabase.CONFLICT_REPLACE);
 	}
 
+	/**
+	 * Like {@link #insertInstanceIntoDatabase(SQLiteDatabase, String, Instance, String, long)}, but keeps the emoji info if there's already a row for this domain
+	 */
+	private static void updateInstanceInDatabase(SQLiteDatabase db, String domain, Instance instance){
+		ContentValues values=new ContentValues();
+		values.put("instance_obj", MastodonAPIController.gson.toJson(instance));
+		values.put("instance_etag", instance.etag);
+		values.put("version", instance.getVersion());
+		if(db.update("instances", values, "`domain`=?", new String[]{domain})==0)
+			insertInstanceIntoDatabase(db, domain, instance, null, 0);
+	}
+
+	/**
+	 * Only writes the emojis that were added or changed since the last refresh, and deletes the ones that are gone.
+	 * Most refreshes change few or none of them.
+	 */
+	private static void updateEmojisInDatabase(SQLiteDatabase db, String domain, List<Emoji> emojis){
+		HashMap<String, EmojiRow> existing=new HashMap<>();
+		try(Cursor cursor=db.query("emojis", new String[]{"shortcode", "url", "static_url", "visible_in_picker", "category", "position"}, "`domain`=?", new String[]{domain}, null, null, null)){
+			while(cursor.moveToNext()){
+				EmojiRow row=new EmojiRow(cursor.getString(0), cursor.getString(1), cursor.getString(2), cursor.getInt(3)!=0, cursor.getString(4), cursor.getInt(5));
+				existing.put(row.shortcode(), row);
+			}
+		}
+		ContentValues values=new ContentValues();
+		for(int i=0;i<emojis.size();i++){
+			Emoji emoji=emojis.get(i);
+			EmojiRow row=new EmojiRow(emoji.shortcode, emoji.url, emoji.staticUrl, emoji.visibleInPicker, emoji.category, i);
+			if(row.equals(existing.remove(emoji.shortcode)))
+				continue;
+			values.put("domain", domain);
+			values.put("shortcode", row.shortcode());
+			values.put("url", row.url());
+			values.put("static_url", row.staticUrl());
+			values.put("visible_in_picker", row.visibleInPicker());
+			values.put("category", row.category());
+			values.put("position", row.position());
+			db.insertWithOnConflict("emojis", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		}
+		for(String shortcode:existing.keySet()){
+			db.delete("emojis", "`domain`=? AND `shortcode`=?", new String[]{domain, shortcode});
+		}
+	}
+
 	private static AccountSession findAnySessionForDomain(String domain){
 		for(AccountSession session:getInstance().sessions.values()){
 			if(domain.equalsIgnoreCase(session.domain))
@@ -664,13 +844,24 @@ public class AccountSessionManager{
 	}
 
 	public static APIRequest<Instance> loadInstanceInfo(String domain, Callback<Instance> callback){
+		return loadInstanceInfo(domain, MastodonAPIRequest.Priority.UI, null, callback);
+	}
+
+	/**
+	 * @param etag if not null, the request is conditional and the callback receives null if the instance info didn't change
+	 */
+	private static APIRequest<Instance> loadInstanceInfo(String domain, MastodonAPIRequest.Priority priority, String etag, Callback<Instance> callback){
 		final WrapperRequest<Instance> wrapper=new WrapperRequest<>();
 		AccountSession session=findAnySessionForDomain(domain);
-		MastodonAPIRequest<?> req=new GetInstanceV2()
+		GetInstanceV2 req=new GetInstanceV2();
+		req.setIfNoneMatch(etag)
+				.setPriority(priority)
 				.setCallback(new Callback<>(){
 					@Override
 					public void onSuccess(InstanceV2 result){
 						wrapper.wrappedRequest=null;
+						if(result!=null)
+							result.etag=req.getResponseETag();
 						callback.onSuccess(result);
 					}
 
@@ -678,11 +869,15 @@ public class AccountSessionManager{
 					public void onError(ErrorResponse error){
 						if(error instanceof MastodonErrorResponse mr && mr.httpStatus==404){
 							// Mastodon pre-4.0 or a non-Mastodon server altogether. Let's try /api/v1/instance
-							MastodonAPIRequest<?> fallbackReq=new GetInstanceV1()
+							GetInstanceV1 fallbackReq=new GetInstanceV1();
+							fallbackReq.setIfNoneMatch(etag)
+									.setPriority(priority)
 									.setCallback(new Callback<>(){
 										@Override
 										public void onSuccess(InstanceV1 result){
 											wrapper.wrappedRequest=null;
+											if(result!=null)
+												result.etag=fallbackReq.getResponseETag();
 											callback.onSuccess(result);
 										}
 
@@ -711,6 +906,8 @@ public class AccountSessionManager{
 		return wrapper;
 	}
 
+	private record EmojiRow(String shortcode, String url, String staticUrl, boolean visibleInPicker, String category, int position){}
+
 	private static class DatabaseHelper extends SQLiteOpenHelper{
 		public DatabaseHelper(){
 			super(MastodonApp.context, "accounts.db", null, DB_VERSION);
@@ -728,10 +925,12 @@ public class AccountSessionManager{
 						CREATE TABLE `instances` (
 							`domain` text PRIMARY KEY,
 							`instance_obj` text,
-							`emojis` text,
 							`last_updated` bigint,
-							`version` integer NOT NULL DEFAULT 1
+							`version` integer NOT NULL DEFAULT 1,
+							`instance_etag` text,
+							`emojis_etag` text
 						)""");
+			createEmojisTable(db);
 			maybeMigrateAccounts(db);
 		}
 
@@ -751,6 +950,60 @@ public class AccountSessionManager{
 			if(oldVersion<3){
 				db.execSQL("ALTER TABLE `instances` ADD `version` integer NOT NULL DEFAULT 1");
 			}
+			if(oldVersion<4){
+				db.execSQL("ALTER TABLE `instances` ADD `instance_etag` text");
+				db.execSQL("ALTER TABLE `instances` ADD `emojis_etag` text");
+			}
+			if(oldVersion<5){
+				createEmojisTable(db);
+				migrateEmojis(db);
+			}
+		}
+
+		private void createEmojisTable(SQLiteDatabase db){
+			db.execSQL("""
+						CREATE TABLE `emojis` (
+							`domain` text NOT NULL,
+							`shortcode` text NOT NULL,
+							`url` text NOT NULL,
+							`static_url` text NOT NULL,
+							`visible_in_picker` integer NOT NULL,
+							`category` text,
+							`position` integer NOT NULL,
+							PRIMARY KEY(`domain`, `shortcode`)
+						)""");
+			db.execSQL("CREATE INDEX `emojis_domain_category` ON `emojis`(`domain`, `category`)");
+		}
+
+		/**
+		 * Moves the emojis from the JSON arrays in `instances`.`emojis` to their own table. The column stays, but is emptied.
+		 */
+		private void migrateEmojis(SQLiteDatabase db){
+			ArrayList<String> domains=new ArrayList<>();
+			try(Cursor cursor=db.rawQuery("SELECT `domain` FROM `instances` WHERE `emojis` IS NOT NULL", null)){
+				while(cursor.moveToNext()){
+					domains.add(cursor.getString(0));
+				}
+			}
+			for(String domain:domains){
+				try{
+					// The string can be larger than a cursor window, so it's read in chunks
+					long length=DatabaseUtils.longForQuery(db, "SELECT length(`emojis`) FROM `instances` WHERE `domain`=?", new String[]{domain});
+					StringBuilder sb=new StringBuilder();
+					final int pageSize=1000000;
+					for(long start=1;start<=length;start+=pageSize){
+						sb.append(DatabaseUtils.stringForQuery(db, "SELECT substr(`emojis`, ?, ?) FROM `instances` WHERE `domain`=?", new String[]{String.valueOf(start), String.valueOf(pageSize), domain}));
+					}
+					List<Emoji> emojis=MastodonAPIController.gson.fromJson(sb.toString(), new TypeToken<List<Emoji>>(){}.getType());
+					if(emojis!=null)
+						updateEmojisInDatabase(db, domain, emojis);
+				}catch(Exception x){
+					Log.w(TAG, "Error migrating emojis for "+domain, x);
+					// Force them to be reloaded
+					db.execSQL("UPDATE `instances` SET `last_updated`=0 WHERE `domain`=?", new Object[]{domain});
+				}
+			}
+			db.execSQL("UPDATE `instances` SET `emojis`=NULL");
 		}
 
 		private void createAccountsTable(SQLiteDatabase db){
@@ -795,8 +1048,8 @@ public class AccountSessionManager{
 					File file=new File(MastodonApp.context.getFilesDir(), "instance_"+domain.replace('.', '_')+".json");
 					try(FileInputStream in=new FileInputStream(file)){
 						JsonObject jobj=JsonParser.parseReader(new InputStreamReader(in, StandardCharsets.UTF_8)).getAsJsonObject();
-						insertInstanceIntoDatabase(db, domain, MastodonAPIController.gson.fromJson(jobj.get(jobj.has("instance") ? "instance" : "a"), Instance.class),
-								MastodonAPIController.gson.fromJson(jobj.get("emojis"), new TypeToken<>(){}.getType()), jobj.get("last_updated").getAsLong());
+						// The emojis will be loaded again
+						insertInstanceIntoDatabase(db, domain, MastodonAPIController.gson.fromJson(jobj.get(jobj.has("instance") ? "instance" : "a"), Instance.class), null, 0);
 					}catch(Exception x){
 						Log.w(TAG, "Error reading instance info file for "+domain, x);
 					}
@@ -0,0 +1,13 @@
+package org.joinmastodon.android.events;
+
+import org.joinmastodon.android.model.Notification;
+
+public class StreamingNotificationEvent{
+	public final String accountID;
+	public final Notification notification;
+
+	public StreamingNotificationEvent(String accountID, Notification notification){
+		this.accountID=accountID;
+		this.notification=notification;
+	}
+}
@@ -0,0 +1,11 @@
+package org.joinmastodon.android.events;
+
+public class StreamingStateChangedEvent{
+	public final String accountID;
+	public final boolean connected;
+
+	public StreamingStateChangedEvent(String accountID, boolean connected){
+		this.accountID=accountID;
+		this.connected=connected;
+	}
+}
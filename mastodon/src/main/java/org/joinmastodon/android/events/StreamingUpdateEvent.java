@@ -0,0 +1,16 @@
+package org.joinmastodon.android.events;
+
+import org.joinmastodon.android.api.StreamingClient;
+import org.joinmastodon.android.model.Status;
+
+public class StreamingUpdateEvent{
+	public final String accountID;
+	public final StreamingClient.Stream stream;
+	public final Status status;
+
+	public StreamingUpdateEvent(String accountID, StreamingClient.Stream stream, Status status){
+		this.accountID=accountID;
+		this.stream=stream;
+		this.status=status;
+	}
+}
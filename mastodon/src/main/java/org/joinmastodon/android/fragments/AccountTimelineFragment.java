@@ -7,21 +7,19 @@ import android.widget.HorizontalScrollView;
 import android.widget.LinearLayout;
 
 import org.joinmastodon.android.R;
+import org.joinmastodon.android.api.TimelineKey;
 import org.joinmastodon.android.api.requests.accounts.GetAccountStatuses;
 import org.joinmastodon.android.api.session.AccountSessionManager;
 import org.joinmastodon.android.events.RemoveAccountPostsEvent;
 import org.joinmastodon.android.model.Account;
-import org.joinmastodon.android.model.FilterContext;
 import org.joinmastodon.android.model.Status;
 import org.joinmastodon.android.ui.drawables.EmptyDrawable;
 import org.joinmastodon.android.ui.views.FilterChipView;
 import org.parceler.Parcels;
 
 import java.util.Collections;
-import java.util.List;
 
 import androidx.recyclerview.widget.RecyclerView;
-import me.grishka.appkit.api.SimpleCallback;
 import me.grishka.appkit.utils.MergeRecyclerAdapter;
 import me.grishka.appkit.utils.SingleViewRecyclerAdapter;
 import me.grishka.appkit.utils.V;
@@ -57,18 +55,12 @@ public class AccountTimelineFragment extends StatusListFragment{
 
 	@Override
 	protected void doLoadData(int offset, int count){
-		currentRequest=new GetAccountStatuses(user.id, offset>0 ? getMaxID() : null, null, count, filter, null)
-				.setCallback(new SimpleCallback<>(this){
-					@Override
-					public void onSuccess(List<Status> result){
-						if(getActivity()==null)
-							return;
-						boolean empty=result.isEmpty();
-						AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.ACCOUNT);
-						onDataLoaded(result, !empty);
-					}
-				})
-				.exec(accountID);
+		loadTimeline(offset, count);
+	}
+
+	@Override
+	protected TimelineKey getTimelineKey(){
+		return TimelineKey.account(user.id, filter);
 	}
 
 	@Override
@@ -153,7 +145,6 @@ public class AccountTimelineFragment extends StatusListFragment{
 		GetAccountStatuses.Filter newFilter=(GetAccountStatuses.Filter) v.getTag();
 		if(newFilter==filter)
 			return;
-		// TODO maybe cache the filtered timelines that were already loaded?
 		if(currentRequest!=null){
 			currentRequest.cancel();
 			currentRequest=null;
@@ -18,10 +18,9 @@ import android.widget.Toolbar;
 import org.joinmastodon.android.E;
 import org.joinmastodon.android.GlobalUserPreferences;
 import org.joinmastodon.android.R;
-import org.joinmastodon.android.api.requests.accounts.GetAccountRelationships;
+import org.joinmastodon.android.api.StatusHydrator;
 import org.joinmastodon.android.api.requests.polls.SubmitPollVote;
 import org.joinmastodon.android.api.requests.statuses.GetStatusByID;
-import org.joinmastodon.android.api.requests.statuses.GetStatusesByIDs;
 import org.joinmastodon.android.api.requests.statuses.TranslateStatus;
 import org.joinmastodon.android.api.session.AccountSessionManager;
 import org.joinmastodon.android.events.PollUpdatedEvent;
@@ -61,6 +60,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -123,17 +123,30 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 
 	@Override
 	public void onAppendItems(List<T> items){
-		super.onAppendItems(items);
+		// Checked one item at a time, cached pages are only decoded as they're iterated here
+		ArrayList<T> shownItems=new ArrayList<>(items.size());
 		for(T s:items){
+			if(!shouldShowItem(s))
+				continue;
+			shownItems.add(s);
 			addAccountToKnown(s);
 		}
-		postprocessNewlyLoadedStatuses(items);
-		for(T s:items){
+		super.onAppendItems(shownItems);
+		postprocessNewlyLoadedStatuses(shownItems);
+		for(T s:shownItems){
 			List<StatusDisplayItem> newItems=buildDisplayItems(s);
 			populateNestedQuotes(newItems);
 			displayItems.addAll(newItems);
 		}
-		loadRelationships(items.stream().map(DisplayItemsParent::getAccountID).filter(Objects::nonNull).collect(Collectors.toSet()));
+		loadRelationships(shownItems.stream().map(DisplayItemsParent::getAccountID).filter(Objects::nonNull).collect(Collectors.toSet()));
+	}
+
+	/**
+	 * @return false to leave an item that was loaded out of the list, e.g. because it matches a filter
+	 */
+	protected boolean shouldShowItem(T item){
+		// Statuses from the cache that couldn't be decoded
+		return item!=null;
 	}
 
 	@Override
@@ -166,12 +179,16 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 	}
 
 	protected void postprocessNewlyLoadedStatuses(List<T> items){
+		StatusHydrator hydrator=AccountSessionManager.get(accountID).getStatusHydrator();
 		for(T item:items){
 			Status status=asStatus(item);
 			if(status!=null){
 				knownStatuses.put(status.id, status);
-				if(status.quote!=null && status.quote.quotedStatus!=null)
+				hydrator.remember(status);
+				if(status.quote!=null && status.quote.quotedStatus!=null){
 					knownStatuses.put(status.quote.quotedStatus.id, status.quote.quotedStatus);
+					hydrator.remember(status.quote.quotedStatus);
+				}
 			}
 		}
 	}
@@ -181,25 +198,7 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 		ArrayList<StatusDisplayItem> itemsWithMissingStatuses=new ArrayList<>();
 		populateNestedQuotes(items, needExtraStatuses, itemsWithMissingStatuses);
 		if(!needExtraStatuses.isEmpty()){
-			APIRequest<?>[] req=new APIRequest[1];
-			req[0]=new GetStatusesByIDs(needExtraStatuses)
-					.setCallback(new Callback<>(){
-						@Override
-						public void onSuccess(List<Status> result){
-							requestsToCancelWhenListClears.remove(req[0]);
-							for(Status s:result){
-								knownStatuses.put(s.id, s);
-							}
-							populateNestedQuotes(itemsWithMissingStatuses, null, null);
-						}
-
-						@Override
-						public void onError(ErrorResponse error){
-							requestsToCancelWhenListClears.remove(req[0]);
-						}
-					})
-					.exec(accountID);
-			requestsToCancelWhenListClears.add(req[0]);
+			loadExtraStatuses(needExtraStatuses, ()->populateNestedQuotes(itemsWithMissingStatuses, null, null));
 		}
 	}
 
@@ -698,26 +697,43 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 		ids=ids.stream().filter(id->!relationships.containsKey(id)).collect(Collectors.toSet());
 		if(ids.isEmpty())
 			return;
-		// TODO somehow manage these and cancel outstanding requests on refresh
-		new GetAccountRelationships(ids)
-				.setCallback(new Callback<>(){
-					@Override
-					public void onSuccess(List<Relationship> result){
-						for(Relationship r:result)
-							relationships.put(r.id, r);
-						onRelationshipsLoaded();
-					}
-
-					@Override
-					public void onError(ErrorResponse error){
+		APIRequest<?>[] req={null};
+		req[0]=AccountSessionManager.get(accountID).getRelationshipLoader().load(ids, new Callback<>(){
+			@Override
+			public void onSuccess(Map<String, Relationship> result){
+				requestsToCancelWhenListClears.remove(req[0]);
+				relationships.putAll(result);
+				onRelationshipsLoaded();
+			}
 
-					}
-				})
-				.exec(accountID);
+			@Override
+			public void onError(ErrorResponse error){
+				requestsToCancelWhenListClears.remove(req[0]);
+			}
+		});
+		requestsToCancelWhenListClears.add(req[0]);
 	}
 
-	protected void loadExtraStatuses(Set<String> ids){
+	/**
+	 * Load statuses that are referenced by items in this list but weren't included in the response, and put them into {@link #knownStatuses}.
+	 * Requests from all fragments are batched together and statuses already loaded elsewhere aren't loaded again.
+	 */
+	protected void loadExtraStatuses(Set<String> ids, Runnable onLoaded){
+		APIRequest<?>[] req={null};
+		req[0]=AccountSessionManager.get(accountID).getStatusHydrator().load(ids, new Callback<>(){
+			@Override
+			public void onSuccess(Map<String, Status> result){
+				requestsToCancelWhenListClears.remove(req[0]);
+				knownStatuses.putAll(result);
+				onLoaded.run();
+			}
 
+			@Override
+			public void onError(ErrorResponse error){
+				requestsToCancelWhenListClears.remove(req[0]);
+			}
+		});
+		requestsToCancelWhenListClears.add(req[0]);
 	}
 
 	protected void onRelationshipsLoaded(){}
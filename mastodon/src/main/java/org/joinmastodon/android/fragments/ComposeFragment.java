@@ -66,7 +66,6 @@ import org.joinmastodon.android.events.StatusUpdatedEvent;
 import org.joinmastodon.android.fragments.account_list.AccountSearchFragment;
 import org.joinmastodon.android.model.Account;
 import org.joinmastodon.android.model.Emoji;
-import org.joinmastodon.android.model.EmojiCategory;
 import org.joinmastodon.android.model.Instance;
 import org.joinmastodon.android.model.Mention;
 import org.joinmastodon.android.model.Preferences;
@@ -158,7 +157,6 @@ public class ComposeFragment extends MastodonToolbarFragment implements ComposeE
 	private View autocompleteDivider;
 	private FrameLayout quotedPostWrap;
 
-	private List<EmojiCategory> customEmojis;
 	private CustomEmojiPopupKeyboard emojiKeyboard;
 	private Status replyTo;
 	private Status quotedStatus;
@@ -209,7 +207,6 @@ public class ComposeFragment extends MastodonToolbarFragment implements ComposeE
 		AccountSession session=AccountSessionManager.getInstance().getAccount(accountID);
 		self=session.self;
 		instanceDomain=session.domain;
-		customEmojis=AccountSessionManager.getInstance().getCustomEmojis(instanceDomain);
 		instance=AccountSessionManager.getInstance().getInstanceInfo(instanceDomain);
 		if(getArguments().containsKey("editStatus")){
 			editingStatus=Parcels.unwrap(getArguments().getParcelable("editStatus"));
@@ -218,8 +215,11 @@ public class ComposeFragment extends MastodonToolbarFragment implements ComposeE
 			Nav.finish(this);
 			return;
 		}
-		if(customEmojis.isEmpty()){
+		if(!AccountSessionManager.getInstance().hasCustomEmojis(instanceDomain)){
 			AccountSessionManager.getInstance().updateInstanceInfo(instanceDomain);
+		}else{
+			// For the emoji keyboard and autocomplete
+			AccountSessionManager.getInstance().preloadCustomEmojis(instanceDomain);
 		}
 
 		if(instance.maxTootChars>0)
@@ -246,6 +246,13 @@ public class ComposeFragment extends MastodonToolbarFragment implements ComposeE
 		removeBackCallback(discardConfirmationCallback);
 	}
 
+	@Override
+	public void onDestroyView(){
+		super.onDestroyView();
+		if(emojiKeyboard!=null)
+			E.unregister(emojiKeyboard);
+	}
+
 	@Override
 	public void onAttach(Activity activity){
 		super.onAttach(activity);
@@ -265,7 +272,7 @@ public class ComposeFragment extends MastodonToolbarFragment implements ComposeE
 	@Override
 	public View onCreateContentView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState){
 		creatingView=true;
-		emojiKeyboard=new CustomEmojiPopupKeyboard(getActivity(), customEmojis, instanceDomain);
+		emojiKeyboard=new CustomEmojiPopupKeyboard(getActivity(), instanceDomain);
 		emojiKeyboard.setListener(new CustomEmojiPopupKeyboard.Listener(){
 			@Override
 			public void onEmojiSelected(Emoji emoji){
@@ -279,6 +286,7 @@ public class ComposeFragment extends MastodonToolbarFragment implements ComposeE
 			}
 		});
 		emojiKeyboardHider=emojiKeyboard::hide;
+		E.register(emojiKeyboard);
 
 		View view=inflater.inflate(R.layout.fragment_compose, container, false);
 		mainLayout=view.findViewById(R.id.compose_main_ll);
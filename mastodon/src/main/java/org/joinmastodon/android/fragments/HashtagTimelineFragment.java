@@ -15,25 +15,20 @@ import android.widget.TextView;
 
 import org.joinmastodon.android.R;
 import org.joinmastodon.android.api.MastodonErrorResponse;
+import org.joinmastodon.android.api.StreamingClient;
+import org.joinmastodon.android.api.TimelineKey;
 import org.joinmastodon.android.api.requests.tags.GetTag;
 import org.joinmastodon.android.api.requests.tags.SetTagFollowed;
-import org.joinmastodon.android.api.requests.timelines.GetHashtagTimeline;
-import org.joinmastodon.android.api.session.AccountSessionManager;
-import org.joinmastodon.android.model.FilterContext;
 import org.joinmastodon.android.model.Hashtag;
-import org.joinmastodon.android.model.Status;
 import org.joinmastodon.android.ui.text.SpacerSpan;
 import org.joinmastodon.android.ui.views.ProgressBarButton;
 import org.parceler.Parcels;
 
-import java.util.List;
-
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 import me.grishka.appkit.Nav;
 import me.grishka.appkit.api.Callback;
 import me.grishka.appkit.api.ErrorResponse;
-import me.grishka.appkit.api.SimpleCallback;
 import me.grishka.appkit.utils.MergeRecyclerAdapter;
 import me.grishka.appkit.utils.SingleViewRecyclerAdapter;
 import me.grishka.appkit.utils.V;
@@ -48,7 +43,6 @@ public class HashtagTimelineFragment extends StatusListFragment{
 	private MenuItem followMenuItem;
 	private boolean followRequestRunning;
 	private boolean toolbarContentVisible;
-	private String maxID;
 
 	public HashtagTimelineFragment(){
 		setListLayoutId(R.layout.recycler_fragment_with_fab);
@@ -69,17 +63,17 @@ public class HashtagTimelineFragment extends StatusListFragment{
 
 	@Override
 	protected void doLoadData(int offset, int count){
-		currentRequest=new GetHashtagTimeline(hashtagName, offset==0 ? null : maxID, null, count)
-				.setCallback(new SimpleCallback<>(this){
-					@Override
-					public void onSuccess(List<Status> result){
-						if(!result.isEmpty())
-							maxID=result.get(result.size()-1).id;
-						AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.PUBLIC);
-						onDataLoaded(result, !result.isEmpty());
-					}
-				})
-				.exec(accountID);
+		loadTimeline(offset, count);
+	}
+
+	@Override
+	protected TimelineKey getTimelineKey(){
+		return TimelineKey.hashtag(hashtagName);
+	}
+
+	@Override
+	protected StreamingClient.Stream getStream(){
+		return StreamingClient.Stream.hashtag(hashtagName);
 	}
 
 	@Override
@@ -22,12 +22,15 @@ import org.joinmastodon.android.BuildConfig;
 import org.joinmastodon.android.E;
 import org.joinmastodon.android.PushNotificationReceiver;
 import org.joinmastodon.android.R;
+import org.joinmastodon.android.api.MastodonAPIRequest;
+import org.joinmastodon.android.api.StreamingClient;
 import org.joinmastodon.android.api.requests.notifications.GetNotificationsV1;
 import org.joinmastodon.android.api.requests.notifications.GetUnreadNotificationsCount;
 import org.joinmastodon.android.api.session.AccountSession;
 import org.joinmastodon.android.api.session.AccountSessionManager;
 import org.joinmastodon.android.events.NotificationsMarkerUpdatedEvent;
 import org.joinmastodon.android.events.StatusDisplaySettingsChangedEvent;
+import org.joinmastodon.android.events.StreamingNotificationEvent;
 import org.joinmastodon.android.fragments.discover.DiscoverFragment;
 import org.joinmastodon.android.fragments.onboarding.OnboardingFollowSuggestionsFragment;
 import org.joinmastodon.android.model.Account;
@@ -70,6 +73,8 @@ public class HomeFragment extends AppKitFragment implements AssistContentProvide
 	@IdRes
 	private int currentTab=R.id.tab_home;
 	private TextView notificationsBadge;
+	private int unreadNotificationsCount;
+	private boolean moreUnreadNotifications;
 
 	private String accountID;
 
@@ -290,6 +295,15 @@ public class HomeFragment extends AppKitFragment implements AssistContentProvide
 	protected void onShown(){
 		super.onShown();
 		reloadNotificationsForUnreadCount();
+		AccountSessionManager.get(accountID).getStreamingClient().subscribe(StreamingClient.Stream.USER);
+	}
+
+	@Override
+	protected void onHidden(){
+		super.onHidden();
+		AccountSession session=AccountSessionManager.getInstance().tryGetAccount(accountID);
+		if(session!=null)
+			session.getStreamingClient().unsubscribe(StreamingClient.Stream.USER);
 	}
 
 	private void reloadNotificationsForUnreadCount(){
@@ -298,6 +312,7 @@ public class HomeFragment extends AppKitFragment implements AssistContentProvide
 			return;
 		if(instance.getApiVersion()>=2){
 			new GetUnreadNotificationsCount(EnumSet.allOf(NotificationType.class), NotificationType.getGroupableTypes())
+					.setPriority(MastodonAPIRequest.Priority.BACKGROUND)
 					.setCallback(new Callback<>(){
 						@Override
 						public void onSuccess(GetUnreadNotificationsCount.Response result){
@@ -321,6 +336,7 @@ public class HomeFragment extends AppKitFragment implements AssistContentProvide
 			});
 
 			new GetNotificationsV1(null, 40, EnumSet.allOf(NotificationType.class))
+					.setPriority(MastodonAPIRequest.Priority.BACKGROUND)
 					.setCallback(new Callback<>(){
 						@Override
 						public void onSuccess(List<Notification> result){
@@ -355,6 +371,8 @@ public class HomeFragment extends AppKitFragment implements AssistContentProvide
 	}
 
 	private void updateUnreadNotificationsBadge(int count, boolean more){
+		unreadNotificationsCount=count;
+		moreUnreadNotifications=more;
 		if(count==0){
 			notificationsBadge.setVisibility(View.GONE);
 		}else{
@@ -368,7 +386,14 @@ public class HomeFragment extends AppKitFragment implements AssistContentProvide
 		if(!ev.accountID.equals(accountID))
 			return;
 		if(ev.clearUnread)
-			notificationsBadge.setVisibility(View.GONE);
+			updateUnreadNotificationsBadge(0, false);
+	}
+
+	@Subscribe
+	public void onStreamingNotification(StreamingNotificationEvent ev){
+		if(!ev.accountID.equals(accountID) || currentTab==R.id.tab_notifications)
+			return;
+		updateUnreadNotificationsBadge(unreadNotificationsCount+1, moreUnreadNotifications);
 	}
 
 	@Subscribe
@@ -41,18 +41,20 @@ import com.squareup.otto.Subscribe;
 import org.joinmastodon.android.BuildConfig;
 import org.joinmastodon.android.E;
 import org.joinmastodon.android.R;
+import org.joinmastodon.android.api.CacheController;
 import org.joinmastodon.android.api.MastodonAPIRequest;
+import org.joinmastodon.android.api.StreamingClient;
+import org.joinmastodon.android.api.TimelineKey;
 import org.joinmastodon.android.api.requests.catalog.GetDonationCampaigns;
 import org.joinmastodon.android.api.requests.markers.SaveMarkers;
-import org.joinmastodon.android.api.requests.timelines.GetHomeTimeline;
-import org.joinmastodon.android.api.requests.timelines.GetListTimeline;
-import org.joinmastodon.android.api.requests.timelines.GetPublicTimeline;
+import org.joinmastodon.android.api.session.AccountSession;
 import org.joinmastodon.android.api.session.AccountSessionManager;
 import org.joinmastodon.android.events.DismissDonationCampaignBannerEvent;
 import org.joinmastodon.android.events.SelfUpdateStateChangedEvent;
+import org.joinmastodon.android.events.StreamingStateChangedEvent;
+import org.joinmastodon.android.events.StreamingUpdateEvent;
 import org.joinmastodon.android.fragments.settings.SettingsMainFragment;
 import org.joinmastodon.android.model.CacheablePaginatedResponse;
-import org.joinmastodon.android.model.FilterContext;
 import org.joinmastodon.android.model.FollowList;
 import org.joinmastodon.android.model.Status;
 import org.joinmastodon.android.model.TimelineMarkers;
@@ -69,6 +71,7 @@ import org.joinmastodon.android.ui.views.FixedAspectRatioImageView;
 import org.joinmastodon.android.ui.views.NestedRecyclerScrollView;
 import org.joinmastodon.android.ui.views.NewPostsButtonContainer;
 import org.joinmastodon.android.updater.GithubSelfUpdater;
+import org.joinmastodon.android.utils.StartupTimer;
 import org.parceler.Parcels;
 
 import java.util.ArrayList;
@@ -122,6 +125,12 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 	private DonationCampaign currentDonationCampaign;
 	private BottomSheet donationSheet;
 
+	private StreamingClient.Stream currentStream;
+	private boolean loadNewPostsAfterLoading;
+	private boolean reloadingFromCache;
+	private SnapshotState snapshotState=SnapshotState.NONE;
+	private List<Status> pendingSnapshot;
+
 	public HomeTimelineFragment(){
 		setLayout(R.layout.fragment_loader_hiding_toolbar);
 		setListLayoutId(R.layout.fragment_timeline);
@@ -137,6 +146,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 			if(getActivity().getSharedPreferences("debug", Context.MODE_PRIVATE).getBoolean("donationsStaging", false)){
 				req.setStaging(true);
 			}
+			req.setPriority(MastodonAPIRequest.Priority.BACKGROUND);
 			req.setCallback(new Callback<>(){
 						@Override
 						public void onSuccess(DonationCampaign result){
@@ -209,60 +219,87 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 
 	@Override
 	protected void doLoadData(int offset, int count){
-		switch(listMode){
-			case FOLLOWING -> {
-				AccountSessionManager.getInstance()
-						.getAccount(accountID).getCacheController()
-						.getHomeTimeline(offset>0 ? maxID : null, count, refreshing, new SimpleCallback<>(this){
-							@Override
-							public void onSuccess(CacheablePaginatedResponse<List<Status>> result){
-								if(getActivity()==null || listMode!=ListMode.FOLLOWING)
-									return;
-								if(refreshing)
-									list.scrollToPosition(0);
-								onDataLoaded(result.items, !result.items.isEmpty());
-								maxID=result.maxID;
-								if(result.isFromCache())
-									loadNewPosts();
-							}
-
-							@Override
-							public void onError(ErrorResponse error){
-								if(listMode!=ListMode.FOLLOWING)
-									return;
-								super.onError(error);
-							}
-						});
-			}
-			case LOCAL -> {
-				currentRequest=new GetPublicTimeline(true, false, offset>0 ? maxID : null, null, count, null)
-						.setCallback(new SimpleCallback<>(this){
-							@Override
-							public void onSuccess(List<Status> result){
-								if(refreshing)
-									list.scrollToPosition(0);
-								maxID=result.isEmpty() ? null : result.get(result.size()-1).id;
-								AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.PUBLIC);
-								onDataLoaded(result, !result.isEmpty());
-							}
-						})
-						.exec(accountID);
+		TimelineKey key=getTimelineKey();
+		CacheController cache=AccountSessionManager.getInstance().getAccount(accountID).getCacheController();
+		if(offset==0 && !loaded && !refreshing && listMode==ListMode.FOLLOWING && snapshotState==SnapshotState.NONE){
+			snapshotState=SnapshotState.LOADING;
+			cache.getHomeTimelineSnapshot(snapshot->{
+				// Too late if the first page or an error came first, or the timeline was switched
+				if(snapshotState!=SnapshotState.LOADING || getActivity()==null)
+					return;
+				if(snapshot==null){
+					snapshotState=SnapshotState.NONE;
+					return;
+				}
+				snapshotState=SnapshotState.SHOWN;
+				// The first load can start before the view is created
+				if(list==null)
+					pendingSnapshot=snapshot;
+				else
+					showSnapshot(snapshot);
+			});
+		}
+		cache.getTimeline(key, offset>0 ? maxID : null, count, refreshing && !reloadingFromCache, true, new SimpleCallback<>(this){
+			@Override
+			public void onSuccess(CacheablePaginatedResponse<List<Status>> result){
+				if(getActivity()==null || !key.equals(getTimelineKey()))
+					return;
+				reloadingFromCache=false;
+				if(snapshotState==SnapshotState.SHOWN){
+					// The first page replaces the snapshot instead of being appended to it
+					pendingSnapshot=null;
+					data.clear();
+					onClearItems();
+					adapter.notifyDataSetChanged();
+				}
+				if(refreshing || snapshotState==SnapshotState.SHOWN)
+					list.scrollToPosition(0);
+				snapshotState=SnapshotState.NONE;
+				onDataLoaded(result.items, !result.items.isEmpty());
+				StartupTimer.markOnNextFrame(list, StartupTimer.Step.FIRST_CONTENT_FRAME);
+				maxID=result.maxID;
+				if(result.isFromCache() || loadNewPostsAfterLoading)
+					loadNewPosts();
 			}
-			case LIST -> {
-				currentRequest=new GetListTimeline(currentList.id, offset>0 ? maxID : null, null, count, null)
-						.setCallback(new SimpleCallback<>(this){
-							@Override
-							public void onSuccess(List<Status> result){
-								if(refreshing)
-									list.scrollToPosition(0);
-								maxID=result.isEmpty() ? null : result.get(result.size()-1).id;
-								AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.HOME);
-								onDataLoaded(result, !result.isEmpty());
-							}
-						})
-						.exec(accountID);
+
+			@Override
+			public void onError(ErrorResponse error){
+				if(!key.equals(getTimelineKey()))
+					return;
+				reloadingFromCache=false;
+				if(snapshotState==SnapshotState.SHOWN){
+					// Keep showing the snapshot, it's replaced once a page loads
+					dataLoading=false;
+					if(refreshing)
+						refreshDone();
+					return;
+				}
+				snapshotState=SnapshotState.NONE;
+				super.onError(error);
 			}
-		}
+		});
+	}
+
+	/**
+	 * Shows the top of the timeline as it was when the app was last in the background, while the first page is loaded
+	 * from the cache. The first page then replaces it. This isn't onDataLoaded() because nothing has been loaded yet:
+	 * the loading state stays as it is, and the timeline isn't considered loaded until the first page arrives.
+	 */
+	private void showSnapshot(List<Status> snapshot){
+		// Filtered in shouldShowItem like a cached page, the filters may have changed since it was saved
+		onAppendItems(snapshot);
+		adapter.notifyDataSetChanged();
+		showContent();
+		StartupTimer.markOnNextFrame(list, StartupTimer.Step.SNAPSHOT_FRAME);
+	}
+
+	@Override
+	protected TimelineKey getTimelineKey(){
+		return switch(listMode){
+			case FOLLOWING -> TimelineKey.HOME;
+			case LOCAL -> TimelineKey.LOCAL;
+			case LIST -> TimelineKey.list(currentList.id);
+		};
 	}
 
 	@SuppressLint("ClickableViewAccessibility")
@@ -341,6 +378,10 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 		}
 		if(currentDonationCampaign!=null)
 			showDonationBanner(currentDonationCampaign);
+		if(pendingSnapshot!=null){
+			showSnapshot(pendingSnapshot);
+			pendingSnapshot=null;
+		}
 	}
 
 	@Override
@@ -393,6 +434,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 	@Override
 	protected void onShown(){
 		super.onShown();
+		subscribeToStream();
 		if(!getArguments().getBoolean("noAutoLoad")){
 			if(!loaded && !dataLoading){
 				loadData();
@@ -405,11 +447,13 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 	@Override
 	protected void onHidden(){
 		super.onHidden();
+		unsubscribeFromStream();
 		if(!data.isEmpty() && listMode==ListMode.FOLLOWING){
 			String topPostID=displayItems.get(Math.max(0, list.getChildAdapterPosition(list.getChildAt(0))-getMainAdapterOffset())).parentID;
 			if(!topPostID.equals(lastSavedMarkerID)){
 				lastSavedMarkerID=topPostID;
 				new SaveMarkers(topPostID, null)
+						.setPriority(MastodonAPIRequest.Priority.BACKGROUND)
 						.setCallback(new Callback<>(){
 							@Override
 							public void onSuccess(TimelineMarkers result){
@@ -425,6 +469,13 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 		}
 	}
 
+	@Override
+	public void onStop(){
+		super.onStop();
+		if(loaded && snapshotState!=SnapshotState.SHOWN && listMode==ListMode.FOLLOWING && !data.isEmpty())
+			AccountSessionManager.get(accountID).getCacheController().putHomeTimelineSnapshot(data);
+	}
+
 	public void onStatusCreated(Status status){
 		prependItems(Collections.singletonList(status), true);
 	}
@@ -437,11 +488,12 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 
 	private void loadNewPosts(){
 		dataLoading=true;
+		loadNewPostsAfterLoading=false;
 		// The idea here is that we request the timeline such that if there are fewer than `limit` posts,
 		// we'll get the currently topmost post as last in the response. This way we know there's no gap
 		// between the existing and newly loaded parts of the timeline.
 		String sinceID=data.size()>1 ? data.get(1).id : "1";
-		boolean needCache=listMode==ListMode.FOLLOWING;
+		TimelineKey key=getTimelineKey();
 		loadAdditionalPosts(null, null, 20, sinceID, new Callback<>(){
 					@Override
 					public void onSuccess(List<Status> result){
@@ -461,13 +513,11 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 							toAdd=new ArrayList<>(toAdd);
 						Set<String> existingPostIDs=data.stream().map(s->s.id).collect(Collectors.toSet());
 						toAdd.removeIf(s->existingPostIDs.contains(s.id));
-						if(needCache)
-							AccountSessionManager.get(accountID).filterStatuses(toAdd, FilterContext.HOME);
+						AccountSessionManager.get(accountID).filterStatuses(toAdd, key.getFilterContext());
 						if(!toAdd.isEmpty()){
 							prependItems(toAdd, true);
 							showNewPostsButton();
-							if(needCache)
-								AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(new ArrayList<>(toAdd), false);
+							AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putTimeline(key, new ArrayList<>(toAdd), false);
 						}
 					}
 
@@ -479,6 +529,66 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 				});
 	}
 
+	private StreamingClient.Stream getStreamForListMode(){
+		return switch(listMode){
+			case FOLLOWING -> StreamingClient.Stream.USER;
+			case LOCAL -> StreamingClient.Stream.LOCAL;
+			case LIST -> StreamingClient.Stream.list(currentList.id);
+		};
+	}
+
+	private void subscribeToStream(){
+		if(currentStream!=null)
+			return;
+		currentStream=getStreamForListMode();
+		AccountSessionManager.get(accountID).getStreamingClient().subscribe(currentStream);
+	}
+
+	private void unsubscribeFromStream(){
+		if(currentStream==null)
+			return;
+		AccountSession session=AccountSessionManager.getInstance().tryGetAccount(accountID);
+		if(session!=null)
+			session.getStreamingClient().unsubscribe(currentStream);
+		currentStream=null;
+	}
+
+	@Subscribe
+	public void onStreamingStateChanged(StreamingStateChangedEvent ev){
+		if(!ev.accountID.equals(accountID) || !ev.connected || currentStream==null || !loaded)
+			return;
+		// Whatever was posted while we weren't connected has to be fetched the regular way. This also takes care of gaps.
+		if(dataLoading)
+			loadNewPostsAfterLoading=true;
+		else
+			loadNewPosts();
+	}
+
+	@Subscribe
+	public void onStreamingUpdate(StreamingUpdateEvent ev){
+		if(!ev.accountID.equals(accountID) || currentStream==null || !currentStream.equals(ev.stream))
+			return;
+		if(!loaded || dataLoading){
+			loadNewPostsAfterLoading=true;
+			return;
+		}
+		if(loadNewPostsAfterLoading){
+			loadNewPosts();
+			return;
+		}
+		if(getStatusByID(ev.status.id)!=null)
+			return;
+		ArrayList<Status> toAdd=new ArrayList<>();
+		toAdd.add(ev.status);
+		TimelineKey key=getTimelineKey();
+		AccountSessionManager.get(accountID).filterStatuses(toAdd, key.getFilterContext());
+		if(toAdd.isEmpty())
+			return;
+		prependItems(toAdd, true);
+		showNewPostsButton();
+		AccountSessionManager.get(accountID).getCacheController().putTimeline(key, toAdd, false);
+	}
+
 	@Override
 	public void onGapClick(GapStatusDisplayItem.Holder item){
 		if(dataLoading)
@@ -488,7 +598,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 		V.setVisibilityAnimated(item.progress, View.VISIBLE);
 		V.setVisibilityAnimated(item.text, View.GONE);
 		dataLoading=true;
-		boolean needCache=listMode==ListMode.FOLLOWING;
+		TimelineKey key=getTimelineKey();
 		boolean insertBelowGap=!gap.enteredFromTop;
 		String maxID, minID;
 		if(gap.enteredFromTop){
@@ -524,8 +634,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 							Status gapStatus=getStatusByID(gap.parentID);
 							if(gapStatus!=null){
 								gapStatus.hasGapAfter=false;
-								if(needCache)
-									AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(List.of(gapStatus), false);
+								AccountSessionManager.getInstance().getAccount(accountID).getCacheController().setTimelineGap(key, gapStatus.id, false);
 							}
 						}else if(insertBelowGap){
 							Set<String> idsBelowGap=new HashSet<>();
@@ -537,8 +646,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 								}else if(s.id.equals(gap.parentID)){
 									belowGap=true;
 									s.hasGapAfter=false;
-									if(needCache)
-										AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(List.of(s), false);
+									AccountSessionManager.getInstance().getAccount(accountID).getCacheController().setTimelineGap(key, s.id, false);
 								}else{
 									gapPostIndex++;
 								}
@@ -554,8 +662,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 							}else{
 								result=result.subList(0, endIndex);
 							}
-							if(needCache)
-								AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.HOME);
+							AccountSessionManager.get(accountID).filterStatuses(result, key.getFilterContext());
 							List<StatusDisplayItem> targetList=displayItems.subList(gapPos, gapPos+1); // Get a sub-list that contains the gap item
 							targetList.clear(); // remove the gap item
 							List<Status> insertedPosts=data.subList(gapPostIndex+1, gapPostIndex+1);
@@ -572,8 +679,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 								adapter.notifyItemChanged(getMainAdapterOffset()+gapPos);
 								adapter.notifyItemRangeInserted(getMainAdapterOffset()+gapPos+1, targetList.size()-1);
 							}
-							if(needCache)
-								AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(new ArrayList<>(insertedPosts), false);
+							AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putTimeline(key, new ArrayList<>(insertedPosts), false);
 						}else{
 							Set<String> idsAboveGap=new HashSet<>();
 							int gapPostIndex=0;
@@ -613,8 +719,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 							if(insertedPosts.size()<result.size()){ // There was an intersection, remove the gap
 								gapRemoved=true;
 								gapPost.hasGapAfter=false;
-								if(needCache)
-									AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(List.of(gapPost), false);
+								AccountSessionManager.getInstance().getAccount(accountID).getCacheController().setTimelineGap(key, gapPost.id, false);
 								displayItems.remove(gapPos);
 								adapter.notifyItemRemoved(getMainAdapterOffset()+gapPos);
 							}else{
@@ -622,8 +727,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 								adapter.notifyItemChanged(getMainAdapterOffset()+gapPos);
 							}
 							if(!insertedPosts.isEmpty()){
-								if(needCache)
-									AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(new ArrayList<>(insertedPosts), false);
+								AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putTimeline(key, new ArrayList<>(insertedPosts), false);
 								adapter.notifyItemRangeInserted(getMainAdapterOffset()+gapPos+(gapRemoved ? 0 : 1), addedItemCount);
 								if(needAdjustScroll){
 									((LinearLayoutManager)list.getLayoutManager()).scrollToPositionWithOffset(getMainAdapterOffset()+gapPos+(gapRemoved ? 0 : 1)+addedItemCount, scrollTop);
@@ -649,11 +753,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 	}
 
 	private void loadAdditionalPosts(String maxID, String minID, int limit, String sinceID, Callback<List<Status>> callback){
-		MastodonAPIRequest<List<Status>> req=switch(listMode){
-			case FOLLOWING -> new GetHomeTimeline(maxID, minID, limit, sinceID);
-			case LOCAL -> new GetPublicTimeline(true, false, maxID, minID, limit, sinceID);
-			case LIST -> new GetListTimeline(currentList.id, maxID, minID, limit, sinceID);
-		};
+		MastodonAPIRequest<List<Status>> req=getTimelineKey().createRequest(maxID, minID, limit, sinceID);
 		currentRequest=req;
 		req.setCallback(callback).exec(accountID);
 	}
@@ -834,6 +934,14 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 			currentRequest=null;
 		}
 		refreshing=true;
+		reloadingFromCache=true;
+		// Whatever is on screen is cleared by the reload, the snapshot can't come back either
+		snapshotState=SnapshotState.NONE;
+		pendingSnapshot=null;
+		if(currentStream!=null){
+			unsubscribeFromStream();
+			subscribeToStream();
+		}
 		showProgress();
 		loadData();
 		listsDropdownText.setText(getCurrentListTitle());
@@ -1018,4 +1126,16 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 		LOCAL,
 		LIST
 	}
+
+	private enum SnapshotState{
+		NONE,
+		/**
+		 * Being read from its file, shown if that finishes before the first page
+		 */
+		LOADING,
+		/**
+		 * On screen (or waiting for the view to be created) until the first page replaces it
+		 */
+		SHOWN
+	}
 }
@@ -6,15 +6,12 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 
 import org.joinmastodon.android.R;
-import org.joinmastodon.android.api.requests.timelines.GetListTimeline;
+import org.joinmastodon.android.api.StreamingClient;
+import org.joinmastodon.android.api.TimelineKey;
 import org.joinmastodon.android.model.FollowList;
-import org.joinmastodon.android.model.Status;
 import org.parceler.Parcels;
 
-import java.util.List;
-
 import me.grishka.appkit.Nav;
-import me.grishka.appkit.api.SimpleCallback;
 
 public class ListTimelineFragment extends StatusListFragment{
 	private FollowList followList;
@@ -30,14 +27,17 @@ public class ListTimelineFragment extends StatusListFragment{
 
 	@Override
 	protected void doLoadData(int offset, int count){
-		currentRequest=new GetListTimeline(followList.id, offset>0 ? getMaxID() : null, null, count, null)
-				.setCallback(new SimpleCallback<>(this){
-					@Override
-					public void onSuccess(List<Status> result){
-						onDataLoaded(result, !result.isEmpty());
-					}
-				})
-				.exec(accountID);
+		loadTimeline(offset, count);
+	}
+
+	@Override
+	protected TimelineKey getTimelineKey(){
+		return TimelineKey.list(followList.id);
+	}
+
+	@Override
+	protected StreamingClient.Stream getStream(){
+		return StreamingClient.Stream.list(followList.id);
 	}
 
 	@Override
@@ -26,6 +26,8 @@ import org.joinmastodon.android.api.requests.notifications.SetNotificationsPolic
 import org.joinmastodon.android.api.session.AccountSessionManager;
 import org.joinmastodon.android.events.PollUpdatedEvent;
 import org.joinmastodon.android.events.RemoveAccountPostsEvent;
+import org.joinmastodon.android.events.StreamingNotificationEvent;
+import org.joinmastodon.android.model.NotificationType;
 import org.joinmastodon.android.model.NotificationsPolicy;
 import org.joinmastodon.android.model.PaginatedResponse;
 import org.joinmastodon.android.model.Status;
@@ -235,6 +237,19 @@ public class NotificationsListFragment extends BaseNotificationsListFragment{
 		return super.needDividerForExtraItem(child, bottomSibling, holder, siblingHolder) || (siblingHolder!=null && siblingHolder.getAbsoluteAdapterPosition()>=adapter.getItemCount()) || holder.getAbsoluteAdapterPosition()<requestsItems.size();
 	}
 
+	@Subscribe
+	public void onStreamingNotification(StreamingNotificationEvent ev){
+		if(!ev.accountID.equals(accountID) || isHidden() || !loaded)
+			return;
+		if(onlyMentions && ev.notification.type!=NotificationType.MENTION)
+			return;
+		// Grouping happens on the server, so reload the first page instead of trying to merge the new notification in
+		if(dataLoading)
+			refreshAfterLoading=true;
+		else if(canRefreshWithoutUpsettingUser())
+			refresh();
+	}
+
 	private void onTabClick(View v){
 		boolean newOnlyMentions=v.getId()==R.id.mentions_tab;
 		if(newOnlyMentions==onlyMentions)
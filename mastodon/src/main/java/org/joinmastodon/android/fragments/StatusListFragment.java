@@ -5,12 +5,21 @@ import android.os.Bundle;
 import com.squareup.otto.Subscribe;
 
 import org.joinmastodon.android.E;
+import org.joinmastodon.android.api.CacheController;
+import org.joinmastodon.android.api.MastodonAPIRequest;
+import org.joinmastodon.android.api.StreamingClient;
+import org.joinmastodon.android.api.TimelineKey;
+import org.joinmastodon.android.api.session.AccountSession;
+import org.joinmastodon.android.api.session.AccountSessionManager;
 import org.joinmastodon.android.events.PollUpdatedEvent;
 import org.joinmastodon.android.events.RemoveAccountPostsEvent;
 import org.joinmastodon.android.events.StatusCountersUpdatedEvent;
 import org.joinmastodon.android.events.StatusCreatedEvent;
 import org.joinmastodon.android.events.StatusDeletedEvent;
 import org.joinmastodon.android.events.StatusUpdatedEvent;
+import org.joinmastodon.android.events.StreamingStateChangedEvent;
+import org.joinmastodon.android.events.StreamingUpdateEvent;
+import org.joinmastodon.android.model.CacheablePaginatedResponse;
 import org.joinmastodon.android.model.Status;
 import org.joinmastodon.android.ui.displayitems.ExtendedFooterStatusDisplayItem;
 import org.joinmastodon.android.ui.displayitems.FooterStatusDisplayItem;
@@ -18,13 +27,20 @@ import org.joinmastodon.android.ui.displayitems.StatusDisplayItem;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import androidx.recyclerview.widget.RecyclerView;
+import me.grishka.appkit.api.Callback;
+import me.grishka.appkit.api.ErrorResponse;
+import me.grishka.appkit.api.SimpleCallback;
 
 public abstract class StatusListFragment extends BaseStatusListFragment<Status>{
 	protected EventListener eventListener=new EventListener();
+	private String timelineMaxID;
+	private MastodonAPIRequest<?> revalidateRequest;
+	private StreamingClient.Stream currentStream;
 
 	protected List<StatusDisplayItem> buildDisplayItems(Status s){
 		return StatusDisplayItem.buildItems(this, s, accountID, s, knownAccounts, true);
@@ -69,6 +85,126 @@ public abstract class StatusListFragment extends BaseStatusListFragment<Status>{
 		return s;
 	}
 
+	@Override
+	protected boolean shouldShowItem(Status item){
+		if(!super.shouldShowItem(item))
+			return false;
+		// Cached pages are decoded lazily and are only filtered here, once each status is actually needed
+		TimelineKey key=getTimelineKey();
+		return key==null || !AccountSessionManager.get(accountID).isFilteredOut(item, key.getFilterContext());
+	}
+
+	/**
+	 * @return the timeline that this fragment shows, if it's one that can be cached
+	 */
+	protected TimelineKey getTimelineKey(){
+		return null;
+	}
+
+	/**
+	 * @return the streaming API channel that has the new posts of {@link #getTimelineKey()}, if they should be added live.
+	 * It's subscribed to while the fragment is shown.
+	 */
+	protected StreamingClient.Stream getStream(){
+		return null;
+	}
+
+	@Override
+	protected void onShown(){
+		super.onShown();
+		if(currentStream==null){
+			currentStream=getStream();
+			if(currentStream!=null)
+				AccountSessionManager.get(accountID).getStreamingClient().subscribe(currentStream);
+		}
+	}
+
+	@Override
+	protected void onHidden(){
+		super.onHidden();
+		if(currentStream!=null){
+			AccountSession session=AccountSessionManager.getInstance().tryGetAccount(accountID);
+			if(session!=null)
+				session.getStreamingClient().unsubscribe(currentStream);
+			currentStream=null;
+		}
+	}
+
+	/**
+	 * Loads a page of {@link #getTimelineKey()} through the cache. A first page that comes from the cache is shown right
+	 * away and is then revalidated against the server.
+	 */
+	protected void loadTimeline(int offset, int count){
+		TimelineKey key=getTimelineKey();
+		if(revalidateRequest!=null){
+			revalidateRequest.cancel();
+			revalidateRequest=null;
+		}
+		AccountSessionManager.get(accountID).getCacheController()
+				.getTimeline(key, offset>0 ? timelineMaxID : null, count, refreshing, false, new SimpleCallback<>(this){
+					@Override
+					public void onSuccess(CacheablePaginatedResponse<List<Status>> result){
+						if(getActivity()==null || !key.equals(getTimelineKey()))
+							return;
+						timelineMaxID=result.maxID;
+						onDataLoaded(result.items, !result.items.isEmpty());
+						if(result.isFromCache())
+							revalidateTimeline(key, result.items.get(0).id, count);
+					}
+
+					@Override
+					public void onError(ErrorResponse error){
+						if(!key.equals(getTimelineKey()))
+							return;
+						super.onError(error);
+					}
+				});
+	}
+
+	private void revalidateTimeline(TimelineKey key, String cachedTopID, int count){
+		revalidateRequest=key.createRequest(null, null, count, null)
+				.setCallback(new Callback<>(){
+					@Override
+					public void onSuccess(List<Status> result){
+						revalidateRequest=null;
+						if(getActivity()==null || !key.equals(getTimelineKey()))
+							return;
+						CacheController cache=AccountSessionManager.get(accountID).getCacheController();
+						int intersection=-1;
+						for(int i=0;i<result.size();i++){
+							if(result.get(i).id.equals(cachedTopID)){
+								intersection=i;
+								break;
+							}
+						}
+						if(intersection==-1){
+							// Too much was posted since this was cached to connect the two, start over from the fresh page
+							if(dataLoading)
+								return;
+							cache.putTimeline(key, result, true);
+							timelineMaxID=result.isEmpty() ? null : result.get(result.size()-1).id;
+							refreshing=true;
+							onDataLoaded(result, !result.isEmpty());
+						}else if(intersection>0){
+							List<Status> newer=new ArrayList<>(result.subList(0, intersection));
+							cache.putTimeline(key, newer, false);
+							AccountSessionManager.get(accountID).filterStatuses(newer, key.getFilterContext());
+							Set<String> existingIDs=data.stream().map(s->s.id).collect(Collectors.toSet());
+							newer.removeIf(s->existingIDs.contains(s.id));
+							if(!newer.isEmpty())
+								prependItems(newer, true);
+						}
+					}
+
+					@Override
+					public void onError(ErrorResponse error){
+						// Whatever was cached stays on screen, e.g. when offline
+						revalidateRequest=null;
+					}
+				})
+				.exec(accountID);
+	}
+
 	protected void onStatusCreated(Status status){}
 
 	protected void onStatusUpdated(Status status){
@@ -235,6 +371,29 @@ public abstract class StatusListFragment extends BaseStatusListFragment<Status>{
 			}
 		}
 
+		@Subscribe
+		public void onStreamingStateChanged(StreamingStateChangedEvent ev){
+			if(!ev.accountID.equals(accountID) || !ev.connected || currentStream==null || !loaded || dataLoading || revalidateRequest!=null || data.isEmpty())
+				return;
+			// Whatever was posted while we weren't connected is loaded the same way as after a cached page
+			revalidateTimeline(getTimelineKey(), data.get(0).id, 20);
+		}
+
+		@Subscribe
+		public void onStreamingUpdate(StreamingUpdateEvent ev){
+			if(!ev.accountID.equals(accountID) || currentStream==null || !currentStream.equals(ev.stream) || !loaded || dataLoading)
+				return;
+			if(getStatusByID(ev.status.id)!=null)
+				return;
+			TimelineKey key=getTimelineKey();
+			ArrayList<Status> toAdd=new ArrayList<>();
+			toAdd.add(ev.status);
+			AccountSessionManager.get(accountID).getCacheController().putTimeline(key, new ArrayList<>(toAdd), false);
+			AccountSessionManager.get(accountID).filterStatuses(toAdd, key.getFilterContext());
+			if(!toAdd.isEmpty())
+				prependItems(toAdd, true);
+		}
+
 		@Subscribe
 		public void onRemoveAccountPostsEvent(RemoveAccountPostsEvent ev){
 			if(!ev.accountID.equals(accountID))
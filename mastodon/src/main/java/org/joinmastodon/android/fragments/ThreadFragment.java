@@ -28,6 +28,7 @@ import android.widget.Toast;
 import org.joinmastodon.android.BuildConfig;
 import org.joinmastodon.android.GlobalUserPreferences;
 import org.joinmastodon.android.R;
+import org.joinmastodon.android.api.CacheController;
 import org.joinmastodon.android.api.requests.statuses.GetStatusContext;
 import org.joinmastodon.android.api.session.AccountSessionManager;
 import org.joinmastodon.android.model.Account;
@@ -62,6 +63,7 @@ import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 import me.grishka.appkit.Nav;
+import me.grishka.appkit.api.ErrorResponse;
 import me.grishka.appkit.api.SimpleCallback;
 import me.grishka.appkit.imageloader.ViewImageLoader;
 import me.grishka.appkit.imageloader.requests.UrlImageLoaderRequest;
@@ -83,6 +85,7 @@ public class ThreadFragment extends StatusListFragment implements AssistContentP
 	private Runnable asyncRefreshPartialRunnable=this::checkAsyncRefreshAndMaybeShowSnackbar;
 	private int prevNewRepliesCount;
 	private HashSet<String> newReplyIDs=new HashSet<>();
+	private boolean revalidatingCachedContext;
 	private boolean highlightDecorationAdded=false;
 	private NewRepliesHighlightDecoration highlightDecoration=new NewRepliesHighlightDecoration();
 	private float highlightAlpha=0;
@@ -164,118 +167,147 @@ public class ThreadFragment extends StatusListFragment implements AssistContentP
 
 	@Override
 	protected void doLoadData(int offset, int count){
+		CacheController cache=AccountSessionManager.get(accountID).getCacheController();
+		if(!refreshing && !loaded){
+			StatusContext cached=cache.getStatusContext(mainStatus.id);
+			if(cached!=null){
+				// Show the local copy right away. The fresh response then goes through the refresh path, which animates the differences.
+				onContextLoaded(cached);
+				revalidatingCachedContext=true;
+				refreshing=true;
+			}
+		}
 		currentRequest=new GetStatusContext(mainStatus.id)
 				.setCallback(new SimpleCallback<>(this){
 					@Override
 					public void onSuccess(StatusContext result){
 						currentRequest=null;
+						cache.putStatusContext(mainStatus.id, result, result.asyncRefresh!=null);
 						if(getActivity()==null)
 							return;
-						final ArrayList<StatusDisplayItem> prevDisplayItems;
-						if(refreshing){
-							prevDisplayItems=new ArrayList<>(displayItems);
-							data.clear();
-							displayItems.clear();
-							data.add(mainStatus);
-							onAppendItems(Collections.singletonList(mainStatus));
-						}else if(result.asyncRefresh!=null){
-							prevDisplayItems=null;
-							if(BuildConfig.DEBUG)
-								Toast.makeText(getActivity(), "Starting async refresh", Toast.LENGTH_SHORT).show();
-							asyncRefreshID=result.asyncRefresh.id;
-							AccountSessionManager.get(accountID).getApiController().startPollingAsyncRefresh(result.asyncRefresh, asyncRefreshCallback);
-							contentView.postDelayed(asyncRefreshPartialRunnable, 10_000);
-						}else{
-							prevDisplayItems=null;
-						}
-						filterStatuses(result.descendants);
-						filterStatuses(result.ancestors);
-						if(footerProgress!=null)
-							footerProgress.setVisibility(View.GONE);
-						data.addAll(result.descendants);
-						int prevCount=displayItems.size();
-						onAppendItems(result.descendants);
-						int count=displayItems.size();
-						if(!refreshing)
-							adapter.notifyItemRangeInserted(prevCount, count-prevCount);
-						prependItems(result.ancestors, !refreshing);
-						dataLoaded();
-						if(refreshing){
+						onContextLoaded(result);
+						revalidatingCachedContext=false;
+					}
+
+					@Override
+					public void onError(ErrorResponse error){
+						currentRequest=null;
+						if(revalidatingCachedContext){
+							// Keep showing the local copy
+							revalidatingCachedContext=false;
 							refreshDone();
-							DiffUtil.DiffResult diff=DiffUtil.calculateDiff(new DiffUtil.Callback(){
-								@Override
-								public int getOldListSize(){
-									return prevDisplayItems.size();
-								}
-
-								@Override
-								public int getNewListSize(){
-									return displayItems.size();
-								}
-
-								@Override
-								public boolean areItemsTheSame(int oldItemPosition, int newItemPosition){
-									StatusDisplayItem oldItem=prevDisplayItems.get(oldItemPosition);
-									StatusDisplayItem newItem=displayItems.get(newItemPosition);
-									return oldItem.parentID.equals(newItem.parentID) && oldItem.index==newItem.index && oldItem.getType()==newItem.getType();
-								}
-
-								@Override
-								public boolean areContentsTheSame(int oldItemPosition, int newItemPosition){
-									return true;
-								}
-							});
-							newReplyIDs.clear();
-							diff.dispatchUpdatesTo(new ListUpdateCallback(){
-								@Override
-								public void onInserted(int position, int count){
-									if(position<displayItems.size()) // TODO figure out how this could possibly be a thing
-										newReplyIDs.add(displayItems.get(position).parentID);
-									else if(BuildConfig.DEBUG)
-										throw new IllegalStateException("onInserted called with position="+position+" count="+count+", but list size is "+displayItems.size());
-								}
-
-								@Override
-								public void onRemoved(int position, int count){}
-
-								@Override
-								public void onMoved(int fromPosition, int toPosition){}
-
-								@Override
-								public void onChanged(int position, int count, @Nullable Object payload){}
-							});
-							diff.dispatchUpdatesTo(adapter);
-							if(!newReplyIDs.isEmpty()){
-								if(highlightAlphaAnimator!=null)
-									highlightAlphaAnimator.cancel();
-								if(!highlightDecorationAdded){
-									highlightDecorationAdded=true;
-									list.addItemDecoration(highlightDecoration, 0);
-								}
-								highlightAlpha=0.25f;
-								highlightAlphaAnimator=ObjectAnimator.ofFloat(null, newRepliesHighlightProperty, 0.25f, 0f);
-								highlightAlphaAnimator.setDuration(2000);
-								highlightAlphaAnimator.setStartDelay(500);
-								highlightAlphaAnimator.setInterpolator(CubicBezierInterpolator.DEFAULT);
-								highlightAlphaAnimator.addListener(new AnimatorListenerAdapter(){
-									@Override
-									public void onAnimationEnd(Animator animation){
-										highlightAlphaAnimator=null;
-										highlightDecorationAdded=false;
-										list.removeItemDecoration(highlightDecoration);
-									}
-								});
-								highlightAlphaAnimator.start();
-							}
-						}else{
-							list.scrollToPosition(displayItems.size()-count);
+							return;
 						}
-						setRefreshEnabled(true);
+						super.onError(error);
 					}
 				})
 				.exec(accountID);
 	}
 
+	private void onContextLoaded(StatusContext result){
+		final ArrayList<StatusDisplayItem> prevDisplayItems;
+		if(refreshing){
+			prevDisplayItems=new ArrayList<>(displayItems);
+			data.clear();
+			displayItems.clear();
+			data.add(mainStatus);
+			onAppendItems(Collections.singletonList(mainStatus));
+		}else{
+			prevDisplayItems=null;
+		}
+		// A refresh by the user only happens after an async refresh, so don't start another one then
+		if(result.asyncRefresh!=null && (!refreshing || revalidatingCachedContext)){
+			if(BuildConfig.DEBUG)
+				Toast.makeText(getActivity(), "Starting async refresh", Toast.LENGTH_SHORT).show();
+			asyncRefreshID=result.asyncRefresh.id;
+			AccountSessionManager.get(accountID).getApiController().startPollingAsyncRefresh(result.asyncRefresh, asyncRefreshCallback);
+			contentView.postDelayed(asyncRefreshPartialRunnable, 10_000);
+		}
+		filterStatuses(result.descendants);
+		filterStatuses(result.ancestors);
+		if(footerProgress!=null)
+			footerProgress.setVisibility(View.GONE);
+		data.addAll(result.descendants);
+		int prevCount=displayItems.size();
+		onAppendItems(result.descendants);
+		int count=displayItems.size();
+		if(!refreshing)
+			adapter.notifyItemRangeInserted(prevCount, count-prevCount);
+		prependItems(result.ancestors, !refreshing);
+		dataLoaded();
+		if(refreshing){
+			refreshDone();
+			DiffUtil.DiffResult diff=DiffUtil.calculateDiff(new DiffUtil.Callback(){
+				@Override
+				public int getOldListSize(){
+					return prevDisplayItems.size();
+				}
+
+				@Override
+				public int getNewListSize(){
+					return displayItems.size();
+				}
+
+				@Override
+				public boolean areItemsTheSame(int oldItemPosition, int newItemPosition){
+					StatusDisplayItem oldItem=prevDisplayItems.get(oldItemPosition);
+					StatusDisplayItem newItem=displayItems.get(newItemPosition);
+					return oldItem.parentID.equals(newItem.parentID) && oldItem.index==newItem.index && oldItem.getType()==newItem.getType();
+				}
+
+				@Override
+				public boolean areContentsTheSame(int oldItemPosition, int newItemPosition){
+					return true;
+				}
+			});
+			newReplyIDs.clear();
+			diff.dispatchUpdatesTo(new ListUpdateCallback(){
+				@Override
+				public void onInserted(int position, int count){
+					if(position<displayItems.size()) // TODO figure out how this could possibly be a thing
+						newReplyIDs.add(displayItems.get(position).parentID);
+					else if(BuildConfig.DEBUG)
+						throw new IllegalStateException("onInserted called with position="+position+" count="+count+", but list size is "+displayItems.size());
+				}
+
+				@Override
+				public void onRemoved(int position, int count){}
+
+				@Override
+				public void onMoved(int fromPosition, int toPosition){}
+
+				@Override
+				public void onChanged(int position, int count, @Nullable Object payload){}
+			});
+			diff.dispatchUpdatesTo(adapter);
+			if(!newReplyIDs.isEmpty()){
+				if(highlightAlphaAnimator!=null)
+					highlightAlphaAnimator.cancel();
+				if(!highlightDecorationAdded){
+					highlightDecorationAdded=true;
+					list.addItemDecoration(highlightDecoration, 0);
+				}
+				highlightAlpha=0.25f;
+				highlightAlphaAnimator=ObjectAnimator.ofFloat(null, newRepliesHighlightProperty, 0.25f, 0f);
+				highlightAlphaAnimator.setDuration(2000);
+				highlightAlphaAnimator.setStartDelay(500);
+				highlightAlphaAnimator.setInterpolator(CubicBezierInterpolator.DEFAULT);
+				highlightAlphaAnimator.addListener(new AnimatorListenerAdapter(){
+					@Override
+					public void onAnimationEnd(Animator animation){
+						highlightAlphaAnimator=null;
+						highlightDecorationAdded=false;
+						list.removeItemDecoration(highlightDecoration);
+					}
+				});
+				highlightAlphaAnimator.start();
+			}
+		}else{
+			list.scrollToPosition(displayItems.size()-count);
+		}
+		setRefreshEnabled(true);
+	}
+
 	private void filterStatuses(List<Status> statuses){
 		AccountSessionManager.get(accountID).filterStatuses(statuses, FilterContext.THREAD);
 	}
@@ -452,6 +484,10 @@ public class ThreadFragment extends StatusListFragment implements AssistContentP
 		if(getActivity()==null)
 			return;
 		contentView.removeCallbacks(asyncRefreshPartialRunnable);
+		if(ar.resultCount>0){
+			// The cached context is missing whatever the server found
+			AccountSessionManager.get(accountID).getCacheController().invalidateStatusContexts(mainStatus.id);
+		}
 		if(ar.resultCount>prevNewRepliesCount){
 			showMoreRepliesSnackbar();
 		}else if(BuildConfig.DEBUG && ar.resultCount==0){
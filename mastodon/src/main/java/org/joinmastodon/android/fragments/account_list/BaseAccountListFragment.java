@@ -9,7 +9,7 @@ import android.view.WindowInsets;
 import android.widget.Toolbar;
 
 import org.joinmastodon.android.R;
-import org.joinmastodon.android.api.requests.accounts.GetAccountRelationships;
+import org.joinmastodon.android.api.session.AccountSessionManager;
 import org.joinmastodon.android.fragments.MastodonRecyclerFragment;
 import org.joinmastodon.android.model.Relationship;
 import org.joinmastodon.android.model.viewmodel.AccountViewModel;
@@ -20,6 +20,7 @@ import org.joinmastodon.android.ui.viewholders.AccountViewHolder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -76,30 +77,27 @@ public abstract class BaseAccountListFragment extends MastodonRecyclerFragment<A
 		Set<String> ids=accounts.stream().map(ai->ai.account.id).collect(Collectors.toSet());
 		if(ids.isEmpty())
 			return;
-		GetAccountRelationships req=new GetAccountRelationships(ids);
-		relationshipsRequests.add(req);
-		req.setCallback(new Callback<>(){
-					@Override
-					public void onSuccess(List<Relationship> result){
-						relationshipsRequests.remove(req);
-						for(Relationship rel:result){
-							relationships.put(rel.id, rel);
-						}
-						if(list==null)
-							return;
-						for(int i=0;i<list.getChildCount();i++){
-							if(list.getChildViewHolder(list.getChildAt(i)) instanceof AccountViewHolder avh){
-								avh.bindRelationship();
-							}
-						}
+		APIRequest<?>[] req={null};
+		req[0]=AccountSessionManager.get(accountID).getRelationshipLoader().load(ids, new Callback<>(){
+			@Override
+			public void onSuccess(Map<String, Relationship> result){
+				relationshipsRequests.remove(req[0]);
+				relationships.putAll(result);
+				if(list==null)
+					return;
+				for(int i=0;i<list.getChildCount();i++){
+					if(list.getChildViewHolder(list.getChildAt(i)) instanceof AccountViewHolder avh){
+						avh.bindRelationship();
 					}
-
-					@Override
-					public void onError(ErrorResponse error){
-						relationshipsRequests.remove(req);
-					}
-				})
-				.exec(accountID);
+				}
+			}
+
+			@Override
+			public void onError(ErrorResponse error){
+				relationshipsRequests.remove(req[0]);
+			}
+		});
+		relationshipsRequests.add(req[0]);
 	}
 
 	@Override
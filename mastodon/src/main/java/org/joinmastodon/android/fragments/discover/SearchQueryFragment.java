@@ -29,9 +29,12 @@ import org.joinmastodon.android.R;
 import org.joinmastodon.android.api.requests.search.GetSearchResults;
 import org.joinmastodon.android.api.session.AccountSessionManager;
 import org.joinmastodon.android.fragments.MastodonRecyclerFragment;
+import org.joinmastodon.android.fragments.ThreadFragment;
+import org.joinmastodon.android.model.FilterContext;
 import org.joinmastodon.android.model.Relationship;
 import org.joinmastodon.android.model.SearchResult;
 import org.joinmastodon.android.model.SearchResults;
+import org.joinmastodon.android.model.Status;
 import org.joinmastodon.android.model.viewmodel.ListItem;
 import org.joinmastodon.android.model.viewmodel.SearchResultViewModel;
 import org.joinmastodon.android.ui.DividerItemDecoration;
@@ -41,9 +44,11 @@ import org.joinmastodon.android.ui.utils.HideableSingleViewRecyclerAdapter;
 import org.joinmastodon.android.ui.utils.UiUtils;
 import org.joinmastodon.android.ui.viewholders.AccountViewHolder;
 import org.joinmastodon.android.ui.viewholders.SimpleListItemViewHolder;
+import org.parceler.Parcels;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -55,6 +60,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import androidx.recyclerview.widget.RecyclerView;
 import me.grishka.appkit.Nav;
+import me.grishka.appkit.api.ErrorResponse;
 import me.grishka.appkit.api.SimpleCallback;
 import me.grishka.appkit.fragments.CustomTransitionsFragment;
 import me.grishka.appkit.imageloader.ImageLoaderRecyclerAdapter;
@@ -66,6 +72,7 @@ import me.grishka.appkit.views.UsableRecyclerView;
 public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultViewModel> implements CustomTransitionsFragment{
 	private static final Pattern HASHTAG_REGEX=Pattern.compile("^(\\w*[a-zA-Z·]\\w*)$", Pattern.CASE_INSENSITIVE);
 	private static final Pattern USERNAME_REGEX=Pattern.compile("^@?([a-z0-9_-]+)(@[^\\s]+)?$", Pattern.CASE_INSENSITIVE);
+	private static final int MAX_LOCAL_STATUS_RESULTS=20;
 
 	private MergeRecyclerAdapter mergeAdapter=new MergeRecyclerAdapter();
 	private HideableSingleViewRecyclerAdapter recentsHeader;
@@ -78,6 +85,8 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 	private String currentQuery;
 	private LayerDrawable navigationIcon;
 	private Drawable searchIcon, backIcon;
+	private List<SearchResultViewModel> localStatusResults=List.of();
+	private boolean loadedServerResults;
 
 	public SearchQueryFragment(){
 		super(20);
@@ -111,31 +120,51 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 				if(getActivity()==null)
 					return;
 
-				onDataLoaded(results.stream().map(sr->{
-					SearchResultViewModel vm=new SearchResultViewModel(sr, accountID, true, getActivity());
-					if(sr.type==SearchResult.Type.HASHTAG){
-						vm.hashtagItem.setOnClick(i->openHashtag(sr));
-					}
-					return vm;
-				}).collect(Collectors.toList()), false);
+				onDataLoaded(results.stream().map(sr->makeViewModel(sr, true)).collect(Collectors.toList()), false);
 				recentsHeader.setVisible(!data.isEmpty());
 			});
 		}else{
+			String query=currentQuery;
+			localStatusResults=List.of();
+			loadedServerResults=false;
+			// Cached posts show up right away and stay useful when the server can't be reached
+			AccountSessionManager.get(accountID).getCacheController().searchStatuses(query, MAX_LOCAL_STATUS_RESULTS, statuses->{
+				if(getActivity()==null || !query.equals(currentQuery))
+					return;
+				AccountSessionManager.get(accountID).filterStatuses(statuses, FilterContext.PUBLIC);
+				localStatusResults=statuses.stream().map(s->makeViewModel(new SearchResult(s), false)).collect(Collectors.toList());
+				if(!loadedServerResults)
+					data.clear();
+				data.addAll(localStatusResults);
+				mergeAdapter.notifyDataSetChanged();
+			});
 			currentRequest=new GetSearchResults(currentQuery, null, false, null, 0, 0)
 					.limit(2)
 					.setCallback(new SimpleCallback<>(this){
 						@Override
 						public void onSuccess(SearchResults result){
+							loadedServerResults=true;
+							// Local results might already be in the list
+							data.clear();
 							onDataLoaded(Stream.of(result.hashtags.stream().map(SearchResult::new), result.accounts.stream().map(SearchResult::new))
 									.flatMap(Function.identity())
-									.map(sr->{
-										SearchResultViewModel vm=new SearchResultViewModel(sr, accountID, false, getActivity());
-										if(sr.type==SearchResult.Type.HASHTAG){
-											vm.hashtagItem.setOnClick(i->openHashtag(sr));
-										}
-										return vm;
-									})
+									.map(sr->makeViewModel(sr, false))
 									.collect(Collectors.toList()), false);
+							data.addAll(localStatusResults);
+							mergeAdapter.notifyDataSetChanged();
+							recentsHeader.setVisible(false);
+						}
+
+						@Override
+						public void onError(ErrorResponse error){
+							if(localStatusResults.isEmpty()){
+								super.onError(error);
+								return;
+							}
+							currentRequest=null;
+							loadedServerResults=true;
+							data.clear();
+							onDataLoaded(new ArrayList<>(localStatusResults), false);
 							recentsHeader.setVisible(false);
 						}
 					})
@@ -143,6 +172,16 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 		}
 	}
 
+	private SearchResultViewModel makeViewModel(SearchResult sr, boolean isRecents){
+		SearchResultViewModel vm=new SearchResultViewModel(sr, accountID, isRecents, getActivity());
+		if(sr.type==SearchResult.Type.HASHTAG){
+			vm.hashtagItem.setOnClick(i->openHashtag(sr));
+		}else if(sr.type==SearchResult.Type.STATUS){
+			vm.statusItem.setOnClick(i->openStatus(i.parentObject));
+		}
+		return vm;
+	}
+
 	@Override
 	protected RecyclerView.Adapter<?> getAdapter(){
 		View header=getActivity().getLayoutInflater().inflate(R.layout.display_item_section_header, list, false);
@@ -393,6 +432,13 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 		return set;
 	}
 
+	private void openStatus(Status status){
+		Bundle args=new Bundle();
+		args.putString("account", accountID);
+		args.putParcelable("status", Parcels.wrap(status));
+		Nav.go(getActivity(), ThreadFragment.class, args);
+	}
+
 	private void openHashtag(SearchResult res){
 		UiUtils.openHashtagTimeline(getActivity(), accountID, res.hashtag);
 		AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putRecentSearch(res);
@@ -520,7 +566,8 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 				avh.bind(data.get(position).account);
 				avh.searchResult=data.get(position).result;
 			}else if(holder instanceof SimpleListItemViewHolder ivh){
-				ivh.bind(data.get(position).hashtagItem);
+				SearchResultViewModel vm=data.get(position);
+				ivh.bind(vm.hashtagItem!=null ? vm.hashtagItem : vm.statusItem);
 			}
 		}
 
@@ -533,8 +580,7 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 		public int getItemViewType(int position){
 			return switch(data.get(position).result.type){
 				case ACCOUNT -> R.id.list_item_account;
-				case HASHTAG -> R.id.list_item_simple;
-				default -> throw new IllegalStateException("Unexpected value: "+data.get(position).result.type);
+				case HASHTAG, STATUS -> R.id.list_item_simple;
 			};
 		}
 
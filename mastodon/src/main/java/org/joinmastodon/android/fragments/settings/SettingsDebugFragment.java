@@ -1,17 +1,23 @@
 package org.joinmastodon.android.fragments.settings;
 
+import android.app.AlertDialog;
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Color;
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.util.Pair;
 import android.view.ViewGroup;
+import android.widget.HorizontalScrollView;
 import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import org.joinmastodon.android.GlobalUserPreferences;
 import org.joinmastodon.android.R;
+import org.joinmastodon.android.api.CacheController;
+import org.joinmastodon.android.api.NetworkTimings;
 import org.joinmastodon.android.api.PushSubscriptionManager;
 import org.joinmastodon.android.api.session.AccountActivationInfo;
 import org.joinmastodon.android.api.session.AccountSession;
@@ -29,6 +35,7 @@ import org.joinmastodon.android.updater.GithubSelfUpdater;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import androidx.annotation.NonNull;
 import androidx.palette.graphics.Palette;
@@ -55,7 +62,9 @@ public class SettingsDebugFragment extends BaseSettingsFragment<Void>{
 				new ListItem<>("Clear dismissed donation campaigns", null, this::onClearDismissedCampaignsClick),
 				donationsStagingItem=new CheckableListItem<>("Use staging environment for donations", "Restart app to apply", CheckableListItem.Style.SWITCH, getPrefs().getBoolean("donationsStaging", false), this::toggleCheckableItem),
 				new ListItem<>("Delete cached instance info", null, this::onDeleteInstanceInfoClick),
-				new ListItem<>("View dynamic color values", null, this::onViewColorsClick)
+				new ListItem<>("View dynamic color values", null, this::onViewColorsClick),
+				new ListItem<>("View network timings", "Per endpoint, since app start", this::onViewNetworkTimingsClick),
+				new ListItem<>("View cache database sizes", "For the current account", this::onViewCacheSizesClick)
 		));
 		if(!GithubSelfUpdater.needSelfUpdating()){
 			resetUpdateItem.isEnabled=selfUpdateItem.isEnabled=false;
@@ -170,6 +179,85 @@ public class SettingsDebugFragment extends BaseSettingsFragment<Void>{
 				.show();
 	}
 
+	private void onViewNetworkTimingsClick(ListItem<?> item){
+		StringBuilder sb=new StringBuilder();
+		for(NetworkTimings.EndpointSummary endpoint:NetworkTimings.getSummaries()){
+			sb.append(endpoint.path());
+			sb.append('\n');
+			for(NetworkTimings.Phase phase:NetworkTimings.Phase.values()){
+				NetworkTimings.PhaseSummary ps=endpoint.getPhase(phase);
+				if(ps.count()==0)
+					continue;
+				sb.append(String.format(Locale.US, "  %-11.11s n=%-4d p50=%-7s p90=%-7s p99=%s\n", phase.name().toLowerCase(), ps.count(),
+						formatMicros(ps.p50()), formatMicros(ps.p90()), formatMicros(ps.p99())));
+			}
+			sb.append('\n');
+		}
+		if(sb.length()==0)
+			sb.append("No requests recorded yet");
+
+		makeMonospaceDialog("Network timings", sb)
+				.setNegativeButton("Export JSON", (dlg, which)->{
+					Intent intent=new Intent(Intent.ACTION_SEND);
+					intent.setType("application/json");
+					intent.putExtra(Intent.EXTRA_TEXT, NetworkTimings.exportAsJson().toString());
+					startActivity(Intent.createChooser(intent, null));
+				})
+				.setNeutralButton("Reset", (dlg, which)->NetworkTimings.reset())
+				.show();
+	}
+
+	private void onViewCacheSizesClick(ListItem<?> item){
+		CacheController cache=AccountSessionManager.get(accountID).getCacheController();
+		cache.getDatabaseStats(stats->{
+			if(getActivity()==null)
+				return;
+			StringBuilder sb=new StringBuilder();
+			sb.append(String.format(Locale.US, "%-32s %7s %10s\n", "table", "rows", "bytes"));
+			for(CacheController.TableStats table:stats.tables()){
+				sb.append(String.format(Locale.US, "%-32.32s %7d %10s\n", table.name(), table.rows(), UiUtils.formatFileSize(getActivity(), table.bytes(), true)));
+			}
+			sb.append('\n');
+			sb.append("File size: ").append(UiUtils.formatFileSize(getActivity(), stats.fileSize(), true)).append('\n');
+			sb.append("Free space: ").append(UiUtils.formatFileSize(getActivity(), stats.freeBytes(), true)).append("\n\n");
+			sb.append(String.format(Locale.US, "%-8s %7s %8s %8s\n", "queue", "tasks", "avg wait", "max wait"));
+			for(CacheController.QueueStats queue:stats.queues()){
+				sb.append(String.format(Locale.US, "%-8s %7d %6dms %6dms\n", queue.name(), queue.tasks(), queue.averageWait(), queue.maxWait()));
+			}
+
+			makeMonospaceDialog("Cache database sizes", sb)
+					.setNeutralButton("Evict now", (dlg, which)->cache.evictNow())
+					.show();
+		});
+	}
+
+	/**
+	 * @return a dialog with an OK button that shows this text in a small monospace font, scrollable both ways. Other buttons can be added before it's shown.
+	 */
+	private AlertDialog.Builder makeMonospaceDialog(String title, CharSequence content){
+		TextView text=new TextView(getActivity());
+		int pad=V.dp(16);
+		text.setPadding(pad, pad, pad, pad);
+		text.setTextSize(11);
+		text.setTypeface(Typeface.MONOSPACE);
+		text.setTextIsSelectable(true);
+		text.setText(content);
+		HorizontalScrollView hscroll=new HorizontalScrollView(getActivity());
+		hscroll.addView(text);
+		ScrollView scroll=new ScrollView(getActivity());
+		scroll.addView(hscroll);
+		return new M3AlertDialogBuilder(getActivity())
+				.setTitle(title)
+				.setView(scroll)
+				.setPositiveButton(R.string.ok, null);
+	}
+
+	private static String formatMicros(long us){
+		if(us<10_000)
+			return String.format(Locale.US, "%.1fms", us/1000.0);
+		return (us/1000)+"ms";
+	}
+
 	private void restartUI(){
 		Bundle args=new Bundle();
 		args.putString("account", accountID);
@@ -6,25 +6,51 @@ import org.joinmastodon.android.api.RequiredField;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 public abstract class BaseModel implements Cloneable{
+	/**
+	 * Required fields per class, so that the annotations only need to be looked at once per class and not for every object
+	 */
+	private static final ConcurrentHashMap<Class<?>, Field[]> requiredFields=new ConcurrentHashMap<>();
+	/**
+	 * Makes {@link #postprocess()} look at the annotations for every object again, so that benchmarks can compare the two
+	 */
+	@VisibleForTesting
+	public static boolean bypassRequiredFieldsCache;
+
 	@CallSuper
 	public void postprocess() throws ObjectValidationException{
 		try{
-			boolean allRequired=getClass().isAnnotationPresent(AllFieldsAreRequired.class);
-			for(Field fld:getClass().getFields()){
-				if(!fld.getType().isPrimitive() && !Modifier.isTransient(fld.getModifiers()) && (allRequired || fld.isAnnotationPresent(RequiredField.class))){
-					if(fld.get(this)==null){
-						throw new ObjectValidationException("Required field '"+fld.getName()+"' of type "+fld.getType().getSimpleName()+" was null in "+getClass().getSimpleName());
-					}
+			for(Field fld:getRequiredFields(getClass())){
+				if(fld.get(this)==null){
+					throw new ObjectValidationException("Required field '"+fld.getName()+"' of type "+fld.getType().getSimpleName()+" was null in "+getClass().getSimpleName());
 				}
 			}
 		}catch(IllegalAccessException ignore){}
 	}
 
+	private static Field[] getRequiredFields(Class<?> cls){
+		Field[] fields=bypassRequiredFieldsCache ? null : requiredFields.get(cls);
+		if(fields!=null)
+			return fields;
+		boolean allRequired=cls.isAnnotationPresent(AllFieldsAreRequired.class);
+		ArrayList<Field> required=new ArrayList<>();
+		for(Field fld:cls.getFields()){
+			if(!fld.getType().isPrimitive() && !Modifier.isTransient(fld.getModifiers()) && (allRequired || fld.isAnnotationPresent(RequiredField.class))){
+				required.add(fld);
+			}
+		}
+		fields=required.toArray(new Field[0]);
+		requiredFields.put(cls, fields);
+		return fields;
+	}
+
 	@NonNull
 	@Override
 	public Object clone(){
@@ -2,13 +2,26 @@ package org.joinmastodon.android.model;
 
 public class CacheablePaginatedResponse<T> extends PaginatedResponse<T>{
 	private final boolean fromCache;
+	private final boolean partial;
 
 	public CacheablePaginatedResponse(T items, String maxID, boolean fromCache){
+		this(items, maxID, fromCache, false);
+	}
+
+	public CacheablePaginatedResponse(T items, String maxID, boolean fromCache, boolean partial){
 		super(items, maxID);
 		this.fromCache=fromCache;
+		this.partial=partial;
 	}
 
 	public boolean isFromCache(){
 		return fromCache;
 	}
+
+	/**
+	 * @return whether only the beginning of the page was cached. The rest of it is being loaded and is what the next page will be.
+	 */
+	public boolean isPartial(){
+		return partial;
+	}
 }
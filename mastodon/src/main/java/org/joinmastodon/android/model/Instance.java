@@ -39,6 +39,11 @@ public abstract class Instance extends BaseModel{
 	public List<Rule> rules;
 	public Configuration configuration;
 
+	/**
+	 * The ETag of the response this was parsed from, for conditional refreshes
+	 */
+	public transient String etag;
+
 	// non-standard field in some Mastodon forks
 	public int maxTootChars;
 
@@ -76,6 +81,7 @@ public abstract class Instance extends BaseModel{
 	public abstract String getThumbnailURL();
 	public abstract int getVersion();
 	public abstract long getApiVersion(String name);
+	public abstract String getStreamingURL();
 
 	public long getApiVersion(){
 		return getApiVersion("mastodon");
@@ -94,6 +94,11 @@ public class InstanceV1 extends Instance{
 		return 0;
 	}
 
+	@Override
+	public String getStreamingURL(){
+		return urls==null ? null : urls.get("streaming_api");
+	}
+
 	@Override
 	public void postprocess() throws ObjectValidationException{
 		super.postprocess();
@@ -64,6 +64,11 @@ public class InstanceV2 extends Instance{
 		return v==null ? 0 : v;
 	}
 
+	@Override
+	public String getStreamingURL(){
+		return configuration==null || configuration.urls==null ? null : configuration.urls.streaming;
+	}
+
 	@Override
 	public void postprocess() throws ObjectValidationException{
 		super.postprocess();
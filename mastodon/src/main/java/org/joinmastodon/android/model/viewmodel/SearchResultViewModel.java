@@ -1,15 +1,20 @@
 package org.joinmastodon.android.model.viewmodel;
 
 import android.content.Context;
+import android.text.TextUtils;
 
 import org.joinmastodon.android.R;
 import org.joinmastodon.android.model.Hashtag;
 import org.joinmastodon.android.model.SearchResult;
+import org.joinmastodon.android.model.Status;
 
 public class SearchResultViewModel{
+	private static final int MAX_STATUS_TEXT_LENGTH=200;
+
 	public SearchResult result;
 	public AccountViewModel account;
 	public ListItem<Hashtag> hashtagItem;
+	public ListItem<Status> statusItem;
 
 	public SearchResultViewModel(SearchResult result, String accountID, boolean isRecents, Context context){
 		this.result=result;
@@ -19,6 +24,14 @@ public class SearchResultViewModel{
 				hashtagItem=new ListItem<>((isRecents ? "#" : "")+result.hashtag.name, null, isRecents ? R.drawable.ic_history_24px : R.drawable.ic_tag_24px, null, result.hashtag);
 				hashtagItem.isEnabled=true;
 			}
+			case STATUS -> {
+				Status status=result.status.getContentStatus();
+				String text=TextUtils.isEmpty(status.spoilerText) ? status.getStrippedText() : status.spoilerText;
+				if(text.length()>MAX_STATUS_TEXT_LENGTH)
+					text=text.substring(0, MAX_STATUS_TEXT_LENGTH)+"…";
+				statusItem=new ListItem<>(text, "@"+status.account.acct, R.drawable.ic_feed_24px, null, status);
+				statusItem.isEnabled=true;
+			}
 		}
 	}
 }
@@ -1,6 +1,5 @@
 package org.joinmastodon.android.ui;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.res.ColorStateList;
 import android.graphics.Rect;
@@ -52,12 +51,20 @@ public class CustomEmojiPopupKeyboard extends PopupKeyboard{
 	private int spanCount=6;
 	private Listener listener;
 
-	public CustomEmojiPopupKeyboard(Activity activity, List<EmojiCategory> emojis, String domain){
+	public CustomEmojiPopupKeyboard(Activity activity, String domain){
 		super(activity);
-		this.emojis=emojis;
 		this.domain=domain;
 	}
 
+	@Override
+	public void toggleKeyboardPopup(View textField){
+		super.toggleKeyboardPopup(textField);
+		// The emojis are only needed once the keyboard is first opened. This is after the view is created because the adapters need imgLoader.
+		// If they aren't loaded yet, the keyboard is empty until onEmojiUpdated.
+		if(emojis==null)
+			setEmojis(AccountSessionManager.getInstance().getCustomEmojis(domain));
+	}
+
 	@Override
 	protected View onCreateView(){
 		GridLayoutManager lm=new GridLayoutManager(activity, spanCount);
@@ -82,9 +89,6 @@ public class CustomEmojiPopupKeyboard extends PopupKeyboard{
 		list.setLayoutManager(lm);
 		list.setPadding(V.dp(16), 0, V.dp(16), 0);
 		imgLoader=new ListImageLoaderWrapper(activity, list, list, null);
-
-		for(EmojiCategory category:emojis)
-			adapter.addAdapter(new SingleCategoryAdapter(category));
 		list.setAdapter(adapter);
 		list.addItemDecoration(new RecyclerView.ItemDecoration(){
 			@Override
@@ -138,12 +142,19 @@ public class CustomEmojiPopupKeyboard extends PopupKeyboard{
 		this.listener=listener;
 	}
 
-	@SuppressLint("NotifyDataSetChanged")
+	private void setEmojis(List<EmojiCategory> emojis){
+		this.emojis=emojis;
+		adapter=new MergeRecyclerAdapter();
+		for(EmojiCategory category:emojis)
+			adapter.addAdapter(new SingleCategoryAdapter(category));
+		if(list!=null)
+			list.setAdapter(adapter);
+	}
+
 	@Subscribe
 	public void onEmojiUpdated(EmojiUpdatedEvent ev){
-		if(ev.instanceDomain.equals(domain)){
-			emojis=AccountSessionManager.getInstance().getCustomEmojis(domain);
-			adapter.notifyDataSetChanged();
+		if(ev.instanceDomain.equals(domain) && emojis!=null){
+			setEmojis(AccountSessionManager.getInstance().getCustomEmojis(domain));
 		}
 	}
 
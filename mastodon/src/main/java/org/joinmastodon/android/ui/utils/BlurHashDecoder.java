@@ -1,30 +1,61 @@
 package org.joinmastodon.android.ui.utils;
 
 import android.graphics.Bitmap;
-import android.util.SparseArray;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * https://github.com/woltapp/blurhash/blob/master/Kotlin/lib/src/main/java/com/wolt/blurhashkt/BlurHashDecoder.kt
- * but rewritten in a language that doesn't suck
+ * but rewritten in a language that doesn't suck. Thread-safe, attachments are decoded on whatever thread parses them.
  */
 public class BlurHashDecoder{
 	private BlurHashDecoder(){}
 
-	// cache Math.cos() calculations to improve performance.
-	// The number of calculations can be huge for many bitmaps: width * height * numCompX * numCompY * 2 * nBitmaps
-	// the cache is enabled by default, it is recommended to disable it only when just a few images are displayed
-	private static SparseArray<double[]> cacheCosinesX=new SparseArray<>();
-	private static SparseArray<double[]> cacheCosinesY=new SparseArray<>();
 	private static final String CHAR_MAP="0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+	/**
+	 * Index of each ASCII character in {@link #CHAR_MAP}, -1 if it isn't there
+	 */
+	private static final byte[] CHAR_INDICES=new byte[128];
+	private static final float[] SRGB_TO_LINEAR=new float[256];
+	private static final int LINEAR_TO_SRGB_STEPS=4096;
+	private static final byte[] LINEAR_TO_SRGB=new byte[LINEAR_TO_SRGB_STEPS+1];
+	/**
+	 * cos(PI*pixel*component/size) for each pixel and component, keyed by {@link #basisKey(int, int)}
+	 */
+	private static final ConcurrentHashMap<Integer, float[]> basisTables=new ConcurrentHashMap<>();
+	/**
+	 * The same attachments are decoded again every time their posts are loaded, and the bitmaps are tiny
+	 */
+	private static final LruCache<String, Bitmap> bitmaps=new LruCache<>(512*1024){
+		@Override
+		protected int sizeOf(String key, Bitmap value){
+			return value.getByteCount();
+		}
+	};
+
+	static{
+		Arrays.fill(CHAR_INDICES, (byte)-1);
+		for(int i=0;i<CHAR_MAP.length();i++){
+			CHAR_INDICES[CHAR_MAP.charAt(i)]=(byte)i;
+		}
+		for(int i=0;i<256;i++){
+			float v=i/255f;
+			SRGB_TO_LINEAR[i]=v<=0.4045f ? (v/12.92f) : (float)Math.pow((v+0.055f)/1.055f, 2.4f);
+		}
+		for(int i=0;i<=LINEAR_TO_SRGB_STEPS;i++){
+			float v=i/(float)LINEAR_TO_SRGB_STEPS;
+			LINEAR_TO_SRGB[i]=(byte)(v<=0.0031308f ? (int)(v*12.92f*255f+0.5f) : (int)((1.055f*(float)Math.pow(v, 1/2.4f)-0.055f)*255+0.5f));
+		}
+	}
 
 	/**
-	 * Clear calculations stored in memory cache.
-	 * The cache is not big, but will increase when many image sizes are used,
-	 * if the app needs memory it is recommended to clear it.
+	 * Clear the decoded bitmaps and the calculations stored in memory, if the app needs memory
 	 */
 	public static void clearCache(){
-		cacheCosinesX.clear();
-		cacheCosinesY.clear();
+		basisTables.clear();
+		bitmaps.evictAll();
 	}
 
 	public static Bitmap decode(String blurHash, int width, int height){
@@ -32,15 +63,20 @@ public class BlurHashDecoder{
 	}
 
 	/**
-	 * Decode a blur hash into a new bitmap.
+	 * Decode a blur hash into a bitmap. The bitmap is immutable and may be shared with other callers.
 	 *
-	 * @param useCache use in memory cache for the calculated math, reused by images with same size.
-	 *                 if the cache does not exist yet it will be created and populated with new calculations.
-	 *                 By default it is true.
+	 * @param useCache whether to reuse a bitmap that was already decoded from this hash at this size, and to keep the
+	 *                 result and the calculations for this size for next time. By default it is true.
 	 */
 	public static Bitmap decode(String blurHash, int width, int height, float punch, boolean useCache){
 		if(blurHash==null || blurHash.length()<6)
 			return null;
+		String cacheKey=useCache ? (blurHash+'/'+width+'x'+height+'/'+punch) : null;
+		if(useCache){
+			Bitmap cached=bitmaps.get(cacheKey);
+			if(cached!=null)
+				return cached;
+		}
 		int numCompEnc=decode83(blurHash, 0, 1);
 		int numCompX=(numCompEnc%9)+1;
 		int numCompY=(numCompEnc/9)+1;
@@ -48,14 +84,17 @@ public class BlurHashDecoder{
 			return null;
 		int maxAcEnc=decode83(blurHash, 1, 2);
 		float maxAc=(maxAcEnc+1)/166f;
-		float[][] colors=new float[numCompX*numCompY][];
-		colors[0]=decodeDc(decode83(blurHash, 2, 6));
-		for(int i=1;i<colors.length;i++){
+		// r, g, b of each component
+		float[] colors=new float[numCompX*numCompY*3];
+		decodeDc(decode83(blurHash, 2, 6), colors);
+		for(int i=1;i<numCompX*numCompY;i++){
 			int from=4+i*2;
-			int colorEnc=decode83(blurHash, from, from+2);
-			colors[i]=decodeAc(colorEnc, maxAc*punch);
+			decodeAc(decode83(blurHash, from, from+2), maxAc*punch, colors, i*3);
 		}
-		return composeBitmap(width, height, numCompX, numCompY, colors, useCache);
+		Bitmap bitmap=composeBitmap(width, height, numCompX, numCompY, colors, useCache);
+		if(useCache)
+			bitmaps.put(cacheKey, bitmap);
+		return bitmap;
 	}
 
 	public static int decodeToSingleColor(String hash){
@@ -67,56 +106,57 @@ public class BlurHashDecoder{
 	private static int decode83(String str, int from, int to){
 		int result=0;
 		for(int i=from;i<to;i++){
-			int index=CHAR_MAP.indexOf(str.charAt(i));
+			char c=str.charAt(i);
+			int index=c<128 ? CHAR_INDICES[c] : -1;
 			if(index!=-1)
 				result=result*83+index;
 		}
 		return result;
 	}
 
-	private static float[] decodeDc(int colorEnc){
-		int r=colorEnc >> 16;
-		int g=(colorEnc >> 8) & 255;
-		int b=colorEnc & 255;
-		return new float[]{srgbToLinear(r), srgbToLinear(g), srgbToLinear(b)};
-	}
-
-	private static float srgbToLinear(int colorEnc){
-		float v=colorEnc/255f;
-		return v<=0.4045f ? (v/12.92f) : (float)Math.pow((v + 0.055f) / 1.055f, 2.4f);
+	private static void decodeDc(int colorEnc, float[] out){
+		out[0]=SRGB_TO_LINEAR[(colorEnc >> 16) & 255];
+		out[1]=SRGB_TO_LINEAR[(colorEnc >> 8) & 255];
+		out[2]=SRGB_TO_LINEAR[colorEnc & 255];
 	}
 
-	private static float[] decodeAc(int value, float maxAc){
+	private static void decodeAc(int value, float maxAc, float[] out, int offset){
 		int r=value/(19*19);
 		int g=(value/19)%19;
 		int b=value%19;
-		return new float[]{signedPow2((r-9)/9f)*maxAc, signedPow2((g-9)/9f)*maxAc, signedPow2((b-9)/9f)*maxAc};
+		out[offset]=signedPow2((r-9)/9f)*maxAc;
+		out[offset+1]=signedPow2((g-9)/9f)*maxAc;
+		out[offset+2]=signedPow2((b-9)/9f)*maxAc;
 	}
 
 	private static float signedPow2(float value){
 		return value*value*Math.signum(value);
 	}
 
-	private static Bitmap composeBitmap(int width, int height, int numCompX, int numCompY, float[][] colors, boolean useCache){
-		// use an array for better performance when writing pixel colors
+	private static Bitmap composeBitmap(int width, int height, int numCompX, int numCompY, float[] colors, boolean useCache){
+		float[] basisX=getBasisTable(width, numCompX, useCache);
+		float[] basisY=getBasisTable(height, numCompY, useCache);
 		int[] imageArray=new int[width*height];
-		boolean calculateCosX=!useCache || cacheCosinesX.get(width*numCompX)==null;
-		double[] cosinesX=getArrayForCosinesX(calculateCosX, width, numCompX);
-		boolean calculateCosY=!useCache || cacheCosinesY.get(height*numCompY)==null;
-		double[] cosinesY=getArrayForCosinesY(calculateCosY, height, numCompY);
+		// The basis is separable, so the vertical part of every component is summed once per row
+		float[] rowColors=new float[numCompX*3];
 		for(int y=0;y<height;y++){
+			Arrays.fill(rowColors, 0f);
+			for(int j=0;j<numCompY;j++){
+				float basis=basisY[y*numCompY+j];
+				for(int i=0;i<numCompX;i++){
+					int c=(j*numCompX+i)*3;
+					rowColors[i*3]+=colors[c]*basis;
+					rowColors[i*3+1]+=colors[c+1]*basis;
+					rowColors[i*3+2]+=colors[c+2]*basis;
+				}
+			}
 			for(int x=0;x<width;x++){
 				float r=0f, g=0f, b=0f;
-				for(int j=0;j<numCompY;j++){
-					for(int i=0;i<numCompX;i++){
-						double cosX=calculateCosX ? (cosinesX[i+numCompX*x]=Math.cos(Math.PI*x*i/width)) : cosinesX[i+numCompX*x];
-						double cosY=calculateCosY ? (cosinesY[j+numCompY*y]=Math.cos(Math.PI*y*j/height)) : cosinesY[j+numCompY*y];
-						float basis=(float)(cosX*cosY);
-						float[] color=colors[j*numCompX+i];
-						r+=color[0]*basis;
-						g+=color[1]*basis;
-						b+=color[2]*basis;
-					}
+				for(int i=0;i<numCompX;i++){
+					float basis=basisX[x*numCompX+i];
+					r+=rowColors[i*3]*basis;
+					g+=rowColors[i*3+1]*basis;
+					b+=rowColors[i*3+2]*basis;
 				}
 				imageArray[x+width*y]=0xFF000000 | linearToSrgb(b) | (linearToSrgb(g) << 8) | (linearToSrgb(r) << 16);
 			}
@@ -124,28 +164,32 @@ public class BlurHashDecoder{
 		return Bitmap.createBitmap(imageArray, width, height, Bitmap.Config.ARGB_8888);
 	}
 
-	private static double[] getArrayForCosinesY(boolean calculate, int height, int numCompY){
-		if(calculate){
-			double[] res=new double[height*numCompY];
-			cacheCosinesY.put(height*numCompY, res);
-			return res;
-		}else{
-			return cacheCosinesY.get(height*numCompY);
-		}
+	/**
+	 * @return cos(PI*pixel*component/size) at [pixel*numComp+component]
+	 */
+	private static float[] getBasisTable(int size, int numComp, boolean useCache){
+		if(useCache)
+			return basisTables.computeIfAbsent(basisKey(size, numComp), k->makeBasisTable(size, numComp));
+		return makeBasisTable(size, numComp);
 	}
 
-	private static double[] getArrayForCosinesX(boolean calculate, int width, int numCompX){
-		if(calculate){
-			double[] res=new double[width*numCompX];
-			cacheCosinesX.put(width*numCompX, res);
-			return res;
-		}else{
-			return cacheCosinesX.get(width*numCompX);
+	private static float[] makeBasisTable(int size, int numComp){
+		float[] table=new float[size*numComp];
+		for(int p=0;p<size;p++){
+			for(int c=0;c<numComp;c++){
+				table[p*numComp+c]=(float)Math.cos(Math.PI*p*c/size);
+			}
 		}
+		return table;
+	}
+
+	private static int basisKey(int size, int numComp){
+		// There are at most 9 components per axis
+		return size*10+numComp;
 	}
 
 	private static int linearToSrgb(float value){
 		float v=Math.max(0f, Math.min(1f, value));
-		return v<=0.0031308f ? (int)(v * 12.92f * 255f + 0.5f) : (int)((1.055f * (float)Math.pow(v, 1 / 2.4f) - 0.055f) * 255 + 0.5f);
+		return LINEAR_TO_SRGB[(int)(v*LINEAR_TO_SRGB_STEPS+0.5f)] & 0xFF;
 	}
 }
@@ -0,0 +1,53 @@
+package org.joinmastodon.android.utils;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import org.joinmastodon.android.BuildConfig;
+
+import java.util.EnumMap;
+
+/**
+ * Logs how long each step of a cold start took to happen after the process was started, in debug builds. Only the
+ * first time each step happens counts.
+ */
+public class StartupTimer{
+	private static final String TAG="StartupTimer";
+	private static final long processStartTime=Build.VERSION.SDK_INT>=Build.VERSION_CODES.N ? Process.getStartElapsedRealtime() : SystemClock.elapsedRealtime();
+	private static final EnumMap<Step, Long> times=new EnumMap<>(Step.class);
+
+	public static synchronized void mark(Step step){
+		if(times.containsKey(step))
+			return;
+		long time=SystemClock.elapsedRealtime()-processStartTime;
+		times.put(step, time);
+		if(BuildConfig.DEBUG)
+			Log.d(TAG, step+" at "+time+"ms");
+	}
+
+	/**
+	 * Marks the step when the view draws its next frame
+	 */
+	public static void markOnNextFrame(View view, Step step){
+		view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener(){
+			@Override
+			public boolean onPreDraw(){
+				view.getViewTreeObserver().removeOnPreDrawListener(this);
+				mark(step);
+				return true;
+			}
+		});
+	}
+
+	public enum Step{
+		APP_CREATED,
+		SESSIONS_LOADED,
+		ACTIVITY_CREATED,
+		SNAPSHOT_FRAME,
+		FIRST_CONTENT_FRAME
+	}
+}